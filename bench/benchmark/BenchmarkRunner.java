@@ -0,0 +1,265 @@
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Minimal throughput harness for the project's hot paths.
+ * Each measurement runs an operation on N threads for a fixed time after a
+ * warmup period and reports operations per second.
+ *
+ * Usage: benchmark.BenchmarkRunner [--warmup=ms] [--time=ms] [--iterations=n]
+ * [--csv=file] [name...]
+ *
+ * With --csv each result is also appended to the file, so runs before and
+ * after a change can be compared.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * One benchmarked call. The returned value is consumed so the JIT cannot
+     * discard the work.
+     */
+    public interface Operation {
+        long run(int threadIndex) throws Exception;
+    }
+
+    /**
+     * A group of related measurements
+     */
+    public interface Benchmark {
+        void run(BenchmarkRunner runner) throws Exception;
+    }
+
+    private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("inventory", new InventoryBenchmark());
+        BENCHMARKS.put("product", new ProductQuantityBenchmark());
+        BENCHMARKS.put("codec", new MessageCodecBenchmark());
+        BENCHMARKS.put("clock", new LamportClockBenchmark());
+        BENCHMARKS.put("mutex", new MutexBenchmark());
+        BENCHMARKS.put("mutex-algorithms", new MutexAlgorithmBenchmark());
+        BENCHMARKS.put("mutex-safety", new MutexSafetyBenchmark());
+        BENCHMARKS.put("wal", new WriteAheadLogBenchmark());
+        BENCHMARKS.put("replication", new ReplicationBenchmark());
+        BENCHMARKS.put("link-priority", new LinkPriorityBenchmark());
+        BENCHMARKS.put("connections", new ConnectionLoadBenchmark());
+    }
+
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final int iterations;
+    private final List<Result> results = new ArrayList<>();
+    // Captured up front: benchmarks may silence System.out while they run
+    private final PrintStream out = System.out;
+    private volatile long sink;
+
+    public BenchmarkRunner(long warmupMillis, long measureMillis, int iterations) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+        this.iterations = iterations;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Warm up, then measure the operation and print the mean throughput
+     */
+    public Result measure(String name, int threads, Operation operation) throws Exception {
+        runTimed(threads, warmupMillis, operation);
+
+        double[] samples = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long ops = runTimed(threads, measureMillis, operation);
+            samples[i] = ops * 1_000_000_000.0 / (System.nanoTime() - start);
+        }
+
+        Result result = new Result(name, threads, samples);
+        results.add(result);
+        out.println(result);
+        return result;
+    }
+
+    private long runTimed(int threads, long millis, Operation operation) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        long[] values = new long[threads];
+        Exception[] failures = new Exception[threads];
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            Thread worker = new Thread(() -> {
+                long count = 0;
+                long value = 0;
+                try {
+                    ready.countDown();
+                    start.await();
+                    while (running.get()) {
+                        value += operation.run(index);
+                        count++;
+                    }
+                } catch (Exception e) {
+                    failures[index] = e;
+                }
+                counts[index] = count;
+                values[index] = value;
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        ready.await();
+        start.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            if (failures[t] != null) {
+                throw failures[t];
+            }
+            total += counts[t];
+            sink += values[t];
+        }
+        return total;
+    }
+
+    /**
+     * Throughput samples for one measurement
+     */
+    public static class Result {
+        private final String name;
+        private final int threads;
+        private final double[] samples;
+
+        Result(String name, int threads, double[] samples) {
+            this.name = name;
+            this.threads = threads;
+            this.samples = samples;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public double getOpsPerSecond() {
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            return sum / samples.length;
+        }
+
+        public double getError() {
+            double mean = getOpsPerSecond();
+            double variance = 0;
+            for (double sample : samples) {
+                variance += (sample - mean) * (sample - mean);
+            }
+            return samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-56s %3d thr %,16.0f ops/s  +/- %,.0f", name, threads,
+                    getOpsPerSecond(), getError());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long warmup = 1000;
+        long time = 2000;
+        int iterations = 3;
+        String csvFile = null;
+        List<String> selected = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--")) {
+                // Accept --key=value and --key value (cmd.exe splits on '=')
+                String key = arg;
+                String value;
+                int eq = arg.indexOf('=');
+                if (eq >= 0) {
+                    key = arg.substring(0, eq);
+                    value = arg.substring(eq + 1);
+                } else if (i + 1 < args.length) {
+                    value = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                switch (key) {
+                    case "--warmup":
+                        warmup = Long.parseLong(value);
+                        break;
+                    case "--time":
+                        time = Long.parseLong(value);
+                        break;
+                    case "--iterations":
+                        iterations = Integer.parseInt(value);
+                        break;
+                    case "--csv":
+                        csvFile = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + key);
+                }
+            } else if (BENCHMARKS.containsKey(arg)) {
+                selected.add(arg);
+            } else {
+                System.err.println("Unknown benchmark: " + arg);
+                System.err.println("Available benchmarks: " + BENCHMARKS.keySet());
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty()) {
+            selected.addAll(BENCHMARKS.keySet());
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, time, iterations);
+        System.out.println(String.format("Warmup %d ms, %d x %d ms per measurement, %d cores",
+                warmup, iterations, time, Runtime.getRuntime().availableProcessors()));
+        for (String name : selected) {
+            System.out.println();
+            System.out.println("== " + name + " ==");
+            BENCHMARKS.get(name).run(runner);
+        }
+
+        if (csvFile != null) {
+            writeCsv(csvFile, runner.getResults());
+            System.out.println();
+            System.out.println("Results appended to " + csvFile);
+        }
+    }
+
+    private static void writeCsv(String file, List<Result> results) throws IOException {
+        long runAt = System.currentTimeMillis();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            for (Result result : results) {
+                writer.println(String.format(Locale.ROOT, "%d,\"%s\",%d,%.0f,%.0f", runAt,
+                        result.getName(), result.getThreads(), result.getOpsPerSecond(), result.getError()));
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package benchmark;
+
+import chatroom.ChatroomServer;
+import communication.ThreadMode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Connection load on the chatroom server with platform and virtual threads.
+ * Opens many idle chat connections and reports how many platform threads
+ * they take and the heap each one costs. Virtual thread stacks live on the
+ * heap; platform thread stacks are native memory, counted by the threads.
+ * The clients share one selector that discards everything the server sends.
+ */
+public class ConnectionLoadBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] CONNECTIONS = {250, 1000};
+    private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        PrintStream console = System.out;
+        // The server logs every join and leave
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (ThreadMode mode : ThreadMode.values()) {
+                for (int connections : CONNECTIONS) {
+                    console.println(measure(mode, connections));
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private String measure(ThreadMode mode, int count) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ChatroomServer server = new ChatroomServer("Load", port, mode);
+        server.start();
+
+        List<SocketChannel> clients = new ArrayList<>();
+        Selector selector = Selector.open();
+        Thread drain = new Thread(() -> drain(selector), "load-drain");
+        drain.setDaemon(true);
+        drain.start();
+        try {
+            settle();
+            int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heapBefore = usedHeap();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", port));
+                client.configureBlocking(false);
+                clients.add(client);
+                // Registering blocks while the drain thread selects; wake it and hold it off
+                synchronized (selector) {
+                    selector.wakeup();
+                    client.register(selector, SelectionKey.OP_READ);
+                }
+            }
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+            while (server.getConnectedUsers().size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            long connectMillis = (System.nanoTime() - start) / 1_000_000;
+            int connected = server.getConnectedUsers().size();
+
+            settle();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            double heapPer = (usedHeap() - heapBefore) / 1024.0 / Math.max(1, connected);
+
+            String label = mode == ThreadMode.VIRTUAL && !ThreadMode.isVirtualAvailable()
+                    ? "VIRTUAL (unavailable, ran on platform)" : mode.toString();
+            return String.format("Chat connections, %-38s %5d/%d connected in %5d ms, +%d platform threads, "
+                    + "heap %.1f KB/conn", label, connected, count, connectMillis, threads, heapPer);
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            server.stop();
+            drain.interrupt();
+            selector.close();
+        }
+    }
+
+    private void drain(Selector selector) {
+        ByteBuffer discard = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (selector.isOpen() && !Thread.currentThread().isInterrupted()) {
+                selector.select(100);
+                // Let registrations in after a wakeup
+                synchronized (selector) {
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    discard.clear();
+                    if (((SocketChannel) key.channel()).read(discard) < 0) {
+                        key.cancel();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Selector closed
+        }
+    }
+
+    private static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,56 @@
+package benchmark;
+
+import inventory.InventoryManager;
+import inventory.Product;
+import java.util.List;
+
+/**
+ * InventoryManager under contention: sales on one hot product, sales spread
+ * across the catalog, catalog reads, and a mix of sales with readers.
+ */
+public class InventoryBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] THREADS = {1, 4, 16};
+    private static final int STOCK = 1_000_000_000;
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        InventoryManager inventory = new InventoryManager("BenchBranch");
+        List<Product> products = inventory.getAllProducts();
+        String[] ids = new String[products.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = products.get(i).getProductId();
+        }
+
+        for (int threads : THREADS) {
+            restock(inventory, ids);
+            runner.measure("InventoryManager.processSale (hot product)", threads,
+                    index -> inventory.processSale(ids[0], 1) ? 1 : 0);
+
+            restock(inventory, ids);
+            runner.measure("InventoryManager.processSale (spread)", threads,
+                    index -> inventory.processSale(ids[index % ids.length], 1) ? 1 : 0);
+
+            runner.measure("InventoryManager.getAllProducts", threads,
+                    index -> inventory.getAllProducts().size());
+
+            runner.measure("InventoryManager.searchProducts", threads,
+                    index -> inventory.searchProducts("mouse").size());
+
+            if (threads >= 4) {
+                restock(inventory, ids);
+                runner.measure("InventoryManager sale + getAllProducts (3:1)", threads, index -> {
+                    if (index % 4 == 3) {
+                        return inventory.getAllProducts().size();
+                    }
+                    return inventory.processSale(ids[index % ids.length], 1) ? 1 : 0;
+                });
+            }
+        }
+    }
+
+    private static void restock(InventoryManager inventory, String[] ids) {
+        for (String id : ids) {
+            inventory.updateQuantity(id, STOCK);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import distributed.LamportClock;
+import distributed.VectorClock;
+
+/**
+ * LamportClock tick and update in Lamport and hybrid mode, uncontended and
+ * shared between threads, and VectorClock compare and merge on one thread
+ */
+public class LamportClockBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] THREADS = {1, 4, 16};
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        for (int threads : THREADS) {
+            LamportClock clock = new LamportClock();
+            runner.measure("LamportClock.tick", threads, index -> clock.tick());
+
+            LamportClock received = new LamportClock();
+            runner.measure("LamportClock.update", threads,
+                    index -> received.update(received.getTime() + (index & 1)));
+
+            LamportClock hybrid = new LamportClock(LamportClock.Mode.HYBRID);
+            runner.measure("LamportClock.tick (hybrid)", threads, index -> hybrid.tick());
+
+            LamportClock hybridReceived = new LamportClock(LamportClock.Mode.HYBRID);
+            runner.measure("LamportClock.update (hybrid)", threads,
+                    index -> hybridReceived.update(hybridReceived.getTime() + (index & 1)));
+        }
+
+        VectorClock ours = new VectorClock();
+        VectorClock theirs = new VectorClock();
+        for (int branch = 0; branch < 8; branch++) {
+            int index = VectorClock.indexOf("BENCH-" + branch);
+            ours.advance(index, 1000 + branch);
+            theirs.advance(index, 1000 + (branch ^ 1));
+        }
+        runner.measure("VectorClock.compareTo", 1, index -> ours.compareTo(theirs).ordinal());
+        runner.measure("VectorClock.merge", 1, index -> {
+            ours.merge(theirs);
+            return theirs.tick(index & 7);
+        });
+    }
+}
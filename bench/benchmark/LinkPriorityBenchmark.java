@@ -0,0 +1,104 @@
+package benchmark;
+
+import communication.LaneScheduling;
+import communication.Message;
+import communication.MessageType;
+import communication.NetworkManager;
+import communication.TrafficClass;
+import communication.TransportMode;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ping round trips between two branches over localhost while a background
+ * thread floods the same link with bulk LOG_ENTRY messages, for each lane
+ * scheduling. Prints the mean round trip, which under FIFO includes waiting
+ * behind the queued bulk messages.
+ */
+public class LinkPriorityBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int PAYLOAD_SIZE = 512;
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        PrintStream console = System.out;
+        // The network managers log connects and stops
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (LaneScheduling scheduling : LaneScheduling.values()) {
+                measure(runner, console, scheduling);
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private void measure(BenchmarkRunner runner, PrintStream console, LaneScheduling scheduling)
+            throws Exception {
+        NetworkManager sender = new NetworkManager("BranchA", freePort(), TransportMode.BLOCKING);
+        int receiverPort = freePort();
+        NetworkManager receiver = new NetworkManager("BranchB", receiverPort, TransportMode.BLOCKING);
+        sender.setLaneScheduling(scheduling);
+        receiver.setLaneScheduling(scheduling);
+
+        BlockingQueue<Message> pongs = new LinkedBlockingQueue<>();
+        sender.setMessageHandler(message -> {
+            if (message.getType() == MessageType.PONG) {
+                pongs.offer(message);
+            }
+        });
+        receiver.setMessageHandler(message -> {
+            if (message.getType() == MessageType.PING) {
+                receiver.sendMessage(message.getSenderId(),
+                        new Message(MessageType.PONG, "BranchB", message.getSenderId()));
+            }
+        });
+
+        AtomicBoolean flooding = new AtomicBoolean(true);
+        Thread flood = new Thread(() -> {
+            String payload = "x".repeat(PAYLOAD_SIZE);
+            while (flooding.get()) {
+                Message entry = new Message(MessageType.LOG_ENTRY, "BranchA", "BranchB");
+                entry.putData("logEntry", payload);
+                sender.sendMessage("BranchB", entry);
+            }
+        }, "bulk-flood");
+
+        try {
+            sender.start();
+            receiver.start();
+            sender.connectToNode("BranchB", "localhost", receiverPort);
+            flood.start();
+            // Let the bulk lane fill up
+            Thread.sleep(200);
+
+            BenchmarkRunner.Result result = runner.measure(
+                    String.format("Ping round trip under bulk flood (%s)", scheduling), 1, index -> {
+                        sender.sendMessage("BranchB", new Message(MessageType.PING, "BranchA", "BranchB"));
+                        Message pong = pongs.poll(30, TimeUnit.SECONDS);
+                        if (pong == null) {
+                            throw new IllegalStateException("No PONG within 30 s");
+                        }
+                        return 1;
+                    });
+            console.printf("  mean round trip %.0f us, most bulk messages queued %d%n",
+                    1e6 / result.getOpsPerSecond(),
+                    sender.getLinkMetrics().get("BranchB").getMaxQueueDepth(TrafficClass.BULK));
+        } finally {
+            flooding.set(false);
+            sender.stop();
+            receiver.stop();
+            flood.join(5000);
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package benchmark;
+
+import communication.Message;
+import communication.NetworkManager;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory NetworkManager for benchmarks. Messages are handed to the target
+ * node's handler on that node's delivery thread, preserving per-sender order
+ * like a TCP link, without any sockets.
+ */
+public class LoopbackNetworkManager extends NetworkManager {
+
+    /**
+     * Shared registry the loopback nodes deliver through
+     */
+    public static class Network {
+        private final Map<String, LoopbackNetworkManager> nodes = new ConcurrentHashMap<>();
+
+        public LoopbackNetworkManager join(String nodeId) {
+            LoopbackNetworkManager node = new LoopbackNetworkManager(nodeId, this);
+            nodes.put(nodeId, node);
+            return node;
+        }
+
+        public void shutdown() {
+            for (LoopbackNetworkManager node : nodes.values()) {
+                node.stop();
+            }
+        }
+    }
+
+    private final String nodeId;
+    private final Network network;
+    private final ExecutorService delivery;
+    private volatile MessageHandler handler;
+
+    private LoopbackNetworkManager(String nodeId, Network network) {
+        super(nodeId, 0);
+        this.nodeId = nodeId;
+        this.network = network;
+        this.delivery = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "loopback-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void setMessageHandler(MessageHandler messageHandler) {
+        this.handler = messageHandler;
+    }
+
+    @Override
+    public void sendMessage(String targetNodeId, Message message) {
+        LoopbackNetworkManager target = network.nodes.get(targetNodeId);
+        if (target != null) {
+            target.deliver(copyFor(targetNodeId, message));
+        }
+    }
+
+    @Override
+    public void broadcastMessage(Message message) {
+        for (String target : network.nodes.keySet()) {
+            if (!target.equals(nodeId)) {
+                sendMessage(target, message);
+            }
+        }
+    }
+
+    private void deliver(Message message) {
+        delivery.execute(() -> {
+            MessageHandler current = handler;
+            if (current != null) {
+                current.handleMessage(message);
+            }
+        });
+    }
+
+    private static Message copyFor(String targetNodeId, Message message) {
+        Message copy = new Message(message.getType(), message.getSenderId(), targetNodeId,
+                message.getResourceId(), message.getTimestamp());
+        copy.getData().putAll(message.getData());
+        return copy;
+    }
+
+    @Override
+    public void stop() {
+        delivery.shutdownNow();
+    }
+}
@@ -0,0 +1,152 @@
+package benchmark;
+
+import communication.BufferPool;
+import communication.CodecType;
+import communication.FrameOutput;
+import communication.Message;
+import communication.MessageFramer;
+import communication.MessageType;
+import inventory.Product;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Frame encode/decode round trip through a buffered Data stream stack, for
+ * each codec, batch encoding through that stack against the pooled buffers
+ * NodeConnection now writes from, and a broadcast encoded for every peer
+ * against one encoded once and shared
+ */
+public class MessageCodecBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int BROADCAST_PEERS = 8;
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        Message heartbeat = new Message(MessageType.BRANCH_HEARTBEAT, "BranchA", "BranchB");
+
+        Message transfer = new Message(MessageType.STOCK_TRANSFER_REQUEST, "BranchA", "BranchB",
+                "P001", System.currentTimeMillis());
+        transfer.putData("productId", "P001");
+        transfer.putData("quantity", 25);
+        transfer.putData("product", new Product("P001", "Laptop", "Business laptop", 999.99, 50, 10,
+                "Electronics"));
+
+        for (CodecType codec : CodecType.values()) {
+            measure(runner, codec, "heartbeat", heartbeat);
+            measure(runner, codec, "stock transfer", transfer);
+        }
+        measureEncode(runner, transfer);
+
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            products.add(new Product("P" + i, "Product " + i, "Description " + i, 10.0 + i, 100, 10,
+                    "Category"));
+        }
+        Message snapshot = new Message(MessageType.SNAPSHOT, "BranchA", "");
+        snapshot.putData("products", products);
+        for (CodecType codec : CodecType.values()) {
+            measureBroadcast(runner, codec, snapshot);
+        }
+    }
+
+    private void measure(BenchmarkRunner runner, CodecType codec, String label, Message message)
+            throws Exception {
+        // One sending and one receiving framer, as on a single connection
+        MessageFramer writer = new MessageFramer(codec);
+        MessageFramer reader = new MessageFramer(codec);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes, 64 * 1024));
+
+        // First frame carries interned node IDs; both sides must see it
+        writer.writeFrame(message, out);
+        out.flush();
+        reader.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        bytes.reset();
+        writer.writeFrame(message, out);
+        out.flush();
+        int frameSize = bytes.size();
+        reader.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        runner.measure(String.format("%s round trip (%s, %d B)", codec, label, frameSize), 1, index -> {
+            bytes.reset();
+            writer.writeFrame(message, out);
+            out.flush();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            return reader.readFrame(in).getTimestamp();
+        });
+    }
+
+    private void measureEncode(BenchmarkRunner runner, Message message) throws Exception {
+        int batchSize = 64;
+        // The socket stand-in discards the bytes; both paths hand it the same arrays
+        OutputStream socket = OutputStream.nullOutputStream();
+
+        MessageFramer streamFramer = new MessageFramer(CodecType.BINARY);
+        DataOutputStream buffered = new DataOutputStream(new BufferedOutputStream(socket, 64 * 1024));
+        runner.measure(String.format("BINARY batch encode, buffered stream (%d frames)", batchSize), 1, index -> {
+            for (int i = 0; i < batchSize; i++) {
+                streamFramer.writeFrame(message, buffered);
+            }
+            buffered.flush();
+            return batchSize;
+        });
+
+        MessageFramer pooledFramer = new MessageFramer(CodecType.BINARY);
+        BufferPool pool = new BufferPool(false);
+        FrameOutput output = new FrameOutput(pool);
+        runner.measure(String.format("BINARY batch encode, pooled buffers (%d frames)", batchSize), 1, index -> {
+            for (int i = 0; i < batchSize; i++) {
+                pooledFramer.writeFrame(message, output);
+            }
+            ByteBuffer[] chunks = output.buffers();
+            for (int i = 0; i < output.bufferCount(); i++) {
+                socket.write(chunks[i].array(), chunks[i].arrayOffset(), chunks[i].limit());
+            }
+            output.release();
+            return batchSize;
+        });
+        System.out.println("  " + pool);
+    }
+
+    private void measureBroadcast(BenchmarkRunner runner, CodecType codec, Message message) throws Exception {
+        // One framer per peer, as each connection has its own
+        MessageFramer[] framers = new MessageFramer[BROADCAST_PEERS];
+        for (int i = 0; i < framers.length; i++) {
+            framers[i] = new MessageFramer(codec);
+        }
+        FrameOutput output = new FrameOutput(new BufferPool(false));
+
+        runner.measure(String.format("%s broadcast to %d peers, encoded per peer", codec, BROADCAST_PEERS), 1,
+                index -> {
+                    for (int i = 0; i < framers.length; i++) {
+                        // As broadcastMessage used to: a full copy per peer
+                        Message copy = new Message(message.getType(), message.getSenderId(), "Branch" + i,
+                                message.getResourceId(), message.getTimestamp());
+                        copy.setData(new ConcurrentHashMap<>(message.getData()));
+                        framers[i].writeFrame(copy, output);
+                    }
+                    output.release();
+                    return 1;
+                });
+
+        runner.measure(String.format("%s broadcast to %d peers, encoded once", codec, BROADCAST_PEERS), 1,
+                index -> {
+                    Message snapshot = new Message(message.getType(), message.getSenderId(), "",
+                            message.getResourceId(), message.getTimestamp());
+                    snapshot.setData(new ConcurrentHashMap<>(message.getData()));
+                    for (int i = 0; i < framers.length; i++) {
+                        framers[i].writeFrame(snapshot.shareWith("Branch" + i), output);
+                    }
+                    output.release();
+                    return 1;
+                });
+    }
+}
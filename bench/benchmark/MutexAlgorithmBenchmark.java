@@ -0,0 +1,101 @@
+package benchmark;
+
+import distributed.DistributedMutex;
+import distributed.LamportClock;
+import distributed.MaekawaMutex;
+import distributed.RicartAgrawalaMutex;
+import distributed.SuzukiKasamiMutex;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ricart-Agrawala, Maekawa's grid quorums and the Suzuki-Kasami token as the
+ * cluster grows. Either one thread per node competes for the same resource,
+ * so every entry has to go through the network, or a single node does all
+ * the entries (where Roucairol-Carvalho caching and a held token send no
+ * messages). Prints the messages sent per entry and the mean entry latency
+ * after each measurement.
+ */
+public class MutexAlgorithmBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] NODES = {3, 9, 25};
+
+    /**
+     * Creates one node's mutex
+     */
+    private interface MutexFactory {
+        DistributedMutex create(String nodeId, LoopbackNetworkManager network, Set<String> nodeIds);
+    }
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        PrintStream console = System.out;
+        // The mutexes log every step; keep the formatting cost but not the terminal
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int nodes : NODES) {
+                for (int contenders : new int[]{1, nodes}) {
+                    measure(runner, console, "RicartAgrawala", nodes, contenders,
+                            (nodeId, network, nodeIds) -> new RicartAgrawalaMutex(nodeId, network,
+                                    new LamportClock(), nodeIds));
+                    measure(runner, console, "Maekawa", nodes, contenders,
+                            (nodeId, network, nodeIds) -> new MaekawaMutex(nodeId, network, new LamportClock(),
+                                    nodeIds));
+                    measure(runner, console, "SuzukiKasami", nodes, contenders,
+                            (nodeId, network, nodeIds) -> new SuzukiKasamiMutex(nodeId, network,
+                                    new LamportClock(), nodeIds));
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private void measure(BenchmarkRunner runner, PrintStream console, String algorithm, int nodeCount,
+            int contenders, MutexFactory factory) throws Exception {
+        LoopbackNetworkManager.Network network = new LoopbackNetworkManager.Network();
+        Set<String> nodeIds = new LinkedHashSet<>();
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds.add(String.format("Node%02d", i));
+        }
+        DistributedMutex[] mutexes = new DistributedMutex[nodeCount];
+        int i = 0;
+        for (String nodeId : nodeIds) {
+            LoopbackNetworkManager node = network.join(nodeId);
+            DistributedMutex mutex = factory.create(nodeId, node, nodeIds);
+            node.setMessageHandler(mutex::handleMessage);
+            mutexes[i++] = mutex;
+        }
+
+        AtomicLong entries = new AtomicLong();
+        try {
+            BenchmarkRunner.Result result = runner.measure(String.format("%s request/release (%d nodes, %d contending)",
+                    algorithm, nodeCount, contenders), contenders, index -> {
+                // The lone contender is not the first token holder
+                DistributedMutex mutex = mutexes[contenders == 1 ? nodeCount - 1 : index];
+                if (!mutex.requestCriticalSection(DistributedMutex.DEFAULT_RESOURCE, 10)) {
+                    return 0;
+                }
+                mutex.releaseCriticalSection(DistributedMutex.DEFAULT_RESOURCE);
+                entries.incrementAndGet();
+                return 1;
+            });
+
+            long messages = 0;
+            for (DistributedMutex mutex : mutexes) {
+                messages += mutex.getMessagesSent();
+            }
+            // Each thread runs one entry at a time, so its rate is the inverse of the latency
+            console.println(String.format("    %.1f messages per entry, %.0f us mean entry latency",
+                    (double) messages / Math.max(1, entries.get()),
+                    contenders * 1_000_000.0 / result.getOpsPerSecond()));
+        } finally {
+            for (DistributedMutex mutex : mutexes) {
+                mutex.shutdown();
+            }
+            network.shutdown();
+        }
+    }
+}
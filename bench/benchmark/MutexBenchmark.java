@@ -0,0 +1,90 @@
+package benchmark;
+
+import distributed.LamportClock;
+import distributed.RicartAgrawalaMutex;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ricart-Agrawala request/release cycles over an in-memory loopback network.
+ * One thread per node competes for the critical section, either all for the
+ * same resource or each for its own. The async case runs several requesters
+ * per node through acquireAsync, sharing each node's distributed request.
+ */
+public class MutexBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] NODES = {2, 3, 5};
+    private static final int ASYNC_REQUESTERS_PER_NODE = 4;
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        PrintStream console = System.out;
+        // The mutex logs every step; keep the formatting cost but not the terminal
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int nodes : NODES) {
+                measure(runner, nodes, 1, false);
+                measure(runner, nodes, nodes, false);
+                measure(runner, nodes, nodes, true);
+                measureAsync(runner, nodes);
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private void measure(BenchmarkRunner runner, int nodeCount, int contenders, boolean perResource)
+            throws Exception {
+        LoopbackNetworkManager.Network network = new LoopbackNetworkManager.Network();
+        RicartAgrawalaMutex[] mutexes = createMutexes(network, nodeCount);
+        try {
+            runner.measure(String.format("RicartAgrawala request/release (%d nodes, %d contending%s)",
+                    nodeCount, contenders, perResource ? ", own resource" : ""), contenders, index -> {
+                RicartAgrawalaMutex mutex = mutexes[index];
+                String resourceId = perResource ? "P" + index : RicartAgrawalaMutex.DEFAULT_RESOURCE;
+                if (!mutex.requestCriticalSection(resourceId, 5)) {
+                    return 0;
+                }
+                mutex.releaseCriticalSection(resourceId);
+                return 1;
+            });
+        } finally {
+            network.shutdown();
+        }
+    }
+
+    private void measureAsync(BenchmarkRunner runner, int nodeCount) throws Exception {
+        LoopbackNetworkManager.Network network = new LoopbackNetworkManager.Network();
+        RicartAgrawalaMutex[] mutexes = createMutexes(network, nodeCount);
+        int requesters = nodeCount * ASYNC_REQUESTERS_PER_NODE;
+        try {
+            runner.measure(String.format("RicartAgrawala acquireAsync/release (%d nodes, %d requesters each)",
+                    nodeCount, ASYNC_REQUESTERS_PER_NODE), requesters, index -> {
+                RicartAgrawalaMutex mutex = mutexes[index % nodeCount];
+                mutex.acquireAsync(RicartAgrawalaMutex.DEFAULT_RESOURCE).get(5, TimeUnit.SECONDS).release();
+                return 1;
+            });
+        } finally {
+            network.shutdown();
+        }
+    }
+
+    private RicartAgrawalaMutex[] createMutexes(LoopbackNetworkManager.Network network, int nodeCount) {
+        Set<String> nodeIds = new LinkedHashSet<>();
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds.add("Node" + i);
+        }
+
+        RicartAgrawalaMutex[] mutexes = new RicartAgrawalaMutex[nodeCount];
+        int i = 0;
+        for (String nodeId : nodeIds) {
+            LoopbackNetworkManager node = network.join(nodeId);
+            RicartAgrawalaMutex mutex = new RicartAgrawalaMutex(nodeId, node, new LamportClock(), nodeIds);
+            node.setMessageHandler(mutex::handleMessage);
+            mutexes[i++] = mutex;
+        }
+        return mutexes;
+    }
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import distributed.DistributedMutex;
+import distributed.LamportClock;
+import distributed.LockHandle;
+import distributed.MaekawaMutex;
+import distributed.RicartAgrawalaMutex;
+import distributed.SuzukiKasamiMutex;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mutual exclusion under contention with requests that time out. Several
+ * threads per node acquire the same resource with a timeout short enough
+ * that many requests are withdrawn while messages about them are still in
+ * flight, and every entry checks that nobody else is in the critical
+ * section. Fails if any entry overlaps another.
+ */
+public class MutexSafetyBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int NODES = 9;
+    private static final int THREADS_PER_NODE = 2;
+    private static final long TIMEOUT_MILLIS = 2;
+    // Long enough for an overlapping entry to be seen
+    private static final long HOLD_NANOS = 50_000;
+
+    /**
+     * Creates one node's mutex
+     */
+    private interface MutexFactory {
+        DistributedMutex create(String nodeId, LoopbackNetworkManager network, Set<String> nodeIds);
+    }
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        PrintStream console = System.out;
+        // The mutexes log every step; keep the formatting cost but not the terminal
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long violations = 0;
+        try {
+            violations += measure(runner, console, "RicartAgrawala",
+                    (nodeId, network, nodeIds) -> new RicartAgrawalaMutex(nodeId, network, new LamportClock(),
+                            nodeIds));
+            violations += measure(runner, console, "Maekawa",
+                    (nodeId, network, nodeIds) -> new MaekawaMutex(nodeId, network, new LamportClock(), nodeIds));
+            violations += measure(runner, console, "SuzukiKasami",
+                    (nodeId, network, nodeIds) -> new SuzukiKasamiMutex(nodeId, network, new LamportClock(),
+                            nodeIds));
+        } finally {
+            System.setOut(console);
+        }
+        if (violations > 0) {
+            throw new IllegalStateException(violations + " overlapping critical section entries");
+        }
+    }
+
+    private long measure(BenchmarkRunner runner, PrintStream console, String algorithm, MutexFactory factory)
+            throws Exception {
+        LoopbackNetworkManager.Network network = new LoopbackNetworkManager.Network();
+        Set<String> nodeIds = new LinkedHashSet<>();
+        for (int i = 0; i < NODES; i++) {
+            nodeIds.add(String.format("Node%02d", i));
+        }
+        DistributedMutex[] mutexes = new DistributedMutex[NODES];
+        int i = 0;
+        for (String nodeId : nodeIds) {
+            LoopbackNetworkManager node = network.join(nodeId);
+            DistributedMutex mutex = factory.create(nodeId, node, nodeIds);
+            node.setMessageHandler(mutex::handleMessage);
+            mutexes[i++] = mutex;
+        }
+
+        AtomicInteger holders = new AtomicInteger();
+        AtomicLong violations = new AtomicLong();
+        AtomicLong entries = new AtomicLong();
+        AtomicLong timeouts = new AtomicLong();
+        try {
+            runner.measure(String.format("%s entries with %d ms timeouts (%d nodes, %d threads each)",
+                    algorithm, TIMEOUT_MILLIS, NODES, THREADS_PER_NODE), NODES * THREADS_PER_NODE, index -> {
+                DistributedMutex mutex = mutexes[index % NODES];
+                LockHandle handle;
+                try {
+                    handle = mutex.acquireAsync(DistributedMutex.DEFAULT_RESOURCE, TIMEOUT_MILLIS,
+                            TimeUnit.MILLISECONDS).get();
+                } catch (ExecutionException e) {
+                    timeouts.incrementAndGet();
+                    return 0;
+                }
+                if (holders.incrementAndGet() > 1) {
+                    violations.incrementAndGet();
+                }
+                LockSupport.parkNanos(HOLD_NANOS);
+                holders.decrementAndGet();
+                handle.release();
+                entries.incrementAndGet();
+                return 1;
+            });
+            console.println(String.format("    %d entries, %d timed out, %d overlapping",
+                    entries.get(), timeouts.get(), violations.get()));
+        } finally {
+            for (DistributedMutex mutex : mutexes) {
+                mutex.shutdown();
+            }
+            network.shutdown();
+        }
+        return violations.get();
+    }
+}
@@ -0,0 +1,60 @@
+package benchmark;
+
+import inventory.Product;
+
+/**
+ * Compares the lock-free Product quantity against the previous synchronized
+ * implementation when many threads sell and restock one hot product.
+ */
+public class ProductQuantityBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        for (int threads : THREADS) {
+            Product product = new Product("HOT-1", "Hot item", "", 1.0, 1_000_000, 10);
+            runner.measure("Product.reduce/add (CAS)", threads, index -> {
+                if (product.reduceQuantity(1)) {
+                    product.addQuantity(1);
+                    return 1;
+                }
+                return 0;
+            });
+
+            SynchronizedQuantity baseline = new SynchronizedQuantity(1_000_000);
+            runner.measure("Product.reduce/add (synchronized)", threads, index -> {
+                if (baseline.reduceQuantity(1)) {
+                    baseline.addQuantity(1);
+                    return 1;
+                }
+                return 0;
+            });
+        }
+    }
+
+    /**
+     * The quantity handling Product used before it moved to compare-and-set
+     */
+    static class SynchronizedQuantity {
+        private int quantity;
+        private long lastUpdated;
+
+        SynchronizedQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+
+        synchronized boolean reduceQuantity(int amount) {
+            if (quantity >= amount) {
+                quantity -= amount;
+                lastUpdated = System.currentTimeMillis();
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void addQuantity(int amount) {
+            quantity += amount;
+            lastUpdated = System.currentTimeMillis();
+        }
+    }
+}
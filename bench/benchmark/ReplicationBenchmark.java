@@ -0,0 +1,97 @@
+package benchmark;
+
+import distributed.LamportClock;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import replication.FsyncPolicy;
+import replication.ReplicationManager;
+
+/**
+ * ReplicationManager.logOperation throughput with the broadcast to two peers
+ * over the loopback network, sending each entry alone, each group commit as
+ * one batch, and batches that linger for more entries
+ */
+public class ReplicationBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] THREADS = {1, 8};
+    private static final String[] PEERS = {"BranchB", "BranchC"};
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Path root = Files.createTempDirectory("replication-bench");
+        try {
+            measure(runner, root, "per entry", 1, 0);
+            measure(runner, root, "per group commit", ReplicationManager.DEFAULT_BROADCAST_BATCH, 0);
+            measure(runner, root, "linger " + ReplicationManager.DEFAULT_LINGER_MICROS + "us",
+                    ReplicationManager.DEFAULT_BROADCAST_BATCH, ReplicationManager.DEFAULT_LINGER_MICROS);
+        } finally {
+            System.setOut(console);
+            delete(root);
+        }
+    }
+
+    private void measure(BenchmarkRunner runner, Path root, String label, int batch, long lingerMicros)
+            throws Exception {
+        for (int threads : THREADS) {
+            Path directory = root.resolve(label.replace(' ', '-') + "-" + threads);
+            LoopbackNetworkManager.Network network = new LoopbackNetworkManager.Network();
+            ReplicationManager origin = start(network, "BranchA", directory);
+            origin.setBroadcastBatching(batch, lingerMicros);
+            ReplicationManager[] peers = new ReplicationManager[PEERS.length];
+            for (int i = 0; i < PEERS.length; i++) {
+                peers[i] = start(network, PEERS[i], directory);
+            }
+
+            try {
+                runner.measure("ReplicationManager.logOperation (" + label + ")", threads, index -> {
+                    origin.logOperation("RESTOCK", "P00" + (1 + index % 8), 1);
+                    return 1;
+                });
+                awaitReplicated(origin, peers);
+            } finally {
+                origin.stop();
+                for (ReplicationManager peer : peers) {
+                    peer.stop();
+                }
+                network.shutdown();
+            }
+        }
+    }
+
+    private static ReplicationManager start(LoopbackNetworkManager.Network network, String nodeId, Path directory)
+            throws IOException {
+        LoopbackNetworkManager node = network.join(nodeId);
+        ReplicationManager manager = new ReplicationManager(nodeId, node, new LamportClock(),
+                directory.resolve(nodeId).resolve("wal"), FsyncPolicy.NEVER);
+        node.setMessageHandler(manager::handleMessage);
+        manager.start();
+        return manager;
+    }
+
+    /**
+     * Let the peers catch up so the next measurement starts with idle queues
+     */
+    private static void awaitReplicated(ReplicationManager origin, ReplicationManager[] peers)
+            throws InterruptedException {
+        long target = origin.getLog().getMaxTimestamp("BranchA");
+        long deadline = System.currentTimeMillis() + 30_000;
+        for (ReplicationManager peer : peers) {
+            while (peer.getReceivedTimestamps().getOrDefault("BranchA", 0L) < target
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import replication.FsyncPolicy;
+import replication.LogEntry;
+import replication.WriteAheadLog;
+
+/**
+ * WriteAheadLog append throughput per fsync policy (more appending threads
+ * means larger group commits), and catch-up reads of one origin's newest
+ * entries through the timestamp index versus a full scan
+ */
+public class WriteAheadLogBenchmark implements BenchmarkRunner.Benchmark {
+    private static final int[] THREADS = {1, 4, 16};
+    private static final String[] ORIGINS = {"BranchA", "BranchB", "BranchC"};
+    private static final int CATCH_UP_LOG_ENTRIES = 300_000;
+    private static final int CATCH_UP_TAIL = 100;
+
+    @Override
+    public void run(BenchmarkRunner runner) throws Exception {
+        Path root = Files.createTempDirectory("wal-bench");
+        try {
+            for (FsyncPolicy policy : FsyncPolicy.values()) {
+                for (int threads : THREADS) {
+                    Path directory = root.resolve(policy + "-" + threads);
+                    AtomicLong timestamps = new AtomicLong();
+                    try (WriteAheadLog log = WriteAheadLog.open(directory, policy)) {
+                        runner.measure("WriteAheadLog.append (" + policy + ")", threads, index -> log.append(
+                                new LogEntry("BenchBranch", timestamps.incrementAndGet(), "SALE", "P001", 1)));
+                    }
+                }
+            }
+            measureCatchUp(runner, root.resolve("catch-up"));
+        } finally {
+            delete(root);
+        }
+    }
+
+    private void measureCatchUp(BenchmarkRunner runner, Path directory) throws Exception {
+        try (WriteAheadLog log = WriteAheadLog.open(directory, FsyncPolicy.NEVER)) {
+            long timestamp = 0;
+            long lsn = 0;
+            for (int i = 0; i < CATCH_UP_LOG_ENTRIES; i++) {
+                lsn = log.enqueue(new LogEntry(ORIGINS[i % ORIGINS.length], ++timestamp, "SALE", "P001", i));
+            }
+            log.awaitWritten(lsn);
+
+            long from = timestamp - CATCH_UP_TAIL * ORIGINS.length;
+            String label = String.format("last %d of %,d entries", CATCH_UP_TAIL, CATCH_UP_LOG_ENTRIES);
+            runner.measure("WriteAheadLog.replayOrigin (" + label + ")", 1, index -> {
+                long[] count = new long[1];
+                log.replayOrigin("BranchA", from, (entryLsn, entry) -> {
+                    count[0]++;
+                    return true;
+                });
+                return count[0];
+            });
+            runner.measure("WriteAheadLog.replay full scan (" + label + ")", 1, index -> {
+                long[] count = new long[1];
+                log.replay(log.getFirstLsn(), (entryLsn, entry) -> {
+                    if (entry.getTimestamp() > from && "BranchA".equals(entry.getNodeId())) {
+                        count[0]++;
+                    }
+                    return true;
+                });
+                return count[0];
+            });
+        }
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -12,10 +12,10 @@ echo.
 echo Compiling Java sources...
 if exist "%JAVAFX_PATH%" (
     echo Compiling with JavaFX classpath...
-    javac -d out -cp "src;%JAVAFX_PATH%\*" src\main\*.java src\client\*.java src\server\*.java src\communication\*.java src\distributed\*.java src\inventory\*.java src\replication\*.java src\chatroom\*.java
+    javac -d out -cp "src;%JAVAFX_PATH%\*" src\main\*.java src\client\*.java src\server\*.java src\communication\*.java src\distributed\*.java src\inventory\*.java src\replication\*.java src\chatroom\*.java bench\benchmark\*.java
 ) else (
     echo JavaFX path not found, compiling without JavaFX...
-    javac -d out -cp "src" src\main\*.java src\client\*.java src\server\*.java src\communication\*.java src\distributed\*.java src\inventory\*.java src\replication\*.java src\chatroom\*.java
+    javac -d out -cp "src" src\main\*.java src\client\*.java src\server\*.java src\communication\*.java src\distributed\*.java src\inventory\*.java src\replication\*.java src\chatroom\*.java bench\benchmark\*.java
 )
 
 if %ERRORLEVEL% neq 0 (
@@ -30,7 +30,9 @@ echo Available commands:
 echo   build.bat server BranchA 8001    - Start Branch Server A
 echo   build.bat server BranchB 8002    - Start Branch Server B  
 echo   build.bat server BranchC 8003    - Start Branch Server C
+echo   build.bat server BranchA 8001 --transport=nio  - Start with the NIO transport
 echo   build.bat client                 - Start JavaFX Client
+echo   build.bat bench [name...]        - Run throughput benchmarks
 echo.
 
 if "%1"=="server" (
@@ -47,7 +49,7 @@ if "%1"=="server" (
         exit /b 1
     )
     echo Starting Branch Server: %2 on port %3
-    java -cp "out" main.Main server %2 %3
+    java -cp "out" main.Main server %2 %3 %4 %5 %6 %7 %8 %9
 ) else if "%1"=="client" (
     echo Starting JavaFX Client...
     if exist "%JAVAFX_PATH%" (
@@ -58,6 +60,9 @@ if "%1"=="server" (
         pause
         exit /b 1
     )
+) else if "%1"=="bench" (
+    echo Running benchmarks...
+    java -cp "out" benchmark.BenchmarkRunner %2 %3 %4 %5 %6 %7 %8 %9
 ) else if "%1"=="chat" (
     if "%2"=="" (
         echo Please specify port number
@@ -71,7 +76,7 @@ if "%1"=="server" (
     echo Build completed. Use commands above to start components.
 ) else (
     echo Unknown command: %1
-    echo Use: server, client, or chat
+    echo Use: server, client, bench, or chat
 )
 
 pause 
\ No newline at end of file
@@ -11,7 +11,7 @@ mkdir -p out
 
 echo ""
 echo "Compiling Java sources..."
-javac -d out -cp "src" src/main/*.java src/client/*.java src/server/*.java src/communication/*.java src/distributed/*.java src/inventory/*.java src/replication/*.java src/chatroom/*.java
+javac -d out -cp "src" src/main/*.java src/client/*.java src/server/*.java src/communication/*.java src/distributed/*.java src/inventory/*.java src/replication/*.java src/chatroom/*.java bench/benchmark/*.java
 
 if [ $? -ne 0 ]; then
     echo "Compilation failed!"
@@ -24,7 +24,9 @@ echo "Available commands:"
 echo "  ./run.sh server BranchA 8001    - Start Branch Server A"
 echo "  ./run.sh server BranchB 8002    - Start Branch Server B"
 echo "  ./run.sh server BranchC 8003    - Start Branch Server C"
+echo "  ./run.sh server BranchA 8001 --transport=nio  - Start with the NIO transport"
 echo "  ./run.sh client                 - Start JavaFX Client"
+echo "  ./run.sh bench [name...]        - Run throughput benchmarks"
 echo ""
 
 if [ "$1" = "server" ]; then
@@ -34,7 +36,7 @@ if [ "$1" = "server" ]; then
         exit 1
     fi
     echo "Starting Branch Server: $2 on port $3"
-    java -cp "out" main.Main server $2 $3
+    java -cp "out" main.Main server $2 $3 "${@:4}"
 elif [ "$1" = "client" ]; then
     echo "Starting JavaFX Client..."
     if [ -d "$JAVAFX_PATH" ]; then
@@ -43,6 +45,9 @@ elif [ "$1" = "client" ]; then
         echo "Warning: JavaFX path not found. Trying without module path..."
         java -cp "out" main.Main client
     fi
+elif [ "$1" = "bench" ]; then
+    echo "Running benchmarks..."
+    java -cp "out" benchmark.BenchmarkRunner "${@:2}"
 elif [ "$1" = "chat" ]; then
     if [ -z "$2" ]; then
         echo "Please specify port number"
@@ -55,5 +60,5 @@ elif [ -z "$1" ]; then
     echo "Build completed. Use commands above to start components."
 else
     echo "Unknown command: $1"
-    echo "Use: server, client, or chat"
+    echo "Use: server, client, bench, or chat"
 fi 
\ No newline at end of file
@@ -2,6 +2,7 @@ package chatroom;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Handles individual chat client connections
@@ -10,6 +11,8 @@ public class ChatClient implements Runnable {
     private final String clientId;
     private final Socket socket;
     private final ChatroomServer server;
+    // A lock rather than synchronized, so a virtual thread blocked writing does not pin its carrier
+    private final ReentrantLock sendLock = new ReentrantLock();
     private BufferedReader reader;
     private PrintWriter writer;
     private volatile boolean running = true;
@@ -49,17 +52,20 @@ public class ChatClient implements Runnable {
     /**
      * Send a message to this chat client
      */
-    public synchronized void sendMessage(ChatMessage message) {
-        if (!running || writer == null)
-            return;
-
+    public void sendMessage(ChatMessage message) {
+        sendLock.lock();
         try {
+            if (!running || writer == null)
+                return;
+
             String formattedMessage = String.format("[%s] %s: %s",
                     formatTime(message.getTimestamp()), message.getUsername(), message.getMessage());
             writer.println(formattedMessage);
         } catch (Exception e) {
             System.err.println("Failed to send message to chat client " + clientId + ": " + e.getMessage());
             running = false;
+        } finally {
+            sendLock.unlock();
         }
     }
 
@@ -7,6 +7,7 @@ import java.util.concurrent.*;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Chatroom server for staff communication between branches
@@ -17,12 +18,17 @@ public class ChatroomServer {
     private ServerSocket serverSocket;
     private final ExecutorService executor;
     private final Map<String, ChatClient> clients;
+    private final AtomicLong clientCounter = new AtomicLong();
     private volatile boolean running = false;
 
     public ChatroomServer(String branchId, int port) {
+        this(branchId, port, ThreadMode.PLATFORM);
+    }
+
+    public ChatroomServer(String branchId, int port, ThreadMode threadMode) {
         this.branchId = branchId;
         this.port = port;
-        this.executor = Executors.newCachedThreadPool();
+        this.executor = threadMode.newExecutor();
         this.clients = new ConcurrentHashMap<>();
     }
 
@@ -81,7 +87,8 @@ public class ChatroomServer {
         while (running) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                String clientId = "user_" + System.currentTimeMillis();
+                // Numbered, since several users can join within one millisecond
+                String clientId = "user_" + clientCounter.incrementAndGet();
                 ChatClient chatClient = new ChatClient(clientId, clientSocket, this);
                 clients.put(clientId, chatClient);
                 executor.submit(chatClient);
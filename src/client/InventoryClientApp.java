@@ -20,8 +20,9 @@ import java.util.ArrayList;
  */
 public class InventoryClientApp extends Application {
     private Socket socket;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
+    private DataOutputStream outputStream;
+    private DataInputStream inputStream;
+    private MessageFramer framer;
     private boolean connected = false;
 
     // UI Components
@@ -170,9 +171,9 @@ public class InventoryClientApp extends Application {
             int port = Integer.parseInt(portField.getText().trim());
 
             socket = new Socket(server, port);
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            outputStream.flush();
-            inputStream = new ObjectInputStream(socket.getInputStream());
+            framer = new MessageFramer(CodecType.BINARY);
+            outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 
             connected = true;
             connectButton.setText("Disconnect");
@@ -200,7 +201,7 @@ public class InventoryClientApp extends Application {
         try {
             if (outputStream != null) {
                 Message disconnect = new Message(MessageType.CLIENT_DISCONNECT, "client", "");
-                outputStream.writeObject(disconnect);
+                framer.writeFrame(disconnect, outputStream);
                 outputStream.flush();
             }
         } catch (IOException e) {
@@ -242,7 +243,7 @@ public class InventoryClientApp extends Application {
 
         try {
             Message query = new Message(MessageType.STOCK_QUERY, "client", "");
-            outputStream.writeObject(query);
+            framer.writeFrame(query, outputStream);
             outputStream.flush();
         } catch (IOException e) {
             appendStatus("Failed to refresh inventory: " + e.getMessage());
@@ -274,7 +275,7 @@ public class InventoryClientApp extends Application {
                     System.currentTimeMillis());
             request.putData("quantity", quantity);
 
-            outputStream.writeObject(request);
+            framer.writeFrame(request, outputStream);
             outputStream.flush();
 
             appendStatus("Requested " + quantity + " units of " + productId);
@@ -293,11 +294,8 @@ public class InventoryClientApp extends Application {
     private void listenForMessages() {
         while (connected) {
             try {
-                Object obj = inputStream.readObject();
-                if (obj instanceof Message) {
-                    handleMessage((Message) obj);
-                }
-            } catch (IOException | ClassNotFoundException e) {
+                handleMessage(framer.readFrame(inputStream));
+            } catch (IOException e) {
                 if (connected) {
                     Platform.runLater(() -> appendStatus("Connection lost: " + e.getMessage()));
                     connected = false;
@@ -0,0 +1,161 @@
+package communication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary codec for messages.
+ * Layout: varint type, sender ref, receiver ref, resource string, varint
+ * timestamp, varint field count, then (key, tagged value) pairs. Node IDs are
+ * interned per connection: the first use defines an index, later uses send only
+ * that index. Well-known data keys are sent as a single byte. Everything after
+ * the node IDs is independent of the connection, so a broadcast encodes it
+ * once and every peer's frame reuses those bytes.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final String[] KNOWN_KEYS = {
+            "quantity", "approved", "logEntry", "product", "products", "productId",
+            "timestamp", "fromTimestamp", "status", "message", "logEntries", "prevTimestamp",
+            "origin", "vectorClock", "counters", "sequence", "generation", "hop", "holder", "requesting",
+            "tokenNumbers", "tokenQueue"
+    };
+    private static final Map<String, Integer> KNOWN_KEY_INDEX = new HashMap<>();
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+    private static final int MAX_INTERNED_IDS = 1024;
+
+    // Node ID reference markers; values >= REF_INDEX point into the intern table
+    private static final int REF_NULL = 0;
+    private static final int REF_LITERAL = 1;
+    private static final int REF_DEFINE = 2;
+    private static final int REF_INDEX = 3;
+
+    static {
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            KNOWN_KEY_INDEX.put(KNOWN_KEYS[i], i + 1);
+        }
+    }
+
+    // Written only by the connection's writer, read only by its reader
+    private final Map<String, Integer> outboundIds = new HashMap<>();
+    private final List<String> inboundIds = new ArrayList<>();
+
+    @Override
+    public CodecType getType() {
+        return CodecType.BINARY;
+    }
+
+    @Override
+    public void encode(Message message, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, message.getType().ordinal());
+        writeNodeId(out, message.getSenderId());
+        writeNodeId(out, message.getReceiverId());
+
+        SharedPayload shared = message.getSharedPayload();
+        if (shared != null) {
+            out.write(shared.binaryBody());
+        } else {
+            writeBody(message, out);
+        }
+    }
+
+    /**
+     * Write the resource, timestamp and data fields
+     */
+    static void writeBody(Message message, DataOutputStream out) throws IOException {
+        WireFormat.writeString(out, message.getResourceId());
+        WireFormat.writeVarLong(out, message.getTimestamp());
+
+        Map<String, Object> data = message.getData();
+        if (data == null || data.isEmpty()) {
+            WireFormat.writeVarInt(out, 0);
+            return;
+        }
+
+        WireFormat.writeVarInt(out, data.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            Integer keyIndex = KNOWN_KEY_INDEX.get(entry.getKey());
+            if (keyIndex != null) {
+                WireFormat.writeVarInt(out, keyIndex);
+            } else {
+                WireFormat.writeVarInt(out, 0);
+                WireFormat.writeString(out, entry.getKey());
+            }
+            WireFormat.writeValue(out, entry.getValue());
+        }
+    }
+
+    @Override
+    public Message decode(DataInputStream in) throws IOException {
+        int typeIndex = WireFormat.readVarInt(in);
+        if (typeIndex < 0 || typeIndex >= MESSAGE_TYPES.length) {
+            throw new IOException("Unknown message type index: " + typeIndex);
+        }
+
+        Message message = new Message(
+                MESSAGE_TYPES[typeIndex],
+                readNodeId(in),
+                readNodeId(in),
+                WireFormat.readString(in),
+                WireFormat.readVarLong(in));
+
+        int fieldCount = WireFormat.readLength(in);
+        for (int i = 0; i < fieldCount; i++) {
+            int keyIndex = WireFormat.readVarInt(in);
+            String key;
+            if (keyIndex == 0) {
+                key = WireFormat.readString(in);
+            } else if (keyIndex <= KNOWN_KEYS.length) {
+                key = KNOWN_KEYS[keyIndex - 1];
+            } else {
+                throw new IOException("Unknown data key index: " + keyIndex);
+            }
+            message.putData(key, WireFormat.readValue(in));
+        }
+        return message;
+    }
+
+    private void writeNodeId(DataOutputStream out, String nodeId) throws IOException {
+        if (nodeId == null) {
+            WireFormat.writeVarInt(out, REF_NULL);
+            return;
+        }
+
+        Integer index = outboundIds.get(nodeId);
+        if (index != null) {
+            WireFormat.writeVarInt(out, REF_INDEX + index);
+        } else if (outboundIds.size() < MAX_INTERNED_IDS) {
+            outboundIds.put(nodeId, outboundIds.size());
+            WireFormat.writeVarInt(out, REF_DEFINE);
+            WireFormat.writeString(out, nodeId);
+        } else {
+            WireFormat.writeVarInt(out, REF_LITERAL);
+            WireFormat.writeString(out, nodeId);
+        }
+    }
+
+    private String readNodeId(DataInputStream in) throws IOException {
+        int ref = WireFormat.readVarInt(in);
+        switch (ref) {
+            case REF_NULL:
+                return null;
+            case REF_LITERAL:
+                return WireFormat.readString(in);
+            case REF_DEFINE: {
+                String nodeId = WireFormat.readString(in);
+                inboundIds.add(nodeId);
+                return nodeId;
+            }
+            default:
+                int index = ref - REF_INDEX;
+                if (index < 0 || index >= inboundIds.size()) {
+                    throw new IOException("Unknown interned node id: " + index);
+                }
+                return inboundIds.get(index);
+        }
+    }
+}
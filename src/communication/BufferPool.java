@@ -0,0 +1,106 @@
+package communication;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed-size ByteBuffers that outgoing frames are encoded into, so a
+ * link under steady load stops allocating write buffers. Direct buffers can
+ * be handed to a SocketChannel without the JDK first copying them into a
+ * temporary direct buffer; heap buffers suit stream sockets, which copy from
+ * a byte array anyway. Thread-safe.
+ */
+public class BufferPool {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private final int chunkSize;
+    private final int maxPooled;
+    private final boolean direct;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    // Statistics
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(boolean direct) {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED, direct);
+    }
+
+    /**
+     * @param chunkSize size of every buffer
+     * @param maxPooled buffers kept for reuse; more are left to the GC
+     * @param direct    whether buffers are allocated outside the heap
+     */
+    public BufferPool(int chunkSize, int maxPooled, boolean direct) {
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * Take a cleared buffer from the pool, allocating one if it is empty
+     */
+    public ByteBuffer acquire() {
+        acquired.incrementAndGet();
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            hits.incrementAndGet();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        return direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+    }
+
+    /**
+     * Return a buffer once nothing reads or writes it any more
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != chunkSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        free.add(buffer);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * Share of acquisitions served from the pool
+     */
+    public double getHitRate() {
+        long total = acquired.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool{%s, chunk=%dKB, acquired=%d, hitRate=%.1f%%, allocated=%d, pooled=%d}",
+                direct ? "direct" : "heap", chunkSize / 1024, acquired.get(), getHitRate() * 100,
+                allocated.get(), pooled.get());
+    }
+}
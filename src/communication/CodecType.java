@@ -0,0 +1,50 @@
+package communication;
+
+/**
+ * Wire encodings available for messages. The type ID travels in every frame,
+ * so a receiver can always decode whichever codec the sender selected.
+ */
+public enum CodecType {
+    // Java serialization of the whole Message (compatibility fallback)
+    SERIALIZED(0),
+
+    // Compact binary encoding with varints, typed fields and interned node IDs
+    BINARY(1);
+
+    private final byte id;
+
+    CodecType(int id) {
+        this.id = (byte) id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Create a fresh codec instance for one connection
+     */
+    public MessageCodec newCodec() {
+        switch (this) {
+            case BINARY:
+                return new BinaryMessageCodec();
+            case SERIALIZED:
+            default:
+                return new SerializedMessageCodec();
+        }
+    }
+
+    /**
+     * Look up a codec type by its frame ID
+     *
+     * @throws IllegalArgumentException if no codec has that ID
+     */
+    public static CodecType fromId(int id) {
+        for (CodecType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec id: " + id);
+    }
+}
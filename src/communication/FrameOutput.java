@@ -0,0 +1,142 @@
+package communication;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Output stream over a chain of pooled buffers, for encoding a batch of frames
+ * in place: codecs write straight into the buffers and the chain is written
+ * out with one gathering write, with no intermediate copies. Used by one
+ * writer thread at a time; {@link #release()} returns the buffers once the
+ * write has completed.
+ */
+public class FrameOutput extends OutputStream {
+    private static final int HEADER_SIZE = 5;
+
+    private final BufferPool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final DataOutputStream data = new DataOutputStream(this);
+    private ByteBuffer[] flipped = new ByteBuffer[4];
+    private ByteBuffer current;
+    private long size;
+
+    // Length prefix of the frame being written
+    private ByteBuffer frameChunk;
+    private int frameOffset;
+    private long frameStart;
+
+    public FrameOutput(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Stream for codecs to write through (unbuffered, so no flush needed)
+     */
+    public DataOutputStream data() {
+        return data;
+    }
+
+    /**
+     * Reserve a frame's length prefix and write its codec ID. The prefix and ID
+     * stay in one buffer so the length can be patched in place.
+     */
+    public void beginFrame(byte codecId) {
+        if (current == null || current.remaining() < HEADER_SIZE) {
+            nextChunk();
+        }
+        frameChunk = current;
+        frameOffset = current.position();
+        frameStart = size;
+        current.putInt(0);
+        current.put(codecId);
+        size += HEADER_SIZE;
+    }
+
+    /**
+     * Patch the length prefix of the frame begun last
+     *
+     * @return the frame length (codec ID and payload)
+     */
+    public int endFrame() throws IOException {
+        long length = size - frameStart - 4;
+        MessageFramer.checkLength(length > Integer.MAX_VALUE ? -1 : (int) length);
+        frameChunk.putInt(frameOffset, (int) length);
+        return (int) length;
+    }
+
+    @Override
+    public void write(int b) {
+        if (current == null || !current.hasRemaining()) {
+            nextChunk();
+        }
+        current.put((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (current == null || !current.hasRemaining()) {
+                nextChunk();
+            }
+            int count = Math.min(length, current.remaining());
+            current.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+
+    private void nextChunk() {
+        current = pool.acquire();
+        chunks.add(current);
+    }
+
+    /**
+     * Bytes written since the last release
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Flip the buffers for writing; no more frames may be added until release.
+     * The array is reused: only the first {@link #bufferCount()} are valid.
+     */
+    public ByteBuffer[] buffers() {
+        if (flipped.length < chunks.size()) {
+            flipped = new ByteBuffer[Math.max(chunks.size(), flipped.length * 2)];
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            flipped[i] = chunks.get(i).flip();
+        }
+        return flipped;
+    }
+
+    public int bufferCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Hand every buffer back to the pool and start over
+     */
+    public void release() {
+        for (ByteBuffer chunk : chunks) {
+            pool.release(chunk);
+        }
+        Arrays.fill(flipped, null);
+        chunks.clear();
+        current = null;
+        frameChunk = null;
+        size = 0;
+    }
+}
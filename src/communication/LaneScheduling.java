@@ -0,0 +1,15 @@
+package communication;
+
+/**
+ * How a peer link's writer picks messages from its per-class outbound lanes
+ */
+public enum LaneScheduling {
+    // One lane for everything, sent in the order queued
+    FIFO,
+
+    // Control before transactional before bulk; bulk waits while anything else is queued
+    STRICT,
+
+    // Round robin taking up to 16 control, 4 transactional and 1 bulk message per turn
+    WEIGHTED
+}
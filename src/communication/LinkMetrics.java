@@ -0,0 +1,130 @@
+package communication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Outbound traffic counters for one peer link
+ */
+public class LinkMetrics {
+    private final IntSupplier queueDepth;
+    private final ToIntFunction<TrafficClass> classDepth;
+    private final AtomicLongArray classMaxDepth = new AtomicLongArray(TrafficClass.values().length);
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong backpressureWaits = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    LinkMetrics(IntSupplier queueDepth, ToIntFunction<TrafficClass> classDepth) {
+        this.queueDepth = queueDepth;
+        this.classDepth = classDepth;
+    }
+
+    void recordEnqueued(TrafficClass trafficClass, int classDepth, int depth) {
+        enqueued.incrementAndGet();
+        maxDepth.accumulateAndGet(depth, Math::max);
+        classMaxDepth.accumulateAndGet(trafficClass.ordinal(), classDepth, Math::max);
+    }
+
+    void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void recordBackpressureWait() {
+        backpressureWaits.incrementAndGet();
+    }
+
+    void recordBatch(int messages) {
+        batches.incrementAndGet();
+        sent.addAndGet(messages);
+    }
+
+    /**
+     * Count encoded bytes written to the socket, and how many of them were
+     * copied on the way (heap buffers are copied into native memory; pooled
+     * direct buffers are not)
+     */
+    void recordWrite(long bytes, long copied) {
+        bytesWritten.addAndGet(bytes);
+        bytesCopied.addAndGet(copied);
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of sends that found the queue full and had to wait (BLOCK policy)
+     */
+    public long getBackpressureWaits() {
+        return backpressureWaits.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Messages of one traffic class waiting to be sent
+     */
+    public int getQueueDepth(TrafficClass trafficClass) {
+        return classDepth.applyAsInt(trafficClass);
+    }
+
+    public long getMaxQueueDepth(TrafficClass trafficClass) {
+        return classMaxDepth.get(trafficClass.ordinal());
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    /**
+     * Average number of messages coalesced into one write
+     */
+    public double getAverageBatchSize() {
+        long batchCount = batches.get();
+        return batchCount == 0 ? 0 : (double) sent.get() / batchCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder lanes = new StringBuilder();
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            lanes.append(lanes.length() == 0 ? "" : ", ").append(trafficClass).append('=')
+                    .append(getQueueDepth(trafficClass)).append('/').append(getMaxQueueDepth(trafficClass));
+        }
+        return String.format("LinkMetrics{enqueued=%d, sent=%d, dropped=%d, backpressureWaits=%d, " +
+                "batches=%d, avgBatch=%.1f, depth=%d, maxDepth=%d, lanes(depth/max)=[%s], bytesWritten=%d, " +
+                "bytesCopied=%d}",
+                getEnqueued(), getSent(), getDropped(), getBackpressureWaits(),
+                getBatches(), getAverageBatchSize(), getQueueDepth(), getMaxQueueDepth(), lanes,
+                getBytesWritten(), getBytesCopied());
+    }
+}
@@ -16,6 +16,8 @@ public class Message implements Serializable {
     private String resourceId;
     private long timestamp;
     private Map<String, Object> data;
+    // Encoded form shared by the copies of a broadcast; never serialized
+    private transient SharedPayload sharedPayload;
 
     public Message(MessageType type, String senderId, String receiverId) {
         this(type, senderId, receiverId, null, System.currentTimeMillis());
@@ -30,6 +32,33 @@ public class Message implements Serializable {
         this.data = new HashMap<>();
     }
 
+    private Message(Message original, String receiverId) {
+        this.type = original.type;
+        this.senderId = original.senderId;
+        this.receiverId = receiverId;
+        this.resourceId = original.resourceId;
+        this.timestamp = original.timestamp;
+        this.data = original.data;
+        this.sharedPayload = original.sharedPayload;
+    }
+
+    /**
+     * Copy this message for one receiver of a broadcast. The copies share this
+     * message's data and its encoded form, so the payload is encoded once
+     * however many peers it goes to; neither this message nor its copies may
+     * be changed afterwards. Call from one thread.
+     */
+    public Message shareWith(String receiverId) {
+        if (sharedPayload == null) {
+            sharedPayload = new SharedPayload(this);
+        }
+        return new Message(this, receiverId);
+    }
+
+    SharedPayload getSharedPayload() {
+        return sharedPayload;
+    }
+
     // Getters and setters
     public MessageType getType() {
         return type;
@@ -0,0 +1,28 @@
+package communication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes messages to and from the payload of a wire frame.
+ * Codecs may keep per-connection state (such as interned node IDs), so every
+ * connection owns its own instance and calls it from one writer and one reader.
+ */
+public interface MessageCodec {
+
+    /**
+     * Get the codec type written into each frame header
+     */
+    CodecType getType();
+
+    /**
+     * Write a message as a frame payload
+     */
+    void encode(Message message, DataOutputStream out) throws IOException;
+
+    /**
+     * Read a message from a frame payload
+     */
+    Message decode(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,218 @@
+package communication;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stage between the transport and the message handler. Each traffic class has
+ * its own lanes, and a sender's messages of one class always go to the same
+ * lane, so they are handled in the order they arrived while a slow handler
+ * only holds up its own lane. Each lane is a queue drained by one thread.
+ * Dispatching never blocks the transport: a message that fills its lane is
+ * still queued, and the connection it came from stops reading until the lane
+ * has drained to half its capacity, pushing back on that sender only.
+ *
+ * With zero lanes the handler runs on the transport thread, one message at a
+ * time, as before.
+ */
+public class MessageDispatcher {
+    public static final int DEFAULT_LANES = 2;
+    public static final int DEFAULT_LANE_CAPACITY = 10000;
+
+    private final String nodeId;
+    private final NetworkManager.MessageHandler handler;
+    private final Lane[][] lanes;
+    private final ReentrantLock inlineLock = new ReentrantLock();
+    private final ThreadMode threadMode;
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    /**
+     * @param lanesPerClass lanes for each traffic class, or 0 to handle inline
+     */
+    public MessageDispatcher(String nodeId, NetworkManager.MessageHandler handler, int lanesPerClass,
+            int laneCapacity, ThreadMode threadMode) {
+        if (lanesPerClass < 0 || laneCapacity <= 0) {
+            throw new IllegalArgumentException("Lanes must not be negative and capacity must be positive");
+        }
+        this.nodeId = nodeId;
+        this.handler = handler;
+        this.threadMode = threadMode;
+        this.lanes = new Lane[TrafficClass.values().length][lanesPerClass];
+        for (Lane[] classLanes : lanes) {
+            for (int i = 0; i < classLanes.length; i++) {
+                classLanes[i] = new Lane(laneCapacity);
+            }
+        }
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (getLanesPerClass() > 0) {
+            executor = threadMode.newExecutor();
+            for (Lane[] classLanes : lanes) {
+                for (Lane lane : classLanes) {
+                    executor.submit(lane);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the lane threads; messages still queued are discarded
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Lane[] classLanes : lanes) {
+            for (Lane lane : classLanes) {
+                lane.queue.clear();
+                lane.resumeIfDrained();
+            }
+        }
+    }
+
+    /**
+     * Hand a message to its lane without waiting. If that fills the lane the
+     * source connection is paused until the lane drains.
+     */
+    public void dispatch(Message message, PeerConnection source) {
+        if (getLanesPerClass() == 0 || !running) {
+            inlineLock.lock();
+            try {
+                handle(message);
+            } finally {
+                inlineLock.unlock();
+            }
+            return;
+        }
+
+        Lane[] classLanes = lanes[TrafficClass.of(message.getType()).ordinal()];
+        Lane lane = classLanes[Math.floorMod(Objects.hashCode(message.getSenderId()), classLanes.length)];
+        lane.queue.add(message);
+        int depth = lane.queue.size();
+        lane.recordDepth(depth);
+        if (depth >= lane.capacity) {
+            lane.readPauses.incrementAndGet();
+            source.pauseReading();
+            lane.pausedSources.add(source);
+            // The lane may have drained before the source was listed
+            lane.resumeIfDrained();
+        }
+    }
+
+    private void handle(Message message) {
+        try {
+            handler.handleMessage(message);
+        } catch (RuntimeException e) {
+            System.err.println("[" + nodeId + "] Handler failed on " + message.getType() + ": " + e);
+        }
+    }
+
+    public int getLanesPerClass() {
+        return lanes[0].length;
+    }
+
+    /**
+     * Get per-class lane counters
+     */
+    public String getStatistics() {
+        StringBuilder stats = new StringBuilder();
+        stats.append(String.format("Dispatch - Lanes per class: %d", getLanesPerClass()));
+        if (getLanesPerClass() == 0) {
+            return stats.append(" (inline)").toString();
+        }
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            long handled = 0;
+            long pauses = 0;
+            int depth = 0;
+            int maxDepth = 0;
+            long slowest = 0;
+            for (Lane lane : lanes[trafficClass.ordinal()]) {
+                handled += lane.handled.get();
+                pauses += lane.readPauses.get();
+                depth += lane.queue.size();
+                maxDepth = Math.max(maxDepth, lane.maxDepth);
+                slowest = Math.max(slowest, lane.slowestNanos);
+            }
+            stats.append(String.format(", %s{handled=%d, depth=%d, maxLaneDepth=%d, readPauses=%d, " +
+                    "slowest=%.1fms}", trafficClass, handled, depth, maxDepth, pauses, slowest / 1e6));
+        }
+        return stats.toString();
+    }
+
+    /**
+     * One queue and the thread that drains it. The queue goes past its
+     * capacity by at most the message that paused each source.
+     */
+    private class Lane implements Runnable {
+        private final int capacity;
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        // Connections not reading until this lane drains
+        private final Queue<PeerConnection> pausedSources = new ConcurrentLinkedQueue<>();
+        private final AtomicLong handled = new AtomicLong();
+        private final AtomicLong readPauses = new AtomicLong();
+        private volatile int maxDepth;
+        private volatile long slowestNanos;
+
+        Lane(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void resumeIfDrained() {
+            if (pausedSources.isEmpty() || queue.size() > capacity / 2) {
+                return;
+            }
+            PeerConnection source;
+            while ((source = pausedSources.poll()) != null) {
+                source.resumeReading();
+            }
+        }
+
+        void recordDepth(int depth) {
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Message message;
+                try {
+                    message = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long start = System.nanoTime();
+                handle(message);
+                long elapsed = System.nanoTime() - start;
+                if (elapsed > slowestNanos) {
+                    slowestNanos = elapsed;
+                }
+                handled.incrementAndGet();
+                resumeIfDrained();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package communication;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing for one connection.
+ * Frame layout: int length, byte codec ID, codec payload (length counts the
+ * codec ID and payload). The sender picks its codec; the receiver decodes with
+ * whichever codec the frame names, so mixed codecs on one link stay readable.
+ */
+public class MessageFramer {
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    // One instance per codec type and direction, kept for the connection's
+    // lifetime so per-connection codec state (interned IDs) stays in step with
+    // the peer. Encoders are used by the writer only, decoders by the reader only.
+    private final MessageCodec[] encoders = new MessageCodec[CodecType.values().length];
+    private final MessageCodec[] decoders = new MessageCodec[CodecType.values().length];
+    private final FrameBuffer encodeBuffer = new FrameBuffer();
+    private final DataOutputStream encodeStream = new DataOutputStream(encodeBuffer);
+    private volatile CodecType outboundType;
+
+    public MessageFramer(CodecType outboundType) {
+        this.outboundType = outboundType;
+    }
+
+    public CodecType getOutboundType() {
+        return outboundType;
+    }
+
+    /**
+     * Switch the codec used for subsequent outgoing frames
+     */
+    public void setOutboundType(CodecType outboundType) {
+        this.outboundType = outboundType;
+    }
+
+    /**
+     * Encode a message into a standalone frame buffer, ready to write
+     */
+    public ByteBuffer encodeFrame(Message message) throws IOException {
+        encode(message);
+        return ByteBuffer.wrap(encodeBuffer.toByteArray());
+    }
+
+    /**
+     * Encode a message and write the frame to a stream (caller flushes)
+     */
+    public void writeFrame(Message message, OutputStream out) throws IOException {
+        encode(message);
+        out.write(encodeBuffer.array(), 0, encodeBuffer.size());
+    }
+
+    /**
+     * Encode a message as a frame directly into pooled buffers, behind any
+     * frames already there
+     *
+     * @return the frame size including its length prefix
+     */
+    public int writeFrame(Message message, FrameOutput out) throws IOException {
+        CodecType type = outboundType;
+        out.beginFrame(type.getId());
+        codec(encoders, type).encode(message, out.data());
+        return out.endFrame() + 4;
+    }
+
+    /**
+     * Read one complete frame from a stream, blocking until it has arrived
+     */
+    public Message readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return decodeFrame(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Decode a frame body (codec ID and payload, without the length prefix)
+     */
+    public Message decodeFrame(ByteBuffer frame) throws IOException {
+        MessageCodec codec;
+        try {
+            codec = codec(decoders, CodecType.fromId(frame.get()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        WireFormat.FrameInput bytes;
+        if (frame.hasArray()) {
+            bytes = new WireFormat.FrameInput(frame.array(), frame.arrayOffset() + frame.position(),
+                    frame.remaining());
+        } else {
+            byte[] copy = new byte[frame.remaining()];
+            frame.get(copy);
+            bytes = new WireFormat.FrameInput(copy, 0, copy.length);
+        }
+        return codec.decode(bytes);
+    }
+
+    static void checkLength(int length) throws IOException {
+        if (length < 1 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    private void encode(Message message) throws IOException {
+        CodecType type = outboundType;
+        encodeBuffer.reset();
+        encodeStream.writeInt(0);
+        encodeStream.writeByte(type.getId());
+        codec(encoders, type).encode(message, encodeStream);
+        encodeStream.flush();
+
+        int length = encodeBuffer.size() - 4;
+        checkLength(length);
+        encodeBuffer.patchLength(length);
+    }
+
+    private static MessageCodec codec(MessageCodec[] codecs, CodecType type) {
+        MessageCodec codec = codecs[type.ordinal()];
+        if (codec == null) {
+            codec = type.newCodec();
+            codecs[type.ordinal()] = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * Reusable encode buffer that exposes its backing array
+     */
+    static class FrameBuffer extends ByteArrayOutputStream {
+        FrameBuffer() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void patchLength(int length) {
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+        }
+    }
+}
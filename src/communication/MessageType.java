@@ -21,15 +21,27 @@ public enum MessageType {
     STOCK_TRANSFER_RESPONSE,
     STOCK_TRANSFER_CONFIRM,
 
-    // Distributed Mutex messages (Ricart-Agrawala)
+    // Stock escrow messages
+    ESCROW_REQUEST,
+    ESCROW_STATE,
+
+    // Distributed Mutex messages (Ricart-Agrawala; Maekawa reads MUTEX_REPLY as LOCKED,
+    // Suzuki-Kasami uses MUTEX_INQUIRE/REPLY to look for a lost token)
     MUTEX_REQUEST,
     MUTEX_REPLY,
+    MUTEX_RELEASE,
+    MUTEX_FAILED,
+    MUTEX_INQUIRE,
+    MUTEX_YIELD,
+    MUTEX_TOKEN,
 
     // Synchronization messages
     SYNC_REQUEST,
     SYNC_RESPONSE,
     LOG_ENTRY,
+    LOG_BATCH,
     LOG_ACK,
+    SNAPSHOT,
 
     // Chatroom messages
     CHAT_MESSAGE,
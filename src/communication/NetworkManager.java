@@ -6,7 +6,9 @@ import java.util.concurrent.*;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles network communication for the distributed system
@@ -15,10 +17,20 @@ public class NetworkManager {
     private final String nodeId;
     private final int port;
     private ServerSocket serverSocket;
+    private final TransportMode transportMode;
+    private final ThreadMode threadMode;
+    private NioTransport nioTransport;
     private final ExecutorService executor;
-    private final Map<String, NodeConnection> connections;
+    private final Map<String, PeerConnection> connections;
     private final BlockingQueue<Message> incomingMessages;
-    private final BlockingQueue<Message> outgoingMessages;
+    private final AtomicLong unroutableMessages;
+    private final BufferPool bufferPool;
+    private volatile CodecType defaultCodec;
+    private volatile int outboundQueueCapacity;
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile LaneScheduling laneScheduling;
+    private volatile int dispatchLanes;
+    private MessageDispatcher dispatcher;
     private volatile boolean running;
 
     // Callback interface for message handling
@@ -26,15 +38,32 @@ public class NetworkManager {
         void handleMessage(Message message);
     }
 
-    private MessageHandler messageHandler;
+    private volatile MessageHandler messageHandler;
 
     public NetworkManager(String nodeId, int port) {
+        this(nodeId, port, TransportMode.BLOCKING);
+    }
+
+    public NetworkManager(String nodeId, int port, TransportMode transportMode) {
+        this(nodeId, port, transportMode, ThreadMode.PLATFORM);
+    }
+
+    public NetworkManager(String nodeId, int port, TransportMode transportMode, ThreadMode threadMode) {
         this.nodeId = nodeId;
         this.port = port;
-        this.executor = Executors.newCachedThreadPool();
+        this.transportMode = transportMode;
+        this.threadMode = threadMode;
+        this.executor = threadMode.newExecutor();
         this.connections = new ConcurrentHashMap<>();
         this.incomingMessages = new LinkedBlockingQueue<>();
-        this.outgoingMessages = new LinkedBlockingQueue<>();
+        this.unroutableMessages = new AtomicLong();
+        // Direct buffers go to SocketChannels without a copy; stream sockets take heap arrays
+        this.bufferPool = new BufferPool(transportMode == TransportMode.NIO);
+        this.defaultCodec = CodecType.BINARY;
+        this.outboundQueueCapacity = OutboundQueue.DEFAULT_CAPACITY;
+        this.overflowPolicy = OverflowPolicy.BLOCK;
+        this.laneScheduling = OutboundQueue.DEFAULT_SCHEDULING;
+        this.dispatchLanes = MessageDispatcher.DEFAULT_LANES;
         this.running = false;
     }
 
@@ -50,23 +79,26 @@ public class NetworkManager {
             return;
 
         running = true;
-        serverSocket = new ServerSocket(port);
 
-        // Start server thread to accept incoming connections
-        executor.submit(this::serverLoop);
-
-        // Start message processing threads
-        executor.submit(this::processIncomingMessages);
-        executor.submit(() -> {
-            try {
-                this.processOutgoingMessages();
-            } catch (IOException e) {
-                // Handle exception (log, rethrow as RuntimeException, etc.)
-                e.printStackTrace();
-            }
-        });
+        // Handlers run on the dispatcher's lanes, never on the threads reading sockets
+        dispatcher = new MessageDispatcher(nodeId, this::handleDispatched, dispatchLanes,
+                MessageDispatcher.DEFAULT_LANE_CAPACITY, threadMode);
+        dispatcher.start();
+
+        if (transportMode == TransportMode.NIO) {
+            // One selector thread accepts, reads and writes every branch link
+            nioTransport = new NioTransport(new NioListener(), this::newOutboundQueue, bufferPool);
+            nioTransport.bind(port);
+            executor.submit(nioTransport);
+        } else {
+            serverSocket = new ServerSocket(port);
+
+            // Start server thread to accept incoming connections
+            executor.submit(this::serverLoop);
+        }
 
-        System.out.println("NetworkManager started on port " + port);
+        System.out.println("NetworkManager started on port " + port + " (" + transportMode + ", "
+                + threadMode + " threads)");
     }
 
     /**
@@ -87,11 +119,16 @@ public class NetworkManager {
         }
 
         // Close all connections
-        for (NodeConnection connection : connections.values()) {
+        for (PeerConnection connection : connections.values()) {
             connection.close();
         }
         connections.clear();
 
+        if (nioTransport != null) {
+            nioTransport.close();
+        }
+        dispatcher.stop();
+
         executor.shutdown();
         try {
             if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -113,8 +150,12 @@ public class NetworkManager {
         }
 
         try {
-            Socket socket = new Socket(host, remotePort);
-            NodeConnection connection = new NodeConnection(remoteNodeId, socket);
+            PeerConnection connection;
+            if (nioTransport != null) {
+                connection = nioTransport.connect(remoteNodeId, host, remotePort, defaultCodec);
+            } else {
+                connection = openNodeConnection(remoteNodeId, new Socket(host, remotePort));
+            }
             connections.put(remoteNodeId, connection);
 
             // Send initial connect message
@@ -129,21 +170,37 @@ public class NetworkManager {
     }
 
     /**
-     * Send a message to a specific node
+     * Send a message to a specific node via that node's outbound queue
      */
     public void sendMessage(String targetNodeId, Message message) {
         message.setReceiverId(targetNodeId);
-        outgoingMessages.offer(message);
+        enqueue(connections.get(targetNodeId), message);
     }
 
     /**
-     * Broadcast a message to all connected nodes
+     * Broadcast a message to all connected nodes. The data is copied once and
+     * the copies share one encoded payload, so the message is encoded once
+     * rather than once per peer.
      */
     public void broadcastMessage(Message message) {
-        for (String nodeId : connections.keySet()) {
-            Message copy = createMessageCopy(message);
-            copy.setReceiverId(nodeId);
-            outgoingMessages.offer(copy);
+        if (connections.isEmpty()) {
+            return;
+        }
+        Message snapshot = createMessageCopy(message);
+        for (Map.Entry<String, PeerConnection> entry : connections.entrySet()) {
+            enqueue(entry.getValue(), snapshot.shareWith(entry.getKey()));
+        }
+    }
+
+    private void enqueue(PeerConnection connection, Message message) {
+        if (connection == null) {
+            unroutableMessages.incrementAndGet();
+            return;
+        }
+        try {
+            connection.sendMessage(message);
+        } catch (IOException e) {
+            unroutableMessages.incrementAndGet();
         }
     }
 
@@ -180,52 +237,87 @@ public class NetworkManager {
             // For now, we'll identify connections by their address
             // In a real implementation, we'd have a handshake protocol
             String remoteNodeId = socket.getRemoteSocketAddress().toString();
-            NodeConnection connection = new NodeConnection(remoteNodeId, socket);
-            connections.put(remoteNodeId, connection);
+            openNodeConnection(remoteNodeId, socket);
         } catch (IOException e) {
             System.err.println("Error handling new connection: " + e.getMessage());
         }
     }
 
-    private void processIncomingMessages() {
-        while (running) {
-            for (NodeConnection connection : connections.values()) {
-                try {
-                    Message message = connection.receiveMessage();
-                    if (message != null) {
-                        incomingMessages.offer(message);
-                        if (messageHandler != null) {
-                            messageHandler.handleMessage(message);
-                        }
-                    }
-                } catch (Exception e) {
-                    // Connection might be closed or have issues
-                    // Handle gracefully
-                }
-            }
+    private NodeConnection openNodeConnection(String remoteNodeId, Socket socket) throws IOException {
+        NodeConnection connection = new NodeConnection(remoteNodeId, socket, defaultCodec, newOutboundQueue(),
+                bufferPool);
+        // Registered before its reader starts, so BRANCH_CONNECT can re-key it
+        connections.put(remoteNodeId, connection);
+        // A failed read or write closes the link; drop it like a closed NIO channel
+        connection.setClosedListener(this::unregister);
+        // Each blocking link gets its own writer so one slow peer cannot stall the rest,
+        // and its own reader that blocks on the socket instead of being polled
+        executor.submit(connection::runWriter);
+        executor.submit(() -> connection.runReader(message -> deliver(connection, message)));
+        return connection;
+    }
 
-            try {
-                Thread.sleep(10); // Small delay to prevent busy waiting
-            } catch (InterruptedException e) {
-                break;
-            }
+    private OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundQueueCapacity, overflowPolicy,
+                OutboundQueue.DEFAULT_BLOCK_TIMEOUT_MILLIS, laneScheduling);
+    }
+
+    private void deliver(PeerConnection connection, Message message) {
+        if (message.getType() == MessageType.BRANCH_CONNECT) {
+            bindInboundConnection(connection, message.getSenderId());
+        }
+
+        incomingMessages.offer(message);
+        if (messageHandler != null) {
+            dispatcher.dispatch(message, connection);
         }
     }
 
-    private void processOutgoingMessages() throws IOException {
-        while (running) {
-            try {
-                Message message = outgoingMessages.poll(100, TimeUnit.MILLISECONDS);
-                if (message != null) {
-                    NodeConnection connection = connections.get(message.getReceiverId());
-                    if (connection != null) {
-                        connection.sendMessage(message);
-                    }
-                }
-            } catch (InterruptedException e) {
-                break;
-            }
+    private void handleDispatched(Message message) {
+        MessageHandler handler = messageHandler;
+        if (handler != null) {
+            handler.handleMessage(message);
+        }
+    }
+
+    /**
+     * Re-key an accepted connection from its socket address to the branch ID it
+     * announced, so replies can be addressed to that branch
+     */
+    private void bindInboundConnection(PeerConnection connection, String remoteNodeId) {
+        if (remoteNodeId == null || connections.putIfAbsent(remoteNodeId, connection) != null) {
+            return;
         }
+        connections.entrySet().removeIf(
+                entry -> entry.getValue() == connection && !entry.getKey().equals(remoteNodeId));
+    }
+
+    /**
+     * Bridges selector-thread events into the connection table
+     */
+    private class NioListener implements NioTransport.Listener {
+        @Override
+        public void connectionAccepted(NioConnection connection) {
+            connection.setCodecType(defaultCodec);
+            connections.put(connection.getRemoteNodeId(), connection);
+        }
+
+        @Override
+        public void messageReceived(NioConnection connection, Message message) {
+            deliver(connection, message);
+        }
+
+        @Override
+        public void connectionClosed(NioConnection connection) {
+            unregister(connection);
+        }
+    }
+
+    /**
+     * Forget a closed connection under every ID it was registered with
+     */
+    private void unregister(PeerConnection connection) {
+        connections.values().removeIf(existing -> existing == connection);
     }
 
     private Message createMessageCopy(Message original) {
@@ -246,6 +338,112 @@ public class NetworkManager {
         return new HashSet<>(connections.keySet());
     }
 
+    /**
+     * Select the codec for connections opened or accepted from now on
+     */
+    public void setDefaultCodec(CodecType codecType) {
+        this.defaultCodec = codecType;
+    }
+
+    public CodecType getDefaultCodec() {
+        return defaultCodec;
+    }
+
+    /**
+     * Select the codec for outgoing messages to one node. The peer decodes
+     * either codec, so this can be changed on a live connection.
+     *
+     * @return false if not connected to that node
+     */
+    public boolean setCodec(String remoteNodeId, CodecType codecType) {
+        PeerConnection connection = connections.get(remoteNodeId);
+        if (connection == null) {
+            return false;
+        }
+        connection.setCodecType(codecType);
+        return true;
+    }
+
+    /**
+     * Choose how each link's writer orders control, transactional and bulk
+     * messages, for connections opened or accepted from now on
+     */
+    public void setLaneScheduling(LaneScheduling laneScheduling) {
+        this.laneScheduling = laneScheduling;
+    }
+
+    /**
+     * Set how many dispatch lanes each traffic class gets (0 runs the handler
+     * on the network thread); takes effect on start
+     */
+    public void setDispatchLanes(int lanes) {
+        if (lanes < 0) {
+            throw new IllegalArgumentException("Dispatch lanes must not be negative");
+        }
+        this.dispatchLanes = lanes;
+    }
+
+    /**
+     * Configure the outbound queue for connections opened or accepted from now on
+     */
+    public void setOutboundQueuePolicy(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.outboundQueueCapacity = capacity;
+        this.overflowPolicy = policy;
+    }
+
+    /**
+     * Get outbound counters for every connected node
+     */
+    public Map<String, LinkMetrics> getLinkMetrics() {
+        Map<String, LinkMetrics> metrics = new TreeMap<>();
+        for (Map.Entry<String, PeerConnection> entry : connections.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Get the pool outgoing frames are encoded into
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Number of messages addressed to a node with no open connection
+     */
+    public long getUnroutableMessageCount() {
+        return unroutableMessages.get();
+    }
+
+    /**
+     * Get per-link outbound statistics
+     */
+    public String getStatistics() {
+        StringBuilder stats = new StringBuilder();
+        stats.append(String.format("[%s] Network Stats - Transport: %s, Policy: %s/%d, Scheduling: %s, " +
+                "Unroutable: %d", nodeId, transportMode, overflowPolicy, outboundQueueCapacity, laneScheduling,
+                unroutableMessages.get()));
+        stats.append(System.lineSeparator()).append("  ").append(bufferPool);
+        if (dispatcher != null) {
+            stats.append(System.lineSeparator()).append("  ").append(dispatcher.getStatistics());
+        }
+        for (Map.Entry<String, LinkMetrics> entry : getLinkMetrics().entrySet()) {
+            stats.append(System.lineSeparator()).append("  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Get the transport used for branch links
+     */
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
     /**
      * Check if connected to a specific node
      */
@@ -0,0 +1,301 @@
+package communication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection to a remote node over a non-blocking SocketChannel.
+ * Messages are sent as length-prefixed frames; all reads, encoding and writes
+ * happen on the NioTransport selector thread, other threads only enqueue.
+ * Each batch is encoded straight into pooled direct buffers and written with
+ * one gathering write.
+ */
+class NioConnection implements PeerConnection {
+    private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private final String remoteNodeId;
+    private final SocketChannel channel;
+    private final NioTransport transport;
+    private final MessageFramer framer;
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean writeScheduled;
+    private final AtomicBoolean connected;
+    private final FrameOutput batchOutput;
+    private final List<Message> batch;
+    private ByteBuffer readBuffer;
+    private ByteBuffer[] pendingWrite;
+    private int pendingIndex;
+    private int pendingCount;
+    private SelectionKey selectionKey;
+    // Set while the dispatcher lane of a received message is full (selector thread)
+    private boolean readPaused;
+
+    NioConnection(String remoteNodeId, SocketChannel channel, NioTransport transport, CodecType codecType,
+            OutboundQueue outboundQueue) {
+        this.remoteNodeId = remoteNodeId;
+        this.channel = channel;
+        this.transport = transport;
+        this.framer = new MessageFramer(codecType);
+        this.outboundQueue = outboundQueue;
+        this.writeScheduled = new AtomicBoolean(false);
+        this.connected = new AtomicBoolean(true);
+        this.batchOutput = new FrameOutput(transport.getBufferPool());
+        this.batch = new ArrayList<>(MAX_BATCH_SIZE);
+        this.readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Queue a message for the selector thread to encode and write
+     */
+    @Override
+    public void sendMessage(Message message) throws IOException {
+        if (!connected.get()) {
+            throw new IOException("Connection to " + remoteNodeId + " is closed");
+        }
+
+        // Handlers run on the selector thread, which is also the only drainer
+        outboundQueue.offer(message, !transport.isSelectorThread());
+        if (writeScheduled.compareAndSet(false, true)) {
+            transport.execute(this::flushQueue);
+        }
+    }
+
+    /**
+     * Read whatever is available and deliver every complete frame (selector thread)
+     */
+    void handleRead() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new EOFException("Connection closed by " + remoteNodeId);
+        }
+        deliverFrames();
+    }
+
+    /**
+     * Deliver the complete frames in the read buffer until reading is paused;
+     * the rest stay buffered (selector thread)
+     */
+    private void deliverFrames() throws IOException {
+        readBuffer.flip();
+        int pendingFrameSize = 0;
+        while (!readPaused && readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            MessageFramer.checkLength(length);
+            if (readBuffer.remaining() < 4 + length) {
+                pendingFrameSize = 4 + length;
+                break;
+            }
+
+            readBuffer.position(readBuffer.position() + 4);
+            ByteBuffer frame = readBuffer.slice();
+            frame.limit(length);
+            readBuffer.position(readBuffer.position() + length);
+            transport.deliver(this, framer.decodeFrame(frame));
+        }
+
+        if (pendingFrameSize > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(pendingFrameSize);
+            larger.put(readBuffer);
+            readBuffer = larger;
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    /**
+     * Encode everything queued into one buffer and write it, until the queue is
+     * empty or the socket buffer is full (selector thread)
+     */
+    void handleWrite() throws IOException {
+        while (true) {
+            if (pendingWrite == null && !encodeBatch()) {
+                break;
+            }
+
+            channel.write(pendingWrite, pendingIndex, pendingCount - pendingIndex);
+            while (pendingIndex < pendingCount && !pendingWrite[pendingIndex].hasRemaining()) {
+                pendingIndex++;
+            }
+            if (pendingIndex < pendingCount) {
+                // Socket send buffer is full, resume on the next OP_WRITE
+                selectionKey.interestOps(readOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            outboundQueue.getMetrics().recordWrite(batchOutput.size(), 0);
+            batchOutput.release();
+            pendingWrite = null;
+        }
+
+        selectionKey.interestOps(readOps());
+        writeScheduled.set(false);
+
+        // A sender may have queued a message after the last drain
+        if (!outboundQueue.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+            selectionKey.interestOps(readOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private int readOps() {
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * Stop reading this channel; other connections keep being served
+     */
+    @Override
+    public void pauseReading() {
+        onSelectorThread(() -> {
+            readPaused = true;
+            if (selectionKey != null && selectionKey.isValid()) {
+                selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    /**
+     * Deliver the frames buffered while paused, then read the channel again
+     */
+    @Override
+    public void resumeReading() {
+        onSelectorThread(() -> {
+            if (!readPaused || selectionKey == null || !selectionKey.isValid()) {
+                return;
+            }
+            readPaused = false;
+            try {
+                deliverFrames();
+            } catch (IOException | RuntimeException e) {
+                transport.closeConnection(this);
+                return;
+            }
+            if (!readPaused) {
+                selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    private void onSelectorThread(Runnable task) {
+        if (transport.isSelectorThread()) {
+            task.run();
+        } else {
+            transport.execute(task);
+        }
+    }
+
+    private boolean encodeBatch() throws IOException {
+        if (outboundQueue.drainBatch(batch, MAX_BATCH_SIZE) == 0) {
+            return false;
+        }
+
+        try {
+            for (Message message : batch) {
+                framer.writeFrame(message, batchOutput);
+            }
+            outboundQueue.getMetrics().recordBatch(batch.size());
+        } catch (IOException | RuntimeException e) {
+            batchOutput.release();
+            throw e;
+        } finally {
+            batch.clear();
+        }
+
+        // The buffers go back to the pool once this write has completed
+        pendingWrite = batchOutput.buffers();
+        pendingCount = batchOutput.bufferCount();
+        pendingIndex = 0;
+        return true;
+    }
+
+    private void flushQueue() {
+        if (selectionKey == null || !selectionKey.isValid()) {
+            return;
+        }
+        try {
+            handleWrite();
+        } catch (IOException e) {
+            transport.closeConnection(this);
+        } catch (RuntimeException e) {
+            // A message that cannot be encoded costs only this link
+            System.err.println("Closing " + remoteNodeId + " after " + e);
+            transport.closeConnection(this);
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    @Override
+    public LinkMetrics getMetrics() {
+        return outboundQueue.getMetrics();
+    }
+
+    @Override
+    public CodecType getCodecType() {
+        return framer.getOutboundType();
+    }
+
+    @Override
+    public void setCodecType(CodecType codecType) {
+        framer.setOutboundType(codecType);
+    }
+
+    /**
+     * Close the connection
+     */
+    @Override
+    public void close() {
+        if (!connected.compareAndSet(true, false)) {
+            return;
+        }
+
+        outboundQueue.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        // Only the selector thread touches the batch buffers
+        transport.execute(() -> {
+            pendingWrite = null;
+            batchOutput.release();
+        });
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected.get() && channel.isOpen();
+    }
+
+    @Override
+    public String getRemoteNodeId() {
+        return remoteNodeId;
+    }
+
+    /**
+     * Get socket information
+     */
+    public String getConnectionInfo() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "Unknown";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NioConnection{remoteNodeId='%s', connected=%s, address=%s}",
+                remoteNodeId, connected.get(), getConnectionInfo());
+    }
+}
@@ -0,0 +1,218 @@
+package communication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector-driven transport for branch links.
+ * A single thread accepts, reads and writes every SocketChannel, so decoding is
+ * triggered by readiness events instead of a polling sweep.
+ */
+class NioTransport implements Runnable {
+
+    /**
+     * Callbacks invoked on the selector thread
+     */
+    interface Listener {
+        void connectionAccepted(NioConnection connection);
+
+        void messageReceived(NioConnection connection, Message message);
+
+        void connectionClosed(NioConnection connection);
+    }
+
+    /**
+     * Supplies the outbound queue for each new connection
+     */
+    interface QueueFactory {
+        OutboundQueue newQueue();
+    }
+
+    private final Listener listener;
+    private final Selector selector;
+    private final Queue<Runnable> pendingTasks;
+    private final QueueFactory queueFactory;
+    private final BufferPool bufferPool;
+    private ServerSocketChannel serverChannel;
+    private volatile Thread selectorThread;
+    private volatile boolean running;
+
+    NioTransport(Listener listener, QueueFactory queueFactory, BufferPool bufferPool) throws IOException {
+        this.listener = listener;
+        this.queueFactory = queueFactory;
+        this.bufferPool = bufferPool;
+        this.selector = Selector.open();
+        this.pendingTasks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Start listening for incoming branch connections
+     */
+    void bind(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    /**
+     * Open an outgoing connection and hand it to the selector
+     */
+    NioConnection connect(String remoteNodeId, String host, int port, CodecType codecType) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        NioConnection connection = new NioConnection(remoteNodeId, channel, this, codecType,
+                queueFactory.newQueue());
+        configure(channel);
+        execute(() -> register(connection));
+        return connection;
+    }
+
+    /**
+     * Run a task on the selector thread (registrations and interest changes
+     * must not race with select())
+     */
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Pool the connections encode their outgoing frames into
+     */
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    boolean isSelectorThread() {
+        return Thread.currentThread() == selectorThread;
+    }
+
+    @Override
+    public void run() {
+        selectorThread = Thread.currentThread();
+        try {
+            while (running) {
+                selector.select();
+                runPendingTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        handleKey(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("Selector loop failed: " + e.getMessage());
+            }
+        } finally {
+            closeSelector();
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.handleRead();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.handleWrite();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            closeConnection(connection);
+        } catch (RuntimeException e) {
+            // A malformed frame or failing listener costs only this link
+            System.err.println("Closing " + connection.getRemoteNodeId() + " after " + e);
+            closeConnection(connection);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                // Identified by address until the peer announces itself
+                String remoteNodeId = channel.getRemoteAddress().toString();
+                NioConnection connection = new NioConnection(remoteNodeId, channel, this, CodecType.BINARY,
+                        queueFactory.newQueue());
+                configure(channel);
+                register(connection);
+                listener.connectionAccepted(connection);
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void configure(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    private void register(NioConnection connection) {
+        try {
+            connection.setSelectionKey(
+                    connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+        } catch (ClosedChannelException e) {
+            closeConnection(connection);
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Connection tasks close their own link; never let one end the loop
+                System.err.println("Selector task failed: " + e);
+            }
+        }
+    }
+
+    void deliver(NioConnection connection, Message message) {
+        listener.messageReceived(connection, message);
+    }
+
+    void closeConnection(NioConnection connection) {
+        if (connection.isConnected()) {
+            connection.close();
+            listener.connectionClosed(connection);
+        }
+    }
+
+    /**
+     * Stop the selector loop; open channels are closed by the loop on exit
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // Ignore
+        }
+    }
+}
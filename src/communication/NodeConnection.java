@@ -2,83 +2,207 @@ package communication;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Represents a connection to a remote node
+ * Represents a connection to a remote node.
+ * Outgoing messages are queued and written by a dedicated writer loop, so a
+ * slow peer only backs up its own queue. Each batch is encoded into pooled
+ * heap buffers that are written to the socket as they are, with no stream
+ * buffer in between.
  */
-public class NodeConnection {
+public class NodeConnection implements PeerConnection {
+    private static final int MAX_BATCH_SIZE = 512;
+
     private final String remoteNodeId;
     private final Socket socket;
-    private final ObjectInputStream inputStream;
-    private final ObjectOutputStream outputStream;
-    private final BlockingQueue<Message> messageQueue;
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private final FrameOutput batchOutput;
+    private final MessageFramer framer;
+    private final OutboundQueue outboundQueue;
     private final AtomicBoolean connected;
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final Condition readResumed = readLock.newCondition();
+    private boolean readPaused;
+    private volatile Consumer<NodeConnection> closedListener;
 
     public NodeConnection(String remoteNodeId, Socket socket) throws IOException {
+        this(remoteNodeId, socket, CodecType.BINARY,
+                new OutboundQueue(OutboundQueue.DEFAULT_CAPACITY, OverflowPolicy.BLOCK));
+    }
+
+    public NodeConnection(String remoteNodeId, Socket socket, CodecType codecType,
+            OutboundQueue outboundQueue) throws IOException {
+        this(remoteNodeId, socket, codecType, outboundQueue, new BufferPool(false));
+    }
+
+    public NodeConnection(String remoteNodeId, Socket socket, CodecType codecType,
+            OutboundQueue outboundQueue, BufferPool bufferPool) throws IOException {
         this.remoteNodeId = remoteNodeId;
         this.socket = socket;
         this.connected = new AtomicBoolean(true);
-        this.messageQueue = new LinkedBlockingQueue<>();
-
-        // Important: Create ObjectOutputStream before ObjectInputStream
-        // to avoid blocking during handshake
-        this.outputStream = new ObjectOutputStream(socket.getOutputStream());
-        this.outputStream.flush();
-        this.inputStream = new ObjectInputStream(socket.getInputStream());
+        this.outboundQueue = outboundQueue;
+        this.framer = new MessageFramer(codecType);
+        this.outputStream = socket.getOutputStream();
+        this.batchOutput = new FrameOutput(bufferPool);
+        this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
     }
 
     /**
-     * Send a message to the remote node
+     * Queue a message for this connection's writer
      */
-    public synchronized void sendMessage(Message message) throws IOException {
+    @Override
+    public void sendMessage(Message message) throws IOException {
         if (!connected.get()) {
             throw new IOException("Connection to " + remoteNodeId + " is closed");
         }
+        outboundQueue.offer(message, true);
+    }
 
-        try {
-            outputStream.writeObject(message);
-            outputStream.flush();
-        } catch (IOException e) {
-            connected.set(false);
-            throw e;
+    /**
+     * Writer loop: wait for a message, then encode everything queued behind it
+     * into pooled buffers and write them out. Runs until the connection closes.
+     */
+    public void runWriter() {
+        List<Message> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (connected.get()) {
+            try {
+                if (outboundQueue.drainBatch(batch, MAX_BATCH_SIZE, 100, TimeUnit.MILLISECONDS) == 0) {
+                    continue;
+                }
+                for (Message message : batch) {
+                    framer.writeFrame(message, batchOutput);
+                }
+                ByteBuffer[] chunks = batchOutput.buffers();
+                for (int i = 0; i < batchOutput.bufferCount(); i++) {
+                    outputStream.write(chunks[i].array(), chunks[i].arrayOffset(), chunks[i].limit());
+                }
+                // The socket stream copies each array into native memory
+                outboundQueue.getMetrics().recordWrite(batchOutput.size(), batchOutput.size());
+                outboundQueue.getMetrics().recordBatch(batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                System.err.println("Write to " + remoteNodeId + " failed: " + e.getMessage());
+                close();
+            } catch (RuntimeException e) {
+                // A message that cannot be encoded costs only this link
+                System.err.println("Closing " + remoteNodeId + " after " + e);
+                close();
+            } finally {
+                batch.clear();
+                batchOutput.release();
+            }
         }
     }
 
     /**
-     * Receive a message from the remote node (non-blocking)
+     * Reader loop: block until each frame arrives and pass it to the handler,
+     * waiting while reading is paused. Runs until the connection closes or a
+     * read fails.
      */
-    public Message receiveMessage() throws IOException, ClassNotFoundException {
-        if (!connected.get()) {
-            return null;
+    public void runReader(Consumer<Message> handler) {
+        while (connected.get()) {
+            try {
+                handler.accept(framer.readFrame(inputStream));
+            } catch (IOException e) {
+                close();
+                return;
+            } catch (RuntimeException e) {
+                // A malformed frame or failing handler costs only this link
+                System.err.println("Closing " + remoteNodeId + " after " + e);
+                close();
+                return;
+            }
+            if (!awaitReadResumed()) {
+                return;
+            }
         }
+    }
 
+    /**
+     * Block this connection's reader until reading is resumed
+     *
+     * @return false if the connection closed or the reader was interrupted
+     */
+    private boolean awaitReadResumed() {
+        readLock.lock();
         try {
-            if (inputStream.available() > 0) {
-                Object obj = inputStream.readObject();
-                if (obj instanceof Message) {
-                    return (Message) obj;
-                }
+            while (readPaused && connected.get()) {
+                readResumed.await();
             }
-        } catch (IOException e) {
-            connected.set(false);
-            throw e;
+            return connected.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            readLock.unlock();
         }
+    }
 
-        return null;
+    @Override
+    public void pauseReading() {
+        readLock.lock();
+        try {
+            readPaused = true;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void resumeReading() {
+        readLock.lock();
+        try {
+            readPaused = false;
+            readResumed.signalAll();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public LinkMetrics getMetrics() {
+        return outboundQueue.getMetrics();
+    }
+
+    @Override
+    public CodecType getCodecType() {
+        return framer.getOutboundType();
+    }
+
+    @Override
+    public void setCodecType(CodecType codecType) {
+        framer.setOutboundType(codecType);
+    }
+
+    /**
+     * Be told once when the connection closes, whichever side or loop closed it
+     */
+    public void setClosedListener(Consumer<NodeConnection> closedListener) {
+        this.closedListener = closedListener;
     }
 
     /**
      * Close the connection
      */
     public void close() {
-        if (!connected.get()) {
+        if (!connected.compareAndSet(true, false)) {
             return;
         }
 
-        connected.set(false);
+        outboundQueue.clear();
+        // Wake a reader waiting for its lane to drain
+        resumeReading();
 
         try {
             if (inputStream != null) {
@@ -103,6 +227,11 @@ public class NodeConnection {
         } catch (IOException e) {
             // Ignore
         }
+
+        Consumer<NodeConnection> listener = closedListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
     }
 
     /**
@@ -0,0 +1,244 @@
+package communication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of messages waiting for one peer's writer. Messages are kept
+ * in a lane per traffic class, each bounded by the capacity, so a catch-up of
+ * thousands of log entries neither fills the space control messages need nor
+ * sits in front of them; the scheduling decides which lane the writer takes
+ * from next. Order is kept within a class, not across classes.
+ */
+public class OutboundQueue {
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 1000;
+    public static final LaneScheduling DEFAULT_SCHEDULING = LaneScheduling.WEIGHTED;
+
+    // Messages taken from each lane per WEIGHTED turn, by traffic class
+    private static final int[] WEIGHTS = {16, 4, 1};
+    private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // One lane per traffic class, or a single lane under FIFO
+    private final List<ArrayDeque<Message>> lanes;
+    private final int[] classDepths = new int[CLASSES.length];
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final LaneScheduling scheduling;
+    private final long blockTimeoutMillis;
+    private final LinkMetrics metrics;
+    private volatile int size;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, DEFAULT_BLOCK_TIMEOUT_MILLIS, DEFAULT_SCHEDULING);
+    }
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this(capacity, policy, blockTimeoutMillis, DEFAULT_SCHEDULING);
+    }
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis, LaneScheduling scheduling) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.scheduling = scheduling;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        int laneCount = scheduling == LaneScheduling.FIFO ? 1 : CLASSES.length;
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+        this.metrics = new LinkMetrics(() -> size, this::getDepth);
+    }
+
+    /**
+     * Queue a message according to the overflow policy
+     *
+     * @param mayBlock false when called from the thread that drains this queue,
+     *                 where waiting for space could never succeed
+     * @return true if queued, false if this message was dropped
+     */
+    public boolean offer(Message message, boolean mayBlock) {
+        TrafficClass trafficClass = TrafficClass.of(message.getType());
+        ArrayDeque<Message> lane = lanes.get(lanes.size() == 1 ? 0 : trafficClass.ordinal());
+        lock.lock();
+        try {
+            if (lane.size() < capacity) {
+                add(lane, trafficClass, message);
+                return true;
+            }
+
+            switch (policy) {
+                case BLOCK:
+                    if (mayBlock) {
+                        metrics.recordBackpressureWait();
+                        long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                        try {
+                            while (lane.size() >= capacity && nanos > 0) {
+                                nanos = notFull.awaitNanos(nanos);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (lane.size() < capacity) {
+                            add(lane, trafficClass, message);
+                            return true;
+                        }
+                    }
+                    break;
+                case DROP_OLDEST:
+                    remove(lane);
+                    metrics.recordDropped();
+                    add(lane, trafficClass, message);
+                    return true;
+                case DROP_NEWEST:
+                default:
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        metrics.recordDropped();
+        return false;
+    }
+
+    /**
+     * Wait up to the timeout for a message, then take it and everything else
+     * already queued (up to maxMessages) in scheduling order
+     *
+     * @return number of messages added to the batch
+     */
+    public int drainBatch(Collection<Message> batch, int maxMessages, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = unit.toNanos(timeout);
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return take(batch, maxMessages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take everything queued right now (up to maxMessages) without waiting
+     */
+    public int drainBatch(Collection<Message> batch, int maxMessages) {
+        lock.lock();
+        try {
+            return take(batch, maxMessages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Message> lane : lanes) {
+                lane.clear();
+            }
+            Arrays.fill(classDepths, 0);
+            size = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public LaneScheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * Number of messages of one traffic class waiting to be sent
+     */
+    public int getDepth(TrafficClass trafficClass) {
+        lock.lock();
+        try {
+            return classDepths[trafficClass.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Called with the lock held
+    private void add(ArrayDeque<Message> lane, TrafficClass trafficClass, Message message) {
+        lane.addLast(message);
+        int classDepth = ++classDepths[trafficClass.ordinal()];
+        size++;
+        metrics.recordEnqueued(trafficClass, classDepth, size);
+        notEmpty.signal();
+    }
+
+    // Called with the lock held
+    private Message remove(ArrayDeque<Message> lane) {
+        Message message = lane.pollFirst();
+        if (message != null) {
+            classDepths[TrafficClass.of(message.getType()).ordinal()]--;
+            size--;
+        }
+        return message;
+    }
+
+    // Called with the lock held
+    private int take(Collection<Message> batch, int maxMessages) {
+        int taken = 0;
+        if (scheduling == LaneScheduling.WEIGHTED) {
+            while (taken < maxMessages && size > 0) {
+                for (int i = 0; i < lanes.size() && taken < maxMessages; i++) {
+                    taken += takeFrom(lanes.get(i), batch, Math.min(WEIGHTS[i], maxMessages - taken));
+                }
+            }
+        } else {
+            // FIFO has a single lane; STRICT empties each lane before the next
+            for (int i = 0; i < lanes.size() && taken < maxMessages; i++) {
+                taken += takeFrom(lanes.get(i), batch, maxMessages - taken);
+            }
+        }
+        if (taken > 0) {
+            notFull.signalAll();
+        }
+        return taken;
+    }
+
+    private int takeFrom(ArrayDeque<Message> lane, Collection<Message> batch, int limit) {
+        int taken = 0;
+        while (taken < limit) {
+            Message message = remove(lane);
+            if (message == null) {
+                break;
+            }
+            batch.add(message);
+            taken++;
+        }
+        return taken;
+    }
+
+}
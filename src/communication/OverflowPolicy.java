@@ -0,0 +1,15 @@
+package communication;
+
+/**
+ * What a peer's outbound queue does when it is full
+ */
+public enum OverflowPolicy {
+    // Make the sender wait for space (bounded by a timeout, then drop)
+    BLOCK,
+
+    // Reject the message being sent
+    DROP_NEWEST,
+
+    // Evict the oldest queued message to make room
+    DROP_OLDEST
+}
@@ -0,0 +1,56 @@
+package communication;
+
+import java.io.IOException;
+
+/**
+ * A link to a remote branch, independent of the underlying transport
+ */
+public interface PeerConnection {
+
+    /**
+     * Queue a message for the remote node. Delivery order per connection is
+     * preserved; when the queue is full its overflow policy applies.
+     */
+    void sendMessage(Message message) throws IOException;
+
+    /**
+     * Get outbound queue and batching counters for this link
+     */
+    LinkMetrics getMetrics();
+
+    /**
+     * Get the codec used for outgoing messages
+     */
+    CodecType getCodecType();
+
+    /**
+     * Select the codec used for outgoing messages on this connection
+     */
+    void setCodecType(CodecType codecType);
+
+    /**
+     * Stop handing on incoming messages until {@link #resumeReading()}; the
+     * transport keeps serving other connections meanwhile
+     */
+    void pauseReading();
+
+    /**
+     * Start handing on incoming messages again after {@link #pauseReading()}
+     */
+    void resumeReading();
+
+    /**
+     * Close the connection
+     */
+    void close();
+
+    /**
+     * Check if connection is still active
+     */
+    boolean isConnected();
+
+    /**
+     * Get remote node ID
+     */
+    String getRemoteNodeId();
+}
@@ -0,0 +1,42 @@
+package communication;
+
+import java.io.*;
+
+/**
+ * Codec that writes each message with Java serialization, as the system did
+ * originally. Kept as a fallback for payload types the binary codec cannot
+ * describe and for peers that have not switched codecs.
+ */
+public class SerializedMessageCodec implements MessageCodec {
+
+    @Override
+    public CodecType getType() {
+        return CodecType.SERIALIZED;
+    }
+
+    @Override
+    public void encode(Message message, DataOutputStream out) throws IOException {
+        SharedPayload shared = message.getSharedPayload();
+        if (shared != null) {
+            // Every copy of a broadcast carries the same receiver on this codec
+            out.write(shared.serialized());
+            return;
+        }
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(message);
+        objectOut.flush();
+    }
+
+    @Override
+    public Message decode(DataInputStream in) throws IOException {
+        try {
+            Object obj = new ObjectInputStream(in).readObject();
+            if (obj instanceof Message) {
+                return (Message) obj;
+            }
+            throw new IOException("Unexpected object in frame: " + obj);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in frame", e);
+        }
+    }
+}
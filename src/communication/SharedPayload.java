@@ -0,0 +1,50 @@
+package communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * The receiver-independent part of a broadcast message, encoded at most once
+ * per codec by whichever peer's writer gets to it first and then reused by
+ * the others
+ */
+final class SharedPayload {
+    private final Message message;
+    private byte[] binaryBody;
+    private byte[] serialized;
+
+    SharedPayload(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * Resource, timestamp and data fields in the binary codec's layout
+     */
+    synchronized byte[] binaryBody() throws IOException {
+        if (binaryBody == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            BinaryMessageCodec.writeBody(message, out);
+            out.flush();
+            binaryBody = bytes.toByteArray();
+        }
+        return binaryBody;
+    }
+
+    /**
+     * The whole message in Java serialization, with the receiver the
+     * broadcaster gave it
+     */
+    synchronized byte[] serialized() throws IOException {
+        if (serialized == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(message);
+            }
+            serialized = bytes.toByteArray();
+        }
+        return serialized;
+    }
+}
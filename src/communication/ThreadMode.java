@@ -0,0 +1,58 @@
+package communication;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads that serve blocking sockets: accept loops, per-connection readers
+ * and writers, and client and chat handlers
+ */
+public enum ThreadMode {
+    // A cached pool of platform threads, one OS thread per blocked socket
+    PLATFORM,
+
+    // One virtual thread per task (Java 21+); a blocked socket parks the
+    // virtual thread and frees its carrier
+    VIRTUAL;
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    /**
+     * Create the executor for one component. Falls back to platform threads,
+     * with a warning, when the JVM has no virtual threads.
+     */
+    public ExecutorService newExecutor() {
+        if (this == VIRTUAL) {
+            if (NEW_VIRTUAL_EXECUTOR != null) {
+                try {
+                    return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    // Fall through to platform threads
+                }
+            }
+            System.err.println("Virtual threads are not available on Java " + Runtime.version().feature()
+                    + ", using platform threads");
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Check whether this JVM can run virtual threads
+     */
+    public static boolean isVirtualAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    // Looked up reflectively so the code still compiles and runs on Java 11
+    private static Method findVirtualExecutor() {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package communication;
+
+/**
+ * Broad classes of branch traffic, so latency-sensitive messages are not
+ * handled behind bulk replication traffic
+ */
+public enum TrafficClass {
+    // Mutual exclusion, liveness and connection management
+    CONTROL,
+
+    // Stock transfers, escrow and replication acknowledgements that a transfer waits on
+    TRANSACTIONAL,
+
+    // Replication log shipping, catch-up and snapshots
+    BULK;
+
+    /**
+     * Get the class a message type belongs to
+     */
+    public static TrafficClass of(MessageType type) {
+        switch (type) {
+            case BRANCH_CONNECT:
+            case BRANCH_DISCONNECT:
+            case BRANCH_HEARTBEAT:
+            case MUTEX_REQUEST:
+            case MUTEX_REPLY:
+            case MUTEX_RELEASE:
+            case MUTEX_FAILED:
+            case MUTEX_INQUIRE:
+            case MUTEX_YIELD:
+            case MUTEX_TOKEN:
+            case ERROR:
+            case ACK:
+            case PING:
+            case PONG:
+                return CONTROL;
+            case SYNC_REQUEST:
+            case SYNC_RESPONSE:
+            case LOG_ENTRY:
+            case LOG_BATCH:
+            case SNAPSHOT:
+                return BULK;
+            default:
+                return TRANSACTIONAL;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package communication;
+
+/**
+ * Transport used by NetworkManager for branch-to-branch links
+ */
+public enum TransportMode {
+    // One socket stream pair per NodeConnection, each with its own reader and writer thread
+    BLOCKING,
+
+    // Non-blocking SocketChannels multiplexed on a single selector thread
+    NIO
+}
@@ -0,0 +1,270 @@
+package communication;
+
+import distributed.BoundedCounter;
+import distributed.VectorClock;
+import inventory.Product;
+import replication.LogEntry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primitive encodings used by the binary codec: LEB128 varints, length-prefixed
+ * UTF-8 strings and tagged values for message payloads.
+ */
+public final class WireFormat {
+    // Value tags
+    private static final int TAG_NULL = 0;
+    private static final int TAG_INT = 1;
+    private static final int TAG_LONG = 2;
+    private static final int TAG_TRUE = 3;
+    private static final int TAG_FALSE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_PRODUCT = 7;
+    private static final int TAG_LOG_ENTRY = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_MAP = 10;
+    private static final int TAG_VECTOR_CLOCK = 11;
+    private static final int TAG_BOUNDED_COUNTER = 12;
+    private static final int TAG_SERIALIZED = 15;
+
+    private WireFormat() {
+    }
+
+    /**
+     * Write an unsigned varint (7 bits per byte, high bit = continuation)
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    /**
+     * Write a signed value with zig-zag encoding so small negatives stay short
+     */
+    public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(DataInput in) throws IOException {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Write a nullable string as varint (byte length + 1) followed by UTF-8 bytes
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkLength(in, length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a byte length or element count written with
+     * {@link #writeVarInt(DataOutput, int)}, rejecting one that could not fit
+     * in the rest of the input
+     */
+    public static int readLength(DataInput in) throws IOException {
+        return checkLength(in, readVarInt(in));
+    }
+
+    /**
+     * Every element takes at least one byte, so a length or count is never
+     * more than a frame, nor more than what is left of a frame being decoded
+     */
+    private static int checkLength(DataInput in, int length) throws IOException {
+        if (length < 0 || length > MessageFramer.MAX_FRAME_SIZE) {
+            throw new IOException("Invalid length: " + length);
+        }
+        if (in instanceof FrameInput && length > ((FrameInput) in).available()) {
+            throw new IOException("Length " + length + " exceeds the " + ((FrameInput) in).available() +
+                    " bytes left in the frame");
+        }
+        return length;
+    }
+
+    /**
+     * Write a payload value with a type tag. Types without a dedicated tag fall
+     * back to Java serialization of that single value.
+     */
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            writeSignedVarLong(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeSignedVarLong(out, (Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Product) {
+            out.writeByte(TAG_PRODUCT);
+            ((Product) value).writeTo(out);
+        } else if (value instanceof LogEntry) {
+            out.writeByte(TAG_LOG_ENTRY);
+            ((LogEntry) value).writeTo(out);
+        } else if (value instanceof VectorClock) {
+            out.writeByte(TAG_VECTOR_CLOCK);
+            ((VectorClock) value).writeTo(out);
+        } else if (value instanceof BoundedCounter) {
+            out.writeByte(TAG_BOUNDED_COUNTER);
+            ((BoundedCounter) value).writeTo(out);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, (String) entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(TAG_SERIALIZED);
+            byte[] bytes = serialize(value);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static Object readValue(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_INT:
+                return (int) readSignedVarLong(in);
+            case TAG_LONG:
+                return readSignedVarLong(in);
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_PRODUCT:
+                return Product.readFrom(in);
+            case TAG_LOG_ENTRY:
+                return LogEntry.readFrom(in);
+            case TAG_VECTOR_CLOCK:
+                return VectorClock.readFrom(in);
+            case TAG_BOUNDED_COUNTER:
+                return BoundedCounter.readFrom(in);
+            case TAG_LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                int size = readLength(in);
+                Map<String, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            }
+            case TAG_SERIALIZED: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readFully(bytes);
+                return deserialize(bytes);
+            }
+            default:
+                throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    /**
+     * A whole frame held in memory, so the bytes left are known exactly
+     */
+    static final class FrameInput extends DataInputStream {
+        FrameInput(byte[] frame, int offset, int length) {
+            super(new ByteArrayInputStream(frame, offset, length));
+        }
+    }
+
+    private static boolean hasStringKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in serialized value", e);
+        }
+    }
+}
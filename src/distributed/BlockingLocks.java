@@ -0,0 +1,73 @@
+package distributed;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The handles held through the blocking requestCriticalSection and
+ * releaseCriticalSection calls of a mutex, one per resource
+ */
+class BlockingLocks {
+    private final String nodeId;
+    private final Map<String, LockHandle> handles = new ConcurrentHashMap<>();
+
+    BlockingLocks(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    boolean isHeld(String resourceId) {
+        return handles.containsKey(resourceId);
+    }
+
+    /**
+     * Wait for a lock through the mutex's async acquire, cancelling the
+     * request if it is not granted in time
+     */
+    boolean request(DistributedMutex mutex, String resourceId, int timeoutSeconds) {
+        if (handles.containsKey(resourceId)) {
+            System.out.println("[" + nodeId + "] Already in critical section for " + resourceId);
+            return true;
+        }
+
+        CompletableFuture<LockHandle> acquisition = mutex.acquireAsync(resourceId);
+        try {
+            handles.put(resourceId, acquisition.get(timeoutSeconds, TimeUnit.SECONDS));
+            return true;
+        } catch (TimeoutException e) {
+            System.out.println("[" + nodeId + "] Timeout waiting for critical section access for " + resourceId);
+        } catch (InterruptedException e) {
+            System.out.println("[" + nodeId + "] Interrupted while waiting for critical section for " + resourceId);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("[" + nodeId + "] Critical section request for " + resourceId + " failed: " +
+                    e.getCause().getMessage());
+            return false;
+        }
+        if (!acquisition.cancel(false)) {
+            // Granted while giving up
+            LockHandle handle = acquisition.getNow(null);
+            if (handle != null) {
+                handles.put(resourceId, handle);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void release(String resourceId) {
+        LockHandle handle = handles.remove(resourceId);
+        if (handle == null) {
+            System.out.println("[" + nodeId + "] Not in critical section for " + resourceId + ", cannot release");
+            return;
+        }
+        handle.release();
+    }
+
+    void clear() {
+        handles.clear();
+    }
+}
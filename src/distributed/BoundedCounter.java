@@ -0,0 +1,251 @@
+package distributed;
+
+import communication.WireFormat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Bounded counter CRDT for one product's stock across branches. Each branch
+ * owns a share (its rights): what it has added, minus what it has taken, plus
+ * the rights transferred to it, minus the rights it transferred away. A branch
+ * can only take or transfer its own rights, so it never needs to coordinate
+ * to keep the total from going negative.
+ *
+ * Every component only grows and merging takes the element-wise maximum, so
+ * states can be exchanged in any order and any number of times. Branches are
+ * indexed as in {@link VectorClock}. Methods are synchronized.
+ */
+public class BoundedCounter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Indexes are local to a process, so serialization writes branch IDs
+    private transient long[] increments;
+    private transient long[] decrements;
+    // transfers[from][to]
+    private transient long[][] transfers;
+
+    public BoundedCounter() {
+        this.increments = new long[4];
+        this.decrements = new long[4];
+        this.transfers = new long[4][4];
+    }
+
+    /**
+     * Add to a branch's rights
+     */
+    public synchronized void increment(int branch, long amount) {
+        ensureCapacity(branch);
+        increments[branch] += amount;
+    }
+
+    /**
+     * Take from a branch's rights
+     *
+     * @return false if the branch holds fewer rights than the amount
+     */
+    public synchronized boolean decrement(int branch, long amount) {
+        if (rights(branch) < amount) {
+            return false;
+        }
+        ensureCapacity(branch);
+        decrements[branch] += amount;
+        return true;
+    }
+
+    /**
+     * Move rights from one branch to another
+     *
+     * @return false if the source holds fewer rights than the amount
+     */
+    public synchronized boolean transfer(int from, int to, long amount) {
+        if (rights(from) < amount) {
+            return false;
+        }
+        ensureCapacity(Math.max(from, to));
+        transfers[from][to] += amount;
+        return true;
+    }
+
+    /**
+     * Add or take rights so a branch holds exactly the given amount, for a
+     * branch whose share is tracked elsewhere (e.g. as a product quantity)
+     *
+     * @return true if the counter changed
+     */
+    public synchronized boolean adjustTo(int branch, long amount) {
+        long difference = amount - rights(branch);
+        if (difference == 0) {
+            return false;
+        }
+        ensureCapacity(branch);
+        if (difference > 0) {
+            increments[branch] += difference;
+        } else {
+            decrements[branch] -= difference;
+        }
+        return true;
+    }
+
+    /**
+     * Rights a branch holds
+     */
+    public synchronized long rights(int branch) {
+        long rights = get(increments, branch) - get(decrements, branch);
+        for (int i = 0; i < transfers.length; i++) {
+            rights += get(transfers[i], branch) - (branch < transfers.length ? transfers[branch][i] : 0);
+        }
+        return rights;
+    }
+
+    /**
+     * Total rights transferred to a branch
+     */
+    public synchronized long received(int branch) {
+        long received = 0;
+        for (long[] row : transfers) {
+            received += get(row, branch);
+        }
+        return received;
+    }
+
+    /**
+     * Total across all branches
+     */
+    public synchronized long value() {
+        long value = 0;
+        for (int i = 0; i < increments.length; i++) {
+            value += increments[i] - decrements[i];
+        }
+        return value;
+    }
+
+    /**
+     * Take the element-wise maximum with another counter's state
+     */
+    public void merge(BoundedCounter other) {
+        long[] otherIncrements;
+        long[] otherDecrements;
+        long[][] otherTransfers;
+        synchronized (other) {
+            otherIncrements = other.increments.clone();
+            otherDecrements = other.decrements.clone();
+            otherTransfers = new long[other.transfers.length][];
+            for (int i = 0; i < otherTransfers.length; i++) {
+                otherTransfers[i] = other.transfers[i].clone();
+            }
+        }
+        synchronized (this) {
+            ensureCapacity(otherIncrements.length - 1);
+            for (int i = 0; i < otherIncrements.length; i++) {
+                increments[i] = Math.max(increments[i], otherIncrements[i]);
+                decrements[i] = Math.max(decrements[i], otherDecrements[i]);
+                for (int j = 0; j < otherTransfers[i].length; j++) {
+                    transfers[i][j] = Math.max(transfers[i][j], otherTransfers[i][j]);
+                }
+            }
+        }
+    }
+
+    private static long get(long[] values, int index) {
+        return index < values.length ? values[index] : 0;
+    }
+
+    private void ensureCapacity(int index) {
+        if (index < increments.length) {
+            return;
+        }
+        int capacity = Math.max(index + 1, increments.length * 2);
+        increments = Arrays.copyOf(increments, capacity);
+        decrements = Arrays.copyOf(decrements, capacity);
+        long[][] grown = new long[capacity][];
+        for (int i = 0; i < capacity; i++) {
+            grown[i] = i < transfers.length ? Arrays.copyOf(transfers[i], capacity) : new long[capacity];
+        }
+        transfers = grown;
+    }
+
+    /**
+     * Write the branches with a non-zero component as branch ID, increments,
+     * decrements and the non-zero transfers to other branches
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        int count = 0;
+        for (int i = 0; i < increments.length; i++) {
+            if (isUsed(i)) {
+                count++;
+            }
+        }
+        WireFormat.writeVarInt(out, count);
+        for (int i = 0; i < increments.length; i++) {
+            if (!isUsed(i)) {
+                continue;
+            }
+            WireFormat.writeString(out, VectorClock.branchAt(i));
+            WireFormat.writeVarLong(out, increments[i]);
+            WireFormat.writeVarLong(out, decrements[i]);
+            int targets = 0;
+            for (long amount : transfers[i]) {
+                if (amount != 0) {
+                    targets++;
+                }
+            }
+            WireFormat.writeVarInt(out, targets);
+            for (int j = 0; j < transfers[i].length; j++) {
+                if (transfers[i][j] != 0) {
+                    WireFormat.writeString(out, VectorClock.branchAt(j));
+                    WireFormat.writeVarLong(out, transfers[i][j]);
+                }
+            }
+        }
+    }
+
+    private boolean isUsed(int branch) {
+        if (increments[branch] != 0 || decrements[branch] != 0) {
+            return true;
+        }
+        for (long amount : transfers[branch]) {
+            if (amount != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static BoundedCounter readFrom(DataInput in) throws IOException {
+        BoundedCounter counter = new BoundedCounter();
+        int count = WireFormat.readLength(in);
+        for (int i = 0; i < count; i++) {
+            int branch = VectorClock.indexOf(WireFormat.readString(in));
+            counter.ensureCapacity(branch);
+            counter.increments[branch] = WireFormat.readVarLong(in);
+            counter.decrements[branch] = WireFormat.readVarLong(in);
+            int targets = WireFormat.readLength(in);
+            for (int j = 0; j < targets; j++) {
+                int target = VectorClock.indexOf(WireFormat.readString(in));
+                counter.ensureCapacity(target);
+                counter.transfers[branch][target] = WireFormat.readVarLong(in);
+            }
+        }
+        return counter;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+        writeTo(out);
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws IOException {
+        BoundedCounter counter = readFrom(in);
+        increments = counter.increments;
+        decrements = counter.decrements;
+        transfers = counter.transfers;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BoundedCounter{value=" + value() + "}";
+    }
+}
@@ -0,0 +1,74 @@
+package distributed;
+
+import communication.Message;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutual exclusion across branches, one critical section per named resource
+ * (e.g. a product ID). Implementations exchange MUTEX_* messages through the
+ * NetworkManager and are fed the ones they receive through
+ * {@link #handleMessage(Message)}.
+ */
+public interface DistributedMutex {
+    String DEFAULT_RESOURCE = "CRITICAL_SECTION";
+
+    /**
+     * Request access to one resource's critical section, blocking until it
+     * is granted. Returns true at once if this node already holds it through
+     * this method.
+     *
+     * @param resourceId     Resource to lock, e.g. a product ID
+     * @param timeoutSeconds Maximum time to wait for access
+     * @return true if access granted, false if timeout
+     */
+    boolean requestCriticalSection(String resourceId, int timeoutSeconds);
+
+    /**
+     * Release one resource's critical section acquired with
+     * {@link #requestCriticalSection(String, int)}
+     */
+    void releaseCriticalSection(String resourceId);
+
+    /**
+     * Acquire one resource's critical section without blocking. Cancelling
+     * the future before it completes withdraws the request.
+     *
+     * @return a future of the handle that releases the critical section
+     */
+    CompletableFuture<LockHandle> acquireAsync(String resourceId);
+
+    /**
+     * Acquire one resource's critical section without blocking, withdrawing
+     * the request if it is not granted in time
+     *
+     * @return a future of the handle, failed with a TimeoutException on timeout
+     */
+    default CompletableFuture<LockHandle> acquireAsync(String resourceId, long timeout, TimeUnit unit) {
+        return acquireAsync(resourceId).orTimeout(timeout, unit);
+    }
+
+    /**
+     * Handle an incoming mutex message
+     */
+    void handleMessage(Message message);
+
+    /**
+     * Note a BRANCH_HEARTBEAT from a node, for implementations that watch
+     * for failed nodes
+     */
+    default void handleHeartbeat(String senderId) {
+    }
+
+    boolean isInCriticalSection(String resourceId);
+
+    /**
+     * Number of mutex messages sent to other nodes
+     */
+    long getMessagesSent();
+
+    String getStatistics();
+
+    void shutdown();
+}
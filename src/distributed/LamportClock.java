@@ -3,40 +3,65 @@ package distributed;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Implementation of Lamport logical clock for distributed event ordering
+ * Implementation of Lamport logical clock for distributed event ordering.
+ * In hybrid mode (a hybrid logical clock) a timestamp holds the wall time in
+ * milliseconds in its upper bits and a logical counter in the lower
+ * LOGICAL_BITS, so timestamps keep the Lamport ordering while staying close
+ * to real time.
  */
 public class LamportClock {
+    public static final int LOGICAL_BITS = 16;
+
+    /**
+     * How timestamps are formed
+     */
+    public enum Mode {
+        LAMPORT,
+        HYBRID
+    }
+
     private final AtomicLong clock;
+    private final Mode mode;
 
     public LamportClock() {
+        this(Mode.LAMPORT);
+    }
+
+    public LamportClock(Mode mode) {
         this.clock = new AtomicLong(0);
+        this.mode = mode;
     }
 
     /**
      * Increment clock for local events
-     * 
+     *
      * @return new timestamp
      */
     public long tick() {
-        return clock.incrementAndGet();
+        if (mode == Mode.LAMPORT) {
+            return clock.incrementAndGet();
+        }
+        return clock.accumulateAndGet(physicalNow(), (current, physical) -> Math.max(current + 1, physical));
     }
 
     /**
      * Update clock when receiving a message
-     * 
+     *
      * @param receivedTimestamp timestamp from received message
      * @return updated local timestamp
      */
     public long update(long receivedTimestamp) {
-        long currentTime = clock.get();
-        long newTime = Math.max(currentTime, receivedTimestamp) + 1;
-        clock.set(newTime);
-        return newTime;
+        if (mode == Mode.LAMPORT) {
+            return clock.accumulateAndGet(receivedTimestamp, (current, received) -> Math.max(current, received) + 1);
+        }
+        long physical = physicalNow();
+        return clock.accumulateAndGet(receivedTimestamp,
+                (current, received) -> Math.max(Math.max(current, received) + 1, physical));
     }
 
     /**
      * Get current timestamp without incrementing
-     * 
+     *
      * @return current timestamp
      */
     public long getTime() {
@@ -45,15 +70,47 @@ public class LamportClock {
 
     /**
      * Set clock to specific value (mainly for testing)
-     * 
+     *
      * @param time new timestamp value
      */
     public void setTime(long time) {
         clock.set(time);
     }
 
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isHybrid() {
+        return mode == Mode.HYBRID;
+    }
+
+    /**
+     * Get the wall time, in milliseconds, of a hybrid timestamp
+     */
+    public static long toWallTime(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    /**
+     * Get the smallest hybrid timestamp at a wall time in milliseconds, for
+     * range queries by real time
+     */
+    public static long fromWallTime(long millis) {
+        return millis << LOGICAL_BITS;
+    }
+
+    private static long physicalNow() {
+        return fromWallTime(System.currentTimeMillis());
+    }
+
     @Override
     public String toString() {
+        if (mode == Mode.HYBRID) {
+            long time = clock.get();
+            return "LamportClock{hybrid, wallTime=" + toWallTime(time) +
+                    ", logical=" + (time & ((1L << LOGICAL_BITS) - 1)) + "}";
+        }
         return "LamportClock{time=" + clock.get() + "}";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,19 @@
+package distributed;
+
+/**
+ * Holds a resource's critical section until released
+ */
+public interface LockHandle extends AutoCloseable {
+
+    String getResourceId();
+
+    /**
+     * Leave the critical section; later calls do nothing
+     */
+    void release();
+
+    @Override
+    default void close() {
+        release();
+    }
+}
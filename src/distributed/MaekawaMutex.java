@@ -0,0 +1,603 @@
+package distributed;
+
+import communication.Message;
+import communication.MessageType;
+import communication.NetworkManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maekawa's quorum-based distributed mutual exclusion. The nodes, sorted by
+ * ID, are laid out row by row in a grid of ceil(sqrt(N)) columns; a node's
+ * quorum is its row and its column, so any two quorums share a node and a
+ * critical section entry costs about 3*sqrt(N) messages (REQUEST, LOCKED,
+ * RELEASE to each quorum member) instead of the 2(N-1) of Ricart-Agrawala.
+ *
+ * Each node votes for one request per resource at a time. Deadlocks between
+ * requests holding parts of each other's quorums are broken with INQUIRE and
+ * YIELD: a voter that locked for a request and then sees an older one asks
+ * the holder whether it can give the vote back, and the holder does so once
+ * it knows (from a FAILED) that it will not get all its votes first.
+ *
+ * Messages carry the timestamp of the request they are about, so answers to
+ * a withdrawn request are recognised and dropped. Messages to itself go
+ * through a local delivery thread as if they came over the network.
+ */
+public class MaekawaMutex implements DistributedMutex {
+    private final String nodeId;
+    private final NetworkManager networkManager;
+    private final LamportClock lamportClock;
+    private final List<String> quorum;
+    private final ExecutorService localDelivery;
+
+    // Critical section state per resource
+    private final Map<String, ResourceLock> locks = new ConcurrentHashMap<>();
+    private final BlockingLocks blockingLocks;
+
+    // Statistics
+    private final AtomicInteger requestCount = new AtomicInteger(0);
+    private final AtomicInteger grantCount = new AtomicInteger(0);
+    private final AtomicInteger inquiriesSent = new AtomicInteger(0);
+    private final AtomicInteger yieldsSent = new AtomicInteger(0);
+    private final AtomicInteger failedSent = new AtomicInteger(0);
+    private final AtomicInteger cancelledRequests = new AtomicInteger(0);
+    private final AtomicLong messagesSent = new AtomicLong(0);
+
+    /**
+     * @param nodeId         Unique identifier for this node
+     * @param networkManager Network communication manager
+     * @param lamportClock   Logical clock for timestamp ordering
+     * @param allNodes       Set of all participating nodes; every node must
+     *                       be given the same set to get intersecting quorums
+     */
+    public MaekawaMutex(String nodeId, NetworkManager networkManager,
+            LamportClock lamportClock, Set<String> allNodes) {
+        this.nodeId = nodeId;
+        this.networkManager = networkManager;
+        this.lamportClock = lamportClock;
+        this.quorum = gridQuorum(nodeId, allNodes);
+        this.blockingLocks = new BlockingLocks(nodeId);
+        this.localDelivery = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maekawa-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        System.out.println("[" + nodeId + "] MaekawaMutex initialized with quorum: " + quorum);
+    }
+
+    /**
+     * Get a node's grid quorum: the nodes in its row and column when the
+     * sorted nodes fill a grid of ceil(sqrt(N)) columns row by row. The last
+     * row may be short; two nodes A and B still share the node at (row A,
+     * column B) or at (row B, column A), since a node in the short row has a
+     * column every row reaches.
+     */
+    public static List<String> gridQuorum(String nodeId, Collection<String> allNodes) {
+        List<String> nodes = new ArrayList<>(new TreeSet<>(allNodes));
+        if (!nodes.contains(nodeId)) {
+            nodes.add(nodeId);
+            Collections.sort(nodes);
+        }
+        int columns = (int) Math.ceil(Math.sqrt(nodes.size()));
+        int position = nodes.indexOf(nodeId);
+        int row = position / columns;
+        int column = position % columns;
+
+        List<String> members = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i / columns == row || i % columns == column) {
+                members.add(nodes.get(i));
+            }
+        }
+        return Collections.unmodifiableList(members);
+    }
+
+    public List<String> getQuorum() {
+        return quorum;
+    }
+
+    @Override
+    public boolean requestCriticalSection(String resourceId, int timeoutSeconds) {
+        return blockingLocks.request(this, resourceId, timeoutSeconds);
+    }
+
+    @Override
+    public void releaseCriticalSection(String resourceId) {
+        blockingLocks.release(resourceId);
+    }
+
+    /**
+     * Acquire one resource's critical section without blocking. Local
+     * requesters for a resource are served one distributed request at a
+     * time, in arrival order. The future may complete on the network
+     * thread, so dependent work that blocks should use the async variants.
+     */
+    @Override
+    public CompletableFuture<LockHandle> acquireAsync(String resourceId) {
+        return lockFor(resourceId).acquire();
+    }
+
+    /**
+     * Handle incoming Maekawa messages
+     */
+    @Override
+    public void handleMessage(Message message) {
+        lamportClock.update(message.getTimestamp());
+
+        String resourceId = message.getResourceId() != null ? message.getResourceId() : DEFAULT_RESOURCE;
+        Long requestTimestamp = message.getData("timestamp", Long.class);
+        if (requestTimestamp == null) {
+            return;
+        }
+        ResourceLock lock = lockFor(resourceId);
+        String senderId = message.getSenderId();
+        switch (message.getType()) {
+            case MUTEX_REQUEST:
+                lock.handleRequest(senderId, requestTimestamp);
+                break;
+            case MUTEX_REPLY:
+                lock.handleLocked(senderId, requestTimestamp);
+                break;
+            case MUTEX_FAILED:
+                lock.handleFailed(requestTimestamp);
+                break;
+            case MUTEX_INQUIRE:
+                lock.handleInquire(senderId, requestTimestamp);
+                break;
+            case MUTEX_YIELD:
+                lock.handleYield(senderId, requestTimestamp);
+                break;
+            case MUTEX_RELEASE:
+                lock.handleRelease(senderId, requestTimestamp);
+                break;
+            default:
+                // Not a mutex message, ignore
+                break;
+        }
+    }
+
+    private ResourceLock lockFor(String resourceId) {
+        return locks.computeIfAbsent(resourceId, ResourceLock::new);
+    }
+
+    @Override
+    public boolean isInCriticalSection(String resourceId) {
+        ResourceLock lock = locks.get(resourceId);
+        return lock != null && lock.inCriticalSection;
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * Get mutex statistics
+     */
+    @Override
+    public String getStatistics() {
+        int inCS = 0;
+        int requesting = 0;
+        int queued = 0;
+        for (ResourceLock lock : locks.values()) {
+            inCS += lock.inCriticalSection ? 1 : 0;
+            requesting += lock.current != null ? 1 : 0;
+            queued += lock.votes.size();
+        }
+        return String.format("[%s] Mutex Stats - Algorithm: Maekawa, Quorum: %d, Requests: %d, Grants: %d, " +
+                "Resources: %d, InCS: %d, Requesting: %d, Queued votes: %d, Inquiries: %d, Yields: %d, " +
+                "Failed: %d, Cancelled: %d, Messages sent: %d",
+                nodeId, quorum.size(), requestCount.get(), grantCount.get(), locks.size(), inCS, requesting,
+                queued, inquiriesSent.get(), yieldsSent.get(), failedSent.get(), cancelledRequests.get(),
+                messagesSent.get());
+    }
+
+    /**
+     * Cleanup resources
+     */
+    @Override
+    public void shutdown() {
+        blockingLocks.clear();
+        for (ResourceLock lock : locks.values()) {
+            lock.shutdown();
+        }
+        localDelivery.shutdownNow();
+        System.out.println("[" + nodeId + "] MaekawaMutex shutdown completed");
+    }
+
+    /**
+     * A request a voter has seen, ordered by timestamp then node ID
+     */
+    private static final class Vote implements Comparable<Vote> {
+        final String nodeId;
+        final long timestamp;
+        boolean failed;
+
+        Vote(String nodeId, long timestamp) {
+            this.nodeId = nodeId;
+            this.timestamp = timestamp;
+        }
+
+        boolean isFor(String node, long requestTimestamp) {
+            return nodeId.equals(node) && timestamp == requestTimestamp;
+        }
+
+        @Override
+        public int compareTo(Vote other) {
+            int order = Long.compare(timestamp, other.timestamp);
+            return order != 0 ? order : nodeId.compareTo(other.nodeId);
+        }
+    }
+
+    private static final class Handle implements LockHandle {
+        private final ResourceLock lock;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Handle(ResourceLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public String getResourceId() {
+            return lock.resourceId;
+        }
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Maekawa state for one resource: this node as a requester and as a
+     * voter for the quorums it belongs to
+     */
+    private class ResourceLock {
+        private final String resourceId;
+
+        // Requester: the request in flight and the votes it holds
+        private volatile CompletableFuture<LockHandle> current;
+        private long requestTimestamp;
+        private final Set<String> locked = new HashSet<>();
+        private final Set<String> inquiries = new HashSet<>();
+        private boolean failed;
+        private boolean yielded;
+        private volatile boolean inCriticalSection;
+        private final Deque<CompletableFuture<LockHandle>> waiters = new ArrayDeque<>();
+
+        // Voter: the request we voted for and the ones waiting for our vote
+        private Vote vote;
+        private boolean inquired;
+        private final PriorityQueue<Vote> votes = new PriorityQueue<>();
+
+        // Thread safety
+        private final ReentrantLock stateLock = new ReentrantLock();
+        private boolean closed;
+
+        ResourceLock(String resourceId) {
+            this.resourceId = resourceId;
+        }
+
+        CompletableFuture<LockHandle> acquire() {
+            CompletableFuture<LockHandle> waiter = new CompletableFuture<>();
+            stateLock.lock();
+            try {
+                if (closed) {
+                    waiter.completeExceptionally(new IllegalStateException("Mutex shut down"));
+                    return waiter;
+                }
+                requestCount.incrementAndGet();
+                waiters.add(waiter);
+                if (current == null) {
+                    startRequest();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+            // Cancelled or timed out before being granted
+            waiter.whenComplete((handle, error) -> {
+                if (error != null) {
+                    withdraw(waiter);
+                }
+            });
+            return waiter;
+        }
+
+        /**
+         * Ask the quorum for its votes on behalf of the next local waiter
+         * (called with the state lock held)
+         */
+        private void startRequest() {
+            current = waiters.poll();
+            if (current == null || closed) {
+                current = null;
+                return;
+            }
+            requestTimestamp = lamportClock.tick();
+            locked.clear();
+            inquiries.clear();
+            failed = false;
+            yielded = false;
+
+            System.out.println("[" + nodeId + "] Requesting critical section for " + resourceId +
+                    " with timestamp: " + requestTimestamp + ", asking quorum of " + quorum.size());
+            for (String member : quorum) {
+                send(member, MessageType.MUTEX_REQUEST, requestTimestamp);
+            }
+        }
+
+        /**
+         * Drop a waiter that gave up; a request in flight for it is
+         * withdrawn by releasing the quorum
+         */
+        private void withdraw(CompletableFuture<LockHandle> waiter) {
+            stateLock.lock();
+            try {
+                if (waiters.remove(waiter)) {
+                    cancelledRequests.incrementAndGet();
+                } else if (waiter == current && !inCriticalSection) {
+                    cancelledRequests.incrementAndGet();
+                    System.out.println("[" + nodeId + "] Withdrew request for " + resourceId);
+                    releaseQuorum();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void release() {
+            stateLock.lock();
+            try {
+                if (!inCriticalSection) {
+                    System.out.println("[" + nodeId + "] Not in critical section for " + resourceId +
+                            ", cannot release");
+                    return;
+                }
+                inCriticalSection = false;
+                System.out.println("[" + nodeId + "] Released critical section for " + resourceId);
+                releaseQuorum();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        /**
+         * Give back every vote of the current request and start the next
+         * local waiter's (called with the state lock held)
+         */
+        private void releaseQuorum() {
+            for (String member : quorum) {
+                send(member, MessageType.MUTEX_RELEASE, requestTimestamp);
+            }
+            current = null;
+            startRequest();
+        }
+
+        void handleLocked(String senderId, long timestamp) {
+            CompletableFuture<LockHandle> granted = null;
+            stateLock.lock();
+            try {
+                // A vote for a withdrawn request is returned by its RELEASE
+                if (current == null || timestamp != requestTimestamp || !quorum.contains(senderId)) {
+                    return;
+                }
+                locked.add(senderId);
+                if (locked.size() == quorum.size() && !inCriticalSection) {
+                    inCriticalSection = true;
+                    inquiries.clear();
+                    grantCount.incrementAndGet();
+                    System.out.println("[" + nodeId + "] Entered critical section for " + resourceId +
+                            " at timestamp: " + requestTimestamp);
+                    granted = current;
+                }
+            } finally {
+                stateLock.unlock();
+            }
+            if (granted != null) {
+                LockHandle handle = new Handle(this);
+                if (!granted.complete(handle)) {
+                    // Gave up meanwhile
+                    handle.release();
+                }
+            }
+        }
+
+        void handleFailed(long timestamp) {
+            stateLock.lock();
+            try {
+                if (current == null || timestamp != requestTimestamp || inCriticalSection) {
+                    return;
+                }
+                failed = true;
+                // We will not get every vote first, so give back the ones asked for
+                for (String inquirer : inquiries) {
+                    yieldTo(inquirer);
+                }
+                inquiries.clear();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void handleInquire(String senderId, long timestamp) {
+            stateLock.lock();
+            try {
+                // In the critical section the RELEASE answers the inquiry
+                if (current == null || timestamp != requestTimestamp || inCriticalSection ||
+                        !locked.contains(senderId)) {
+                    return;
+                }
+                if (failed || yielded) {
+                    yieldTo(senderId);
+                } else {
+                    inquiries.add(senderId);
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        /**
+         * Give a vote back to its voter (called with the state lock held)
+         */
+        private void yieldTo(String voter) {
+            if (locked.remove(voter)) {
+                yielded = true;
+                yieldsSent.incrementAndGet();
+                send(voter, MessageType.MUTEX_YIELD, requestTimestamp);
+            }
+        }
+
+        void handleRequest(String senderId, long timestamp) {
+            stateLock.lock();
+            try {
+                Vote request = new Vote(senderId, timestamp);
+                if (vote == null) {
+                    lockFor(request);
+                    return;
+                }
+                Vote head = votes.peek();
+                votes.add(request);
+                if (request.compareTo(vote) < 0 && (head == null || request.compareTo(head) < 0)) {
+                    // Older than every request seen: ask the holder for our vote back
+                    if (head != null && !head.failed) {
+                        fail(head);
+                    }
+                    if (!inquired) {
+                        inquired = true;
+                        inquiriesSent.incrementAndGet();
+                        send(vote.nodeId, MessageType.MUTEX_INQUIRE, vote.timestamp);
+                    }
+                } else {
+                    fail(request);
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void handleYield(String senderId, long timestamp) {
+            stateLock.lock();
+            try {
+                if (vote == null || !vote.isFor(senderId, timestamp)) {
+                    return;
+                }
+                // The holder knows it has to wait
+                vote.failed = true;
+                votes.add(vote);
+                vote = null;
+                lockNext();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void handleRelease(String senderId, long timestamp) {
+            stateLock.lock();
+            try {
+                if (vote != null && vote.isFor(senderId, timestamp)) {
+                    vote = null;
+                    lockNext();
+                } else {
+                    // Withdrawn before our vote reached it
+                    votes.removeIf(queued -> queued.isFor(senderId, timestamp));
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        /**
+         * Vote for the oldest waiting request and tell the others they have
+         * to wait, so they yield when asked (called with the state lock held)
+         */
+        private void lockNext() {
+            inquired = false;
+            Vote next = votes.poll();
+            if (next == null) {
+                return;
+            }
+            lockFor(next);
+            for (Vote queued : votes) {
+                if (!queued.failed) {
+                    fail(queued);
+                }
+            }
+        }
+
+        private void lockFor(Vote request) {
+            vote = request;
+            send(request.nodeId, MessageType.MUTEX_REPLY, request.timestamp);
+        }
+
+        private void fail(Vote request) {
+            request.failed = true;
+            failedSent.incrementAndGet();
+            send(request.nodeId, MessageType.MUTEX_FAILED, request.timestamp);
+        }
+
+        /**
+         * Send a message about a request, identified by its timestamp
+         * (called with the state lock held)
+         */
+        private void send(String targetNode, MessageType type, long timestamp) {
+            Message message = new Message(type, nodeId, targetNode, resourceId, lamportClock.tick());
+            message.putData("timestamp", timestamp);
+            try {
+                if (targetNode.equals(nodeId)) {
+                    localDelivery.execute(() -> handleMessage(message));
+                } else {
+                    networkManager.sendMessage(targetNode, message);
+                    messagesSent.incrementAndGet();
+                }
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            } catch (Exception e) {
+                System.err.println("[" + nodeId + "] Failed to send " + type + " to " + targetNode + ": " +
+                        e.getMessage());
+            }
+        }
+
+        void shutdown() {
+            List<CompletableFuture<LockHandle>> abandoned;
+            stateLock.lock();
+            try {
+                closed = true;
+                inCriticalSection = false;
+                abandoned = new ArrayList<>(waiters);
+                if (current != null) {
+                    abandoned.add(current);
+                }
+                waiters.clear();
+                current = null;
+            } finally {
+                stateLock.unlock();
+            }
+            for (CompletableFuture<LockHandle> waiter : abandoned) {
+                waiter.completeExceptionally(new IllegalStateException("Mutex shut down"));
+            }
+        }
+    }
+}
@@ -3,48 +3,63 @@ package distributed;
 import communication.Message;
 import communication.MessageType;
 import communication.NetworkManager;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the Ricart-Agrawala distributed mutual exclusion algorithm.
  * This algorithm ensures that only one process can enter the critical section
  * at a time
  * across all distributed nodes using logical timestamps and message passing.
+ *
+ * Each named resource (e.g. a product ID) has its own critical section; the
+ * resource travels as the message's resourceId, so locks on different
+ * resources share the NetworkManager but never wait for each other. The
+ * methods without a resource use {@link #DEFAULT_RESOURCE}.
+ *
+ * With the Roucairol-Carvalho optimisation a node keeps the permission a peer
+ * granted until that peer asks for it back, so a request only goes to the
+ * peers whose permission it lacks and a node re-entering a critical section
+ * nobody else wants sends no messages at all.
+ *
+ * {@link #acquireAsync(String)} returns a future of a {@link LockHandle} instead
+ * of blocking. Local requesters for a resource share one distributed request:
+ * the ones waiting when it is granted take turns before the deferred requests
+ * of other nodes are answered.
  */
-public class RicartAgrawalaMutex {
+public class RicartAgrawalaMutex implements DistributedMutex {
     private final String nodeId;
     private final NetworkManager networkManager;
     private final LamportClock lamportClock;
     private final Set<String> allNodes;
 
-    // State management
-    private final AtomicBoolean requestingCS = new AtomicBoolean(false);
-    private final AtomicBoolean inCriticalSection = new AtomicBoolean(false);
-    private volatile long requestTimestamp = 0;
-
-    // Reply tracking
-    private final Map<String, Boolean> repliesReceived = new ConcurrentHashMap<>();
-    private final Set<String> deferredReplies = ConcurrentHashMap.newKeySet();
-    private CountDownLatch replyLatch;
-
-    // Thread safety
-    private final ReentrantLock stateLock = new ReentrantLock();
+    // Critical section state per resource
+    private final Map<String, ResourceLock> locks = new ConcurrentHashMap<>();
+    private final BlockingLocks blockingLocks;
 
     // Statistics
     private final AtomicInteger requestCount = new AtomicInteger(0);
     private final AtomicInteger grantCount = new AtomicInteger(0);
+    private final AtomicInteger cachedEntries = new AtomicInteger(0);
+    private final AtomicLong messagesSaved = new AtomicLong(0);
+    private final AtomicInteger sharedRequests = new AtomicInteger(0);
+    private final AtomicInteger cancelledRequests = new AtomicInteger(0);
+    private final AtomicLong messagesSent = new AtomicLong(0);
 
     /**
      * Constructor for RicartAgrawalaMutex
-     * 
+     *
      * @param nodeId         Unique identifier for this node
      * @param networkManager Network communication manager
      * @param lamportClock   Logical clock for timestamp ordering
@@ -57,118 +72,71 @@ public class RicartAgrawalaMutex {
         this.lamportClock = lamportClock;
         this.allNodes = new HashSet<>(allNodes);
         this.allNodes.remove(nodeId); // Remove self from the set
-
-        // Initialize replies map
-        for (String node : this.allNodes) {
-            repliesReceived.put(node, false);
-        }
+        this.blockingLocks = new BlockingLocks(nodeId);
 
         System.out.println("[" + nodeId + "] RicartAgrawalaMutex initialized with nodes: " + this.allNodes);
     }
 
     /**
      * Request access to the critical section
-     * 
+     *
      * @param timeoutSeconds Maximum time to wait for access
      * @return true if access granted, false if timeout
      */
     public boolean requestCriticalSection(int timeoutSeconds) {
-        stateLock.lock();
-        try {
-            if (inCriticalSection.get()) {
-                System.out.println("[" + nodeId + "] Already in critical section");
-                return true;
-            }
-
-            if (requestingCS.get()) {
-                System.out.println("[" + nodeId + "] Already requesting critical section");
-                return false;
-            }
-
-            requestingCS.set(true);
-            requestTimestamp = lamportClock.tick();
-            requestCount.incrementAndGet();
-
-            System.out.println("[" + nodeId + "] Requesting critical section with timestamp: " + requestTimestamp);
-
-            // Reset reply tracking
-            replyLatch = new CountDownLatch(allNodes.size());
-            for (String node : allNodes) {
-                repliesReceived.put(node, false);
-            }
+        return requestCriticalSection(DEFAULT_RESOURCE, timeoutSeconds);
+    }
 
-        } finally {
-            stateLock.unlock();
-        }
+    @Override
+    public boolean requestCriticalSection(String resourceId, int timeoutSeconds) {
+        return blockingLocks.request(this, resourceId, timeoutSeconds);
+    }
 
-        // Send REQUEST messages to all other nodes
-        broadcastRequest();
-
-        // Wait for all replies
-        try {
-            boolean allRepliesReceived = replyLatch.await(timeoutSeconds, TimeUnit.SECONDS);
-
-            if (allRepliesReceived) {
-                stateLock.lock();
-                try {
-                    inCriticalSection.set(true);
-                    grantCount.incrementAndGet();
-                    System.out.println("[" + nodeId + "] Entered critical section at timestamp: " + requestTimestamp);
-                    return true;
-                } finally {
-                    stateLock.unlock();
-                }
-            } else {
-                System.out.println("[" + nodeId + "] Timeout waiting for critical section access");
-                requestingCS.set(false);
-                return false;
-            }
-        } catch (InterruptedException e) {
-            System.out.println("[" + nodeId + "] Interrupted while waiting for critical section");
-            requestingCS.set(false);
-            Thread.currentThread().interrupt();
-            return false;
-        }
+    /**
+     * Acquire one resource's critical section without blocking. Local
+     * requesters for the same resource share one distributed request and are
+     * granted in turn. Cancelling the future before it completes withdraws
+     * the request. The future may complete on the network thread, so
+     * dependent work that blocks should use the async variants.
+     *
+     * @return a future of the handle that releases the critical section
+     */
+    @Override
+    public CompletableFuture<LockHandle> acquireAsync(String resourceId) {
+        return lockFor(resourceId).acquire();
     }
 
     /**
      * Release the critical section
      */
     public void releaseCriticalSection() {
-        stateLock.lock();
-        try {
-            if (!inCriticalSection.get()) {
-                System.out.println("[" + nodeId + "] Not in critical section, cannot release");
-                return;
-            }
-
-            inCriticalSection.set(false);
-            requestingCS.set(false);
-
-            System.out.println("[" + nodeId + "] Released critical section");
-
-            // Send deferred replies
-            sendDeferredReplies();
+        releaseCriticalSection(DEFAULT_RESOURCE);
+    }
 
-        } finally {
-            stateLock.unlock();
-        }
+    @Override
+    public void releaseCriticalSection(String resourceId) {
+        blockingLocks.release(resourceId);
     }
 
     /**
      * Handle incoming Ricart-Agrawala messages
-     * 
+     *
      * @param message The received message
      */
+    @Override
     public void handleMessage(Message message) {
         lamportClock.update(message.getTimestamp());
 
+        String resourceId = message.getResourceId() != null ? message.getResourceId() : DEFAULT_RESOURCE;
         switch (message.getType()) {
             case MUTEX_REQUEST:
-                handleRequest(message);
+                lockFor(resourceId).handleRequest(message);
                 break;
             case MUTEX_REPLY:
-                handleReply(message);
+                ResourceLock lock = locks.get(resourceId);
+                if (lock != null) {
+                    lock.handleReply(message);
+                }
                 break;
             default:
                 // Not a mutex message, ignore
@@ -176,189 +144,470 @@ public class RicartAgrawalaMutex {
         }
     }
 
+    private ResourceLock lockFor(String resourceId) {
+        return locks.computeIfAbsent(resourceId, ResourceLock::new);
+    }
+
     /**
-     * Handle REQUEST message from another node
+     * Check if currently in critical section
      */
-    private void handleRequest(Message message) {
-        String senderId = message.getSenderId();
-        long senderTimestamp = message.getTimestamp();
-
-        System.out
-                .println("[" + nodeId + "] Received REQUEST from " + senderId + " with timestamp: " + senderTimestamp);
+    public boolean isInCriticalSection() {
+        return isInCriticalSection(DEFAULT_RESOURCE);
+    }
 
-        boolean shouldReplyImmediately = true;
+    @Override
+    public boolean isInCriticalSection(String resourceId) {
+        ResourceLock lock = locks.get(resourceId);
+        return lock != null && lock.inCriticalSection.get();
+    }
 
-        stateLock.lock();
-        try {
-            // Reply immediately if:
-            // 1. Not requesting critical section, OR
-            // 2. Requesting but sender has earlier timestamp, OR
-            // 3. Same timestamp but sender has lexicographically smaller nodeId
-            if (requestingCS.get()) {
-                if (senderTimestamp < requestTimestamp ||
-                        (senderTimestamp == requestTimestamp && senderId.compareTo(nodeId) < 0)) {
-                    // Sender has priority, reply immediately
-                    shouldReplyImmediately = true;
-                } else {
-                    // We have priority, defer reply
-                    shouldReplyImmediately = false;
-                    deferredReplies.add(senderId);
-                    System.out.println("[" + nodeId + "] Deferring reply to " + senderId);
-                }
-            }
-        } finally {
-            stateLock.unlock();
-        }
+    /**
+     * Check if currently requesting critical section
+     */
+    public boolean isRequestingCriticalSection() {
+        return isRequestingCriticalSection(DEFAULT_RESOURCE);
+    }
 
-        if (shouldReplyImmediately) {
-            sendReply(senderId);
-        }
+    public boolean isRequestingCriticalSection(String resourceId) {
+        ResourceLock lock = locks.get(resourceId);
+        return lock != null && lock.isRequesting();
     }
 
     /**
-     * Handle REPLY message from another node
+     * Get current request timestamp
      */
-    private void handleReply(Message message) {
-        String senderId = message.getSenderId();
-
-        System.out.println("[" + nodeId + "] Received REPLY from " + senderId);
-
-        stateLock.lock();
-        try {
-            if (requestingCS.get() && repliesReceived.containsKey(senderId)) {
-                if (!repliesReceived.get(senderId)) {
-                    repliesReceived.put(senderId, true);
-                    if (replyLatch != null) {
-                        replyLatch.countDown();
-                    }
-                    System.out.println("[" + nodeId + "] Reply count: " +
-                            (allNodes.size() - replyLatch.getCount()) + "/" + allNodes.size());
-                }
-            }
-        } finally {
-            stateLock.unlock();
-        }
+    public long getRequestTimestamp() {
+        return getRequestTimestamp(DEFAULT_RESOURCE);
+    }
+
+    public long getRequestTimestamp(String resourceId) {
+        ResourceLock lock = locks.get(resourceId);
+        return lock != null ? lock.requestTimestamp : 0;
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
     }
 
     /**
-     * Broadcast REQUEST message to all other nodes
+     * Get mutex statistics
      */
-    private void broadcastRequest() {
-        Message requestMessage = new Message(
-                MessageType.MUTEX_REQUEST,
-                nodeId,
-                "",
-                "CRITICAL_SECTION_REQUEST",
-                lamportClock.getTime());
-
-        for (String node : allNodes) {
-            try {
-                networkManager.sendMessage(node, requestMessage);
-                System.out.println("[" + nodeId + "] Sent REQUEST to " + node);
-            } catch (Exception e) {
-                System.err.println("[" + nodeId + "] Failed to send REQUEST to " + node + ": " + e.getMessage());
-                // Mark as received to avoid deadlock
-                stateLock.lock();
-                try {
-                    repliesReceived.put(node, true);
-                    if (replyLatch != null) {
-                        replyLatch.countDown();
-                    }
-                } finally {
-                    stateLock.unlock();
-                }
-            }
+    @Override
+    public String getStatistics() {
+        int inCS = 0;
+        int requesting = 0;
+        int deferred = 0;
+        for (ResourceLock lock : locks.values()) {
+            inCS += lock.inCriticalSection.get() ? 1 : 0;
+            requesting += lock.isRequesting() ? 1 : 0;
+            deferred += lock.deferredReplies.size();
         }
+        return String.format("[%s] Mutex Stats - Requests: %d, Grants: %d, Resources: %d, InCS: %d, " +
+                "Requesting: %d, Deferred: %d, Entries without messages: %d, Messages saved: %d, " +
+                "Shared requests: %d, Cancelled: %d, Messages sent: %d",
+                nodeId, requestCount.get(), grantCount.get(), locks.size(), inCS, requesting, deferred,
+                cachedEntries.get(), messagesSaved.get(), sharedRequests.get(), cancelledRequests.get(),
+                messagesSent.get());
     }
 
     /**
-     * Send REPLY message to a specific node
+     * Cleanup resources
      */
-    private void sendReply(String targetNode) {
-        Message replyMessage = new Message(
-                MessageType.MUTEX_REPLY,
-                nodeId,
-                targetNode,
-                "CRITICAL_SECTION_REPLY",
-                lamportClock.tick());
-
-        try {
-            networkManager.sendMessage(targetNode, replyMessage);
-            System.out.println("[" + nodeId + "] Sent REPLY to " + targetNode);
-        } catch (Exception e) {
-            System.err.println("[" + nodeId + "] Failed to send REPLY to " + targetNode + ": " + e.getMessage());
+    @Override
+    public void shutdown() {
+        blockingLocks.clear();
+        for (ResourceLock lock : locks.values()) {
+            lock.shutdown();
         }
+        System.out.println("[" + nodeId + "] RicartAgrawalaMutex shutdown completed");
     }
 
-    /**
-     * Send all deferred replies
-     */
-    private void sendDeferredReplies() {
-        Set<String> toReply = new HashSet<>(deferredReplies);
-        deferredReplies.clear();
+    private static final class Handle implements LockHandle {
+        private final ResourceLock lock;
+        private final AtomicBoolean released = new AtomicBoolean(false);
 
-        for (String node : toReply) {
-            sendReply(node);
+        private Handle(ResourceLock lock) {
+            this.lock = lock;
         }
 
-        if (!toReply.isEmpty()) {
-            System.out.println("[" + nodeId + "] Sent " + toReply.size() + " deferred replies");
+        @Override
+        public String getResourceId() {
+            return lock.resourceId;
         }
-    }
 
-    /**
-     * Check if currently in critical section
-     */
-    public boolean isInCriticalSection() {
-        return inCriticalSection.get();
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                lock.release();
+            }
+        }
     }
 
     /**
-     * Check if currently requesting critical section
+     * Ricart-Agrawala state for one resource
      */
-    public boolean isRequestingCriticalSection() {
-        return requestingCS.get();
-    }
+    private class ResourceLock {
+        private final String resourceId;
+
+        // State management
+        private final AtomicBoolean requestingCS = new AtomicBoolean(false);
+        private final AtomicBoolean inCriticalSection = new AtomicBoolean(false);
+        private volatile long requestTimestamp = 0;
+
+        // Nodes whose permission we hold: they replied and have not asked since
+        private final Set<String> permissions = new HashSet<>();
+        // Nodes asked for their permission that have not replied yet, with the
+        // timestamp the request carried
+        private final Map<String, Long> pendingRequests = new ConcurrentHashMap<>();
+        // Requests answered once we are done, by sender, with their timestamp
+        private final Map<String, Long> deferredReplies = new ConcurrentHashMap<>();
+
+        // Local requesters sharing the distributed request, in arrival order
+        private final Deque<CompletableFuture<LockHandle>> waiters = new ArrayDeque<>();
+        // Local grants left before deferred remote requests get their turn
+        private int batchRemaining;
+
+        // Thread safety
+        private final ReentrantLock stateLock = new ReentrantLock();
+        private boolean closed;
+
+        ResourceLock(String resourceId) {
+            this.resourceId = resourceId;
+        }
 
-    /**
-     * Get current request timestamp
-     */
-    public long getRequestTimestamp() {
-        return requestTimestamp;
-    }
+        /**
+         * Whether a request is open or replies to a withdrawn one are still
+         * on the way
+         */
+        boolean isRequesting() {
+            return requestingCS.get() || !pendingRequests.isEmpty();
+        }
 
-    /**
-     * Get mutex statistics
-     */
-    public String getStatistics() {
-        return String.format("[%s] Mutex Stats - Requests: %d, Grants: %d, InCS: %s, Requesting: %s, Deferred: %d",
-                nodeId, requestCount.get(), grantCount.get(),
-                inCriticalSection.get(), requestingCS.get(), deferredReplies.size());
-    }
+        CompletableFuture<LockHandle> acquire() {
+            CompletableFuture<LockHandle> waiter = new CompletableFuture<>();
+            CompletableFuture<LockHandle> granted;
+            stateLock.lock();
+            try {
+                if (closed) {
+                    waiter.completeExceptionally(new IllegalStateException("Mutex shut down"));
+                    return waiter;
+                }
+                waiters.add(waiter);
+                requestCount.incrementAndGet();
+                if (requestingCS.get()) {
+                    sharedRequests.incrementAndGet();
+                } else {
+                    startRequest();
+                }
+                granted = grantNext();
+            } finally {
+                stateLock.unlock();
+            }
+            complete(granted);
+            // Cancelled or timed out before being granted
+            waiter.whenComplete((handle, error) -> {
+                if (error != null) {
+                    withdraw(waiter);
+                }
+            });
+            return waiter;
+        }
 
-    /**
-     * Cleanup resources
-     */
-    public void shutdown() {
-        stateLock.lock();
-        try {
-            if (inCriticalSection.get()) {
-                releaseCriticalSection();
+        /**
+         * Ask for the permissions we lack (called with the state lock held)
+         */
+        private void startRequest() {
+            requestingCS.set(true);
+            requestTimestamp = lamportClock.tick();
+
+            // Only ask the nodes whose permission we do not hold
+            Set<String> missing = new HashSet<>(allNodes);
+            missing.removeAll(permissions);
+            messagesSaved.addAndGet(2L * (allNodes.size() - missing.size()));
+            if (missing.isEmpty()) {
+                cachedEntries.incrementAndGet();
             }
+            // An earlier request to them is still unanswered; asking again
+            // would bring back a second permission
+            missing.removeAll(pendingRequests.keySet());
 
-            deferredReplies.clear();
-            repliesReceived.clear();
+            System.out.println("[" + nodeId + "] Requesting critical section for " + resourceId +
+                    " with timestamp: " + requestTimestamp + ", asking " + missing.size() + "/" +
+                    allNodes.size() + " nodes");
 
-            if (replyLatch != null) {
-                // Release any waiting threads
-                while (replyLatch.getCount() > 0) {
-                    replyLatch.countDown();
+            for (String node : missing) {
+                sendRequest(node);
+            }
+        }
+
+        /**
+         * Enter the critical section for the next local waiter once every
+         * permission is held (called with the state lock held)
+         *
+         * @return the waiter to complete after unlocking, or null
+         */
+        private CompletableFuture<LockHandle> grantNext() {
+            if (!requestingCS.get() || inCriticalSection.get() || waiters.isEmpty() ||
+                    !permissions.containsAll(allNodes)) {
+                return null;
+            }
+            if (batchRemaining <= 0) {
+                // The waiters queued now share this grant
+                batchRemaining = waiters.size();
+            }
+            batchRemaining--;
+            inCriticalSection.set(true);
+            grantCount.incrementAndGet();
+            System.out.println("[" + nodeId + "] Entered critical section for " + resourceId +
+                    " at timestamp: " + requestTimestamp);
+            return waiters.poll();
+        }
+
+        /**
+         * Hand a grant to its waiter outside the state lock; a waiter that
+         * gave up meanwhile passes the critical section on
+         */
+        private void complete(CompletableFuture<LockHandle> waiter) {
+            if (waiter == null) {
+                return;
+            }
+            LockHandle handle = new Handle(this);
+            if (!waiter.complete(handle)) {
+                handle.release();
+            }
+        }
+
+        /**
+         * Drop a waiter that gave up; the last one withdraws the distributed
+         * request and answers the requests deferred meanwhile. Replies to it
+         * still on the way keep the resource busy until they arrive.
+         */
+        private void withdraw(CompletableFuture<LockHandle> waiter) {
+            stateLock.lock();
+            try {
+                if (!waiters.remove(waiter)) {
+                    return;
                 }
+                cancelledRequests.incrementAndGet();
+                batchRemaining = Math.min(batchRemaining, waiters.size());
+                if (waiters.isEmpty() && requestingCS.get() && !inCriticalSection.get()) {
+                    System.out.println("[" + nodeId + "] Withdrew request for " + resourceId + ", " +
+                            pendingRequests.size() + " replies still on the way");
+                    requestingCS.set(false);
+                    sendDeferredReplies();
+                }
+            } finally {
+                stateLock.unlock();
             }
+        }
+
+        void release() {
+            CompletableFuture<LockHandle> next;
+            stateLock.lock();
+            try {
+                if (!inCriticalSection.get()) {
+                    System.out.println("[" + nodeId + "] Not in critical section for " + resourceId +
+                            ", cannot release");
+                    return;
+                }
+
+                inCriticalSection.set(false);
+                System.out.println("[" + nodeId + "] Released critical section for " + resourceId);
 
-            System.out.println("[" + nodeId + "] RicartAgrawalaMutex shutdown completed");
-        } finally {
-            stateLock.unlock();
+                if (!waiters.isEmpty() && (batchRemaining > 0 || deferredReplies.isEmpty())) {
+                    // Local waiters keep the grant while it is theirs or nobody else waits
+                    next = grantNext();
+                } else {
+                    requestingCS.set(false);
+                    batchRemaining = 0;
+
+                    // Send deferred replies
+                    sendDeferredReplies();
+
+                    // Later local waiters queue behind the nodes just answered
+                    if (!waiters.isEmpty() && !closed) {
+                        startRequest();
+                    }
+                    next = grantNext();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+            complete(next);
+        }
+
+        /**
+         * Handle REQUEST message from another node
+         */
+        void handleRequest(Message message) {
+            String senderId = message.getSenderId();
+            long senderTimestamp = message.getTimestamp();
+
+            System.out.println("[" + nodeId + "] Received REQUEST for " + resourceId + " from " + senderId +
+                    " with timestamp: " + senderTimestamp);
+
+            stateLock.lock();
+            try {
+                answerRequest(senderId, senderTimestamp);
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        /**
+         * Reply to a request now or defer it until we are done (called with
+         * the state lock held)
+         */
+        private void answerRequest(String senderId, long senderTimestamp) {
+            // Reply immediately if:
+            // 1. Not requesting critical section, OR
+            // 2. Requesting but sender has earlier timestamp, OR
+            // 3. Same timestamp but sender has lexicographically smaller nodeId
+            boolean senderHasPriority = hasPriority(senderId, senderTimestamp, requestTimestamp);
+            // A sender that our unanswered request outranks replies to it
+            // rather than deferring it; its permission is on the way to us
+            // and can only be handed back once it has arrived
+            Long asked = pendingRequests.get(senderId);
+            boolean replyOnTheWay = asked != null && !hasPriority(senderId, senderTimestamp, asked);
+            if (inCriticalSection.get() || (requestingCS.get() && !senderHasPriority) || replyOnTheWay) {
+                // We have priority, defer reply
+                deferredReplies.put(senderId, senderTimestamp);
+                System.out.println("[" + nodeId + "] Deferring reply for " + resourceId + " to " + senderId);
+                return;
+            }
+
+            // Replying gives up the sender's permission; a request that
+            // counted on it has to ask for it again
+            boolean neededBack = requestingCS.get() && permissions.contains(senderId);
+            sendReply(senderId);
+            if (neededBack) {
+                sendRequest(senderId);
+            }
+        }
+
+        private boolean hasPriority(String senderId, long senderTimestamp, long timestamp) {
+            return senderTimestamp < timestamp || (senderTimestamp == timestamp && senderId.compareTo(nodeId) < 0);
+        }
+
+        /**
+         * Handle REPLY message from another node
+         */
+        void handleReply(Message message) {
+            String senderId = message.getSenderId();
+
+            System.out.println("[" + nodeId + "] Received REPLY for " + resourceId + " from " + senderId);
+
+            CompletableFuture<LockHandle> granted = null;
+            stateLock.lock();
+            try {
+                if (pendingRequests.remove(senderId) == null) {
+                    // Not an answer to a request of ours; taking it would
+                    // leave both nodes holding the same permission
+                    System.err.println("[" + nodeId + "] Ignoring unexpected REPLY for " + resourceId +
+                            " from " + senderId);
+                    return;
+                }
+                permissions.add(senderId);
+                System.out.println("[" + nodeId + "] Permissions for " + resourceId + ": " +
+                        permissions.size() + "/" + allNodes.size());
+                // A request that waited for this permission to arrive
+                Long deferredTimestamp = deferredReplies.remove(senderId);
+                if (deferredTimestamp != null) {
+                    answerRequest(senderId, deferredTimestamp);
+                }
+                granted = grantNext();
+            } finally {
+                stateLock.unlock();
+            }
+            complete(granted);
+        }
+
+        /**
+         * Send REQUEST message to one node, carrying our request timestamp
+         * (called with the state lock held)
+         */
+        private void sendRequest(String targetNode) {
+            Message requestMessage = new Message(
+                    MessageType.MUTEX_REQUEST,
+                    nodeId,
+                    targetNode,
+                    resourceId,
+                    requestTimestamp);
+
+            pendingRequests.put(targetNode, requestTimestamp);
+            try {
+                networkManager.sendMessage(targetNode, requestMessage);
+                messagesSent.incrementAndGet();
+                System.out.println("[" + nodeId + "] Sent REQUEST for " + resourceId + " to " + targetNode);
+            } catch (Exception e) {
+                System.err.println("[" + nodeId + "] Failed to send REQUEST to " + targetNode + ": " + e.getMessage());
+                // Treat as granted to avoid deadlock
+                pendingRequests.remove(targetNode);
+                permissions.add(targetNode);
+            }
+        }
+
+        /**
+         * Send REPLY message to a specific node, giving up its permission
+         * (called with the state lock held)
+         */
+        private void sendReply(String targetNode) {
+            permissions.remove(targetNode);
+            Message replyMessage = new Message(
+                    MessageType.MUTEX_REPLY,
+                    nodeId,
+                    targetNode,
+                    resourceId,
+                    lamportClock.tick());
+
+            try {
+                networkManager.sendMessage(targetNode, replyMessage);
+                messagesSent.incrementAndGet();
+                System.out.println("[" + nodeId + "] Sent REPLY for " + resourceId + " to " + targetNode);
+            } catch (Exception e) {
+                System.err.println("[" + nodeId + "] Failed to send REPLY to " + targetNode + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Send the deferred replies. Requests from nodes whose reply to ours
+         * is still on the way stay deferred; {@link #handleReply(Message)}
+         * hands their permission on when it arrives.
+         */
+        private void sendDeferredReplies() {
+            Set<String> toReply = new HashSet<>(deferredReplies.keySet());
+            toReply.removeAll(pendingRequests.keySet());
+            deferredReplies.keySet().removeAll(toReply);
+
+            for (String node : toReply) {
+                sendReply(node);
+            }
+
+            if (!toReply.isEmpty()) {
+                System.out.println("[" + nodeId + "] Sent " + toReply.size() + " deferred replies for " + resourceId);
+            }
+        }
+
+        void shutdown() {
+            List<CompletableFuture<LockHandle>> abandoned;
+            stateLock.lock();
+            try {
+                closed = true;
+                inCriticalSection.set(false);
+                requestingCS.set(false);
+                sendDeferredReplies();
+                permissions.clear();
+
+                // Release any waiting threads
+                abandoned = new ArrayList<>(waiters);
+                waiters.clear();
+            } finally {
+                stateLock.unlock();
+            }
+            for (CompletableFuture<LockHandle> waiter : abandoned) {
+                waiter.completeExceptionally(new IllegalStateException("Mutex shut down"));
+            }
         }
     }
-}
\ No newline at end of file
+}
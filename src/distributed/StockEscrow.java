@@ -0,0 +1,324 @@
+package distributed;
+
+import communication.Message;
+import communication.MessageType;
+import communication.NetworkManager;
+import communication.WireFormat;
+import inventory.InventoryManager;
+import inventory.Product;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stock escrow across branches using a bounded counter per product. A branch's
+ * share of a product is its local quantity, so sales only touch the local
+ * inventory and never wait on the network. Branches gossip their counters in
+ * ESCROW_STATE messages; moving stock is a one-sided transfer of rights that
+ * the receiving branch credits when the merged state shows it, with no
+ * request/response round trip and no distributed lock. A branch running low
+ * sends one ESCROW_REQUEST to the branch holding the most rights, which
+ * grants what it can spare above its minimum stock.
+ *
+ * Counters are kept on disk so a restarted branch does not credit the same
+ * transfer twice; they are saved before a transfer is credited, so a crash
+ * can at worst lose a credit in flight.
+ */
+public class StockEscrow {
+    private static final long GOSSIP_INTERVAL_MILLIS = 100;
+    private static final long FULL_STATE_INTERVAL_MILLIS = 10_000;
+    private static final int STATE_MAGIC = 0x45534352; // "ESCR"
+
+    private final String nodeId;
+    private final int branch;
+    private final NetworkManager networkManager;
+    private final InventoryManager inventory;
+    private final Set<String> peers;
+    private final Path stateFile;
+    private final Map<String, BoundedCounter> counters = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor;
+    private volatile boolean running;
+
+    // Statistics
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong grants = new AtomicLong();
+    private final AtomicLong unitsGranted = new AtomicLong();
+    private final AtomicLong unitsCredited = new AtomicLong();
+    private final AtomicLong statesSent = new AtomicLong();
+
+    /**
+     * @param peers     branches to gossip with (read on every gossip round)
+     * @param stateFile where the counters are kept across restarts, or null
+     */
+    public StockEscrow(String nodeId, NetworkManager networkManager, InventoryManager inventory,
+            Set<String> peers, Path stateFile) {
+        this.nodeId = nodeId;
+        this.branch = VectorClock.indexOf(nodeId);
+        this.networkManager = networkManager;
+        this.inventory = inventory;
+        this.peers = peers;
+        this.stateFile = stateFile;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "escrow-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() throws IOException {
+        if (running) {
+            return;
+        }
+        loadState();
+        running = true;
+        executor.scheduleWithFixedDelay(() -> gossip(false), GOSSIP_INTERVAL_MILLIS, GOSSIP_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> gossip(true), FULL_STATE_INTERVAL_MILLIS, FULL_STATE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+        try {
+            saveState();
+        } catch (IOException e) {
+            System.err.println("[" + nodeId + "] Failed to save escrow state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ask the branch holding the most rights for a product to transfer some
+     * to us. Returns at once; granted stock is credited when its state
+     * arrives.
+     *
+     * @return false if no other branch is known to hold rights
+     */
+    public boolean requestStock(String productId, int quantity) {
+        BoundedCounter counter = counters.get(productId);
+        if (counter == null || quantity <= 0) {
+            return false;
+        }
+        String richest = null;
+        long most = 0;
+        for (String peer : peers) {
+            long rights = counter.rights(VectorClock.indexOf(peer));
+            if (rights > most) {
+                most = rights;
+                richest = peer;
+            }
+        }
+        if (richest == null) {
+            return false;
+        }
+
+        Message request = new Message(MessageType.ESCROW_REQUEST, nodeId, richest, productId,
+                System.currentTimeMillis());
+        request.putData("quantity", quantity);
+        networkManager.sendMessage(richest, request);
+        requestsSent.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Handle ESCROW_REQUEST and ESCROW_STATE messages; the work runs on the
+     * escrow thread so crediting stock never blocks the network thread
+     */
+    public void handleMessage(Message message) {
+        try {
+            switch (message.getType()) {
+                case ESCROW_REQUEST:
+                    executor.execute(() -> handleRequest(message));
+                    break;
+                case ESCROW_STATE:
+                    executor.execute(() -> handleState(message));
+                    break;
+                default:
+                    break;
+            }
+        } catch (RejectedExecutionException e) {
+            // Stopping
+        }
+    }
+
+    private void handleRequest(Message message) {
+        String productId = message.getResourceId();
+        Integer requested = message.getIntData("quantity");
+        String requester = message.getSenderId();
+        Product product = productId != null ? inventory.getProduct(productId) : null;
+        if (product == null || requested == null || requester.equals(nodeId)) {
+            return;
+        }
+
+        int amount = Math.min(requested, product.getQuantity() - product.getMinimumStock());
+        if (amount <= 0 || !inventory.transferStock(productId, amount, nodeId, requester)) {
+            return;
+        }
+        BoundedCounter counter = counterFor(productId);
+        synchronized (counter) {
+            // Our share before the transfer left the inventory
+            Product current = inventory.getProduct(productId);
+            counter.adjustTo(branch, (current != null ? current.getQuantity() : 0) + amount);
+            counter.transfer(branch, VectorClock.indexOf(requester), amount);
+        }
+        grants.incrementAndGet();
+        unitsGranted.addAndGet(amount);
+        dirty.add(productId);
+        gossip(false);
+    }
+
+    private void handleState(Message message) {
+        Map<?, ?> states = message.getData("counters", Map.class);
+        if (states == null) {
+            return;
+        }
+        for (Map.Entry<?, ?> state : states.entrySet()) {
+            String productId = (String) state.getKey();
+            BoundedCounter counter = counterFor(productId);
+            synchronized (counter) {
+                long before = counter.received(branch);
+                counter.merge((BoundedCounter) state.getValue());
+                long credit = counter.received(branch) - before;
+                if (credit > 0) {
+                    credit(productId, counter, credit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add newly transferred rights to the local quantity (called with the
+     * counter locked)
+     */
+    private void credit(String productId, BoundedCounter counter, long amount) {
+        try {
+            saveState();
+        } catch (IOException e) {
+            System.err.println("[" + nodeId + "] Failed to save escrow state, crediting anyway: " + e.getMessage());
+        }
+        if (inventory.receiveStock(productId, (int) amount)) {
+            unitsCredited.addAndGet(amount);
+            System.out.println("[" + nodeId + "] Credited " + amount + " units of " + productId + " from escrow");
+        } else {
+            // Keep our rights equal to what we actually hold
+            Product product = inventory.getProduct(productId);
+            counter.adjustTo(branch, product != null ? product.getQuantity() : 0);
+            dirty.add(productId);
+        }
+    }
+
+    /**
+     * Bring our share of every product up to date with the inventory and
+     * broadcast the changed counters (or all of them)
+     */
+    private void gossip(boolean full) {
+        if (!running) {
+            return;
+        }
+        for (Product product : inventory.getAllProducts()) {
+            BoundedCounter counter = counterFor(product.getProductId());
+            if (counter.adjustTo(branch, product.getQuantity())) {
+                dirty.add(product.getProductId());
+            }
+        }
+        if (peers.isEmpty() || (!full && dirty.isEmpty())) {
+            return;
+        }
+
+        Map<String, BoundedCounter> states = new HashMap<>();
+        for (String productId : full ? counters.keySet() : dirty) {
+            dirty.remove(productId);
+            states.put(productId, counters.get(productId));
+        }
+        Message message = new Message(MessageType.ESCROW_STATE, nodeId, "");
+        message.putData("counters", states);
+        networkManager.broadcastMessage(message);
+        statesSent.incrementAndGet();
+    }
+
+    private BoundedCounter counterFor(String productId) {
+        return counters.computeIfAbsent(productId, id -> new BoundedCounter());
+    }
+
+    private void saveState() throws IOException {
+        if (stateFile == null) {
+            return;
+        }
+        Files.createDirectories(stateFile.getParent());
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(STATE_MAGIC);
+            Map<String, BoundedCounter> snapshot = new HashMap<>(counters);
+            WireFormat.writeVarInt(out, snapshot.size());
+            for (Map.Entry<String, BoundedCounter> entry : snapshot.entrySet()) {
+                WireFormat.writeString(out, entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadState() throws IOException {
+        if (stateFile == null || !Files.exists(stateFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != STATE_MAGIC) {
+                throw new IOException("Not an escrow state file: " + stateFile);
+            }
+            int count = WireFormat.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                counters.put(WireFormat.readString(in), BoundedCounter.readFrom(in));
+            }
+        }
+    }
+
+    /**
+     * Get a product's total stock across all branches, as far as we know
+     */
+    public long getGlobalQuantity(String productId) {
+        BoundedCounter counter = counters.get(productId);
+        return counter != null ? counter.value() : 0;
+    }
+
+    /**
+     * Get the share of a product a branch holds, as far as we know
+     */
+    public long getRights(String productId, String branchId) {
+        BoundedCounter counter = counters.get(productId);
+        return counter != null ? counter.rights(VectorClock.indexOf(branchId)) : 0;
+    }
+
+    public String getStatistics() {
+        return String.format("[%s] Escrow Stats - Products: %d, Requests sent: %d, Grants: %d (%d units), " +
+                "Units credited: %d, States sent: %d",
+                nodeId, counters.size(), requestsSent.get(), grants.get(), unitsGranted.get(),
+                unitsCredited.get(), statesSent.get());
+    }
+}
@@ -0,0 +1,701 @@
+package distributed;
+
+import communication.Message;
+import communication.MessageType;
+import communication.NetworkManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Suzuki-Kasami token-based distributed mutual exclusion. Each resource has
+ * one token, first held by the node with the lowest ID. A node holding the
+ * token enters the critical section without any messages, so a branch that
+ * issues most of the transfers pays nothing for them; others broadcast a
+ * numbered MUTEX_REQUEST and wait for MUTEX_TOKEN, N messages per entry.
+ * The token carries the number of each node's last granted request and the
+ * queue of nodes waiting for it.
+ *
+ * Token loss is detected through BRANCH_HEARTBEAT: when a node stops being
+ * heard from, the live node with the lowest ID asks every live node where it
+ * last saw each token it does not hold (MUTEX_INQUIRE, answered with
+ * MUTEX_REPLY). Every pass of a token counts a hop, so the report with the
+ * most hops tells where the token went last; if that is a silent node, a
+ * new token generation is created from the reported requests and tokens of
+ * older generations are dropped wherever the new one has been seen. A token
+ * still in flight from a node that failed while sending it can make a
+ * second copy, so the heartbeat timeout should be well above the time a
+ * token takes to cross the network.
+ */
+public class SuzukiKasamiMutex implements DistributedMutex {
+    private final String nodeId;
+    private final NetworkManager networkManager;
+    private final LamportClock lamportClock;
+    // Every node including this one, sorted
+    private final List<String> nodes;
+    private final long heartbeatTimeoutMillis;
+    private final Map<String, Long> lastHeard = new ConcurrentHashMap<>();
+    private final Set<String> suspected = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService monitor;
+
+    // Critical section state per resource
+    private final Map<String, ResourceLock> locks = new ConcurrentHashMap<>();
+    private final BlockingLocks blockingLocks;
+
+    // Statistics
+    private final AtomicInteger requestCount = new AtomicInteger(0);
+    private final AtomicInteger grantCount = new AtomicInteger(0);
+    private final AtomicInteger entriesWithToken = new AtomicInteger(0);
+    private final AtomicInteger tokensSent = new AtomicInteger(0);
+    private final AtomicInteger staleTokens = new AtomicInteger(0);
+    private final AtomicInteger tokensRegenerated = new AtomicInteger(0);
+    private final AtomicInteger cancelledRequests = new AtomicInteger(0);
+    private final AtomicLong messagesSent = new AtomicLong(0);
+
+    /**
+     * Create a mutex without token loss detection
+     */
+    public SuzukiKasamiMutex(String nodeId, NetworkManager networkManager,
+            LamportClock lamportClock, Set<String> allNodes) {
+        this(nodeId, networkManager, lamportClock, allNodes, 0);
+    }
+
+    /**
+     * @param nodeId                 Unique identifier for this node
+     * @param networkManager         Network communication manager
+     * @param lamportClock           Logical clock for message timestamps
+     * @param allNodes               Set of all participating nodes
+     * @param heartbeatTimeoutMillis How long a node may go unheard before
+     *                               its tokens are presumed lost, or 0 to
+     *                               never regenerate tokens
+     */
+    public SuzukiKasamiMutex(String nodeId, NetworkManager networkManager,
+            LamportClock lamportClock, Set<String> allNodes, long heartbeatTimeoutMillis) {
+        this.nodeId = nodeId;
+        this.networkManager = networkManager;
+        this.lamportClock = lamportClock;
+        Set<String> sorted = new TreeSet<>(allNodes);
+        sorted.add(nodeId);
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(sorted));
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        this.blockingLocks = new BlockingLocks(nodeId);
+
+        long now = System.currentTimeMillis();
+        for (String node : nodes) {
+            lastHeard.put(node, now);
+        }
+        if (heartbeatTimeoutMillis > 0) {
+            this.monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "token-monitor-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, heartbeatTimeoutMillis / 4);
+            monitor.scheduleWithFixedDelay(this::checkLiveness, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.monitor = null;
+        }
+
+        System.out.println("[" + nodeId + "] SuzukiKasamiMutex initialized with nodes: " + nodes +
+                ", initial token holder: " + nodes.get(0));
+    }
+
+    @Override
+    public boolean requestCriticalSection(String resourceId, int timeoutSeconds) {
+        return blockingLocks.request(this, resourceId, timeoutSeconds);
+    }
+
+    @Override
+    public void releaseCriticalSection(String resourceId) {
+        blockingLocks.release(resourceId);
+    }
+
+    /**
+     * Acquire one resource's critical section without blocking. While this
+     * node holds the token, local requesters enter in turn with no messages
+     * until another node asks for it. The future may complete on the network
+     * thread, so dependent work that blocks should use the async variants.
+     */
+    @Override
+    public CompletableFuture<LockHandle> acquireAsync(String resourceId) {
+        return lockFor(resourceId).acquire();
+    }
+
+    /**
+     * Handle incoming Suzuki-Kasami messages
+     */
+    @Override
+    public void handleMessage(Message message) {
+        lamportClock.update(message.getTimestamp());
+        handleHeartbeat(message.getSenderId());
+
+        String resourceId = message.getResourceId() != null ? message.getResourceId() : DEFAULT_RESOURCE;
+        String senderId = message.getSenderId();
+        switch (message.getType()) {
+            case MUTEX_REQUEST:
+                Long sequence = message.getData("sequence", Long.class);
+                if (sequence != null) {
+                    lockFor(resourceId).handleRequest(senderId, sequence);
+                }
+                break;
+            case MUTEX_TOKEN:
+                lockFor(resourceId).handleToken(message);
+                break;
+            case MUTEX_INQUIRE:
+                lockFor(resourceId).handleProbe(senderId);
+                break;
+            case MUTEX_REPLY:
+                lockFor(resourceId).handleProbeReply(message);
+                break;
+            default:
+                // Not a mutex message, ignore
+                break;
+        }
+    }
+
+    /**
+     * Note that a node is alive; any message from it counts
+     */
+    @Override
+    public void handleHeartbeat(String senderId) {
+        if (senderId != null && lastHeard.containsKey(senderId)) {
+            lastHeard.put(senderId, System.currentTimeMillis());
+        }
+    }
+
+    private boolean isAlive(String node) {
+        return node.equals(nodeId) || !suspected.contains(node);
+    }
+
+    /**
+     * Suspect the nodes not heard from within the timeout; the lowest live
+     * node then looks for tokens they may have taken with them
+     */
+    private void checkLiveness() {
+        long now = System.currentTimeMillis();
+        boolean newSuspects = false;
+        for (String node : nodes) {
+            if (node.equals(nodeId)) {
+                continue;
+            }
+            if (now - lastHeard.get(node) > heartbeatTimeoutMillis) {
+                if (suspected.add(node)) {
+                    newSuspects = true;
+                    System.out.println("[" + nodeId + "] No heartbeat from " + node + ", suspecting failure");
+                }
+            } else if (suspected.remove(node)) {
+                System.out.println("[" + nodeId + "] Heard from " + node + " again");
+            }
+        }
+
+        String coordinator = null;
+        for (String node : nodes) {
+            if (isAlive(node)) {
+                coordinator = node;
+                break;
+            }
+        }
+        if (!nodeId.equals(coordinator)) {
+            return;
+        }
+        for (ResourceLock lock : locks.values()) {
+            lock.checkToken(newSuspects);
+        }
+    }
+
+    private ResourceLock lockFor(String resourceId) {
+        return locks.computeIfAbsent(resourceId, ResourceLock::new);
+    }
+
+    @Override
+    public boolean isInCriticalSection(String resourceId) {
+        ResourceLock lock = locks.get(resourceId);
+        return lock != null && lock.inCriticalSection;
+    }
+
+    /**
+     * Check whether this node holds a resource's token
+     */
+    public boolean hasToken(String resourceId) {
+        return lockFor(resourceId).hasToken;
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * Get mutex statistics
+     */
+    @Override
+    public String getStatistics() {
+        int inCS = 0;
+        int tokens = 0;
+        for (ResourceLock lock : locks.values()) {
+            inCS += lock.inCriticalSection ? 1 : 0;
+            tokens += lock.hasToken ? 1 : 0;
+        }
+        return String.format("[%s] Mutex Stats - Algorithm: Suzuki-Kasami, Requests: %d, Grants: %d, " +
+                "Entries with token held: %d, Resources: %d, Tokens held: %d, InCS: %d, Tokens sent: %d, " +
+                "Stale tokens: %d, Tokens regenerated: %d, Suspected: %s, Cancelled: %d, Messages sent: %d",
+                nodeId, requestCount.get(), grantCount.get(), entriesWithToken.get(), locks.size(), tokens, inCS,
+                tokensSent.get(), staleTokens.get(), tokensRegenerated.get(), suspected, cancelledRequests.get(),
+                messagesSent.get());
+    }
+
+    /**
+     * Cleanup resources
+     */
+    @Override
+    public void shutdown() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+        }
+        blockingLocks.clear();
+        for (ResourceLock lock : locks.values()) {
+            lock.shutdown();
+        }
+        System.out.println("[" + nodeId + "] SuzukiKasamiMutex shutdown completed");
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static final class Handle implements LockHandle {
+        private final ResourceLock lock;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Handle(ResourceLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public String getResourceId() {
+            return lock.resourceId;
+        }
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Suzuki-Kasami state for one resource
+     */
+    private class ResourceLock {
+        private final String resourceId;
+
+        // Highest request number seen from each node
+        private final Map<String, Long> requested = new HashMap<>();
+        private volatile boolean hasToken;
+        private volatile boolean inCriticalSection;
+        private boolean requesting;
+        private final Deque<CompletableFuture<LockHandle>> waiters = new ArrayDeque<>();
+
+        // The token, while we hold it: each node's last granted request and the waiting nodes
+        private final Map<String, Long> granted = new HashMap<>();
+        private final Deque<String> queue = new ArrayDeque<>();
+        private long generation;
+
+        // Where we last saw the token: the hop it arrived with and where we sent it
+        private long hop = -1;
+        private String sentTo;
+
+        // Loss detection, on the lowest live node
+        private final Set<String> awaitingReplies = new HashSet<>();
+        private final Map<String, Message> probeReplies = new HashMap<>();
+
+        // Thread safety
+        private final ReentrantLock stateLock = new ReentrantLock();
+        private boolean closed;
+
+        ResourceLock(String resourceId) {
+            this.resourceId = resourceId;
+            if (nodeId.equals(nodes.get(0))) {
+                hasToken = true;
+                hop = 0;
+            }
+        }
+
+        CompletableFuture<LockHandle> acquire() {
+            CompletableFuture<LockHandle> waiter = new CompletableFuture<>();
+            CompletableFuture<LockHandle> next;
+            stateLock.lock();
+            try {
+                if (closed) {
+                    waiter.completeExceptionally(new IllegalStateException("Mutex shut down"));
+                    return waiter;
+                }
+                requestCount.incrementAndGet();
+                waiters.add(waiter);
+                next = grantOrRequest();
+            } finally {
+                stateLock.unlock();
+            }
+            complete(next);
+            // Cancelled or timed out before being granted
+            waiter.whenComplete((handle, error) -> {
+                if (error != null) {
+                    withdraw(waiter);
+                }
+            });
+            return waiter;
+        }
+
+        /**
+         * Enter the critical section for the next local waiter if we hold
+         * the token, or ask for it (called with the state lock held)
+         *
+         * @return the waiter to complete after unlocking, or null
+         */
+        private CompletableFuture<LockHandle> grantOrRequest() {
+            if (waiters.isEmpty() || inCriticalSection || closed) {
+                return null;
+            }
+            if (hasToken) {
+                if (!requesting) {
+                    entriesWithToken.incrementAndGet();
+                }
+                requesting = false;
+                inCriticalSection = true;
+                grantCount.incrementAndGet();
+                System.out.println("[" + nodeId + "] Entered critical section for " + resourceId);
+                return waiters.poll();
+            }
+            if (!requesting) {
+                requesting = true;
+                long sequence = requested.merge(nodeId, 1L, Long::sum);
+                System.out.println("[" + nodeId + "] Requesting token for " + resourceId + " with number " +
+                        sequence);
+                for (String node : nodes) {
+                    if (!node.equals(nodeId)) {
+                        Message request = message(MessageType.MUTEX_REQUEST, node);
+                        request.putData("sequence", sequence);
+                        send(node, request);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Hand a grant to its waiter outside the state lock; a waiter that
+         * gave up meanwhile passes the critical section on
+         */
+        private void complete(CompletableFuture<LockHandle> waiter) {
+            if (waiter == null) {
+                return;
+            }
+            LockHandle handle = new Handle(this);
+            if (!waiter.complete(handle)) {
+                handle.release();
+            }
+        }
+
+        /**
+         * Drop a waiter that gave up. A request already broadcast cannot be
+         * taken back, so the token is passed on when it arrives unused.
+         */
+        private void withdraw(CompletableFuture<LockHandle> waiter) {
+            stateLock.lock();
+            try {
+                if (waiters.remove(waiter)) {
+                    cancelledRequests.incrementAndGet();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void release() {
+            CompletableFuture<LockHandle> next;
+            stateLock.lock();
+            try {
+                if (!inCriticalSection) {
+                    System.out.println("[" + nodeId + "] Not in critical section for " + resourceId +
+                            ", cannot release");
+                    return;
+                }
+                inCriticalSection = false;
+                System.out.println("[" + nodeId + "] Released critical section for " + resourceId);
+                next = passToken();
+            } finally {
+                stateLock.unlock();
+            }
+            complete(next);
+        }
+
+        /**
+         * Record our request as served, queue the nodes with outstanding
+         * requests and send the token to the first of them; keep it if
+         * nobody else wants it (called with the state lock held)
+         *
+         * @return a local waiter to complete after unlocking, or null
+         */
+        private CompletableFuture<LockHandle> passToken() {
+            granted.put(nodeId, requested.getOrDefault(nodeId, 0L));
+            requesting = false;
+            int self = nodes.indexOf(nodeId);
+            // Ring order from the next node, so nobody starves
+            for (int i = 1; i < nodes.size(); i++) {
+                String node = nodes.get((self + i) % nodes.size());
+                if (isAlive(node) && requested.getOrDefault(node, 0L) == granted.getOrDefault(node, 0L) + 1 &&
+                        !queue.contains(node)) {
+                    queue.add(node);
+                }
+            }
+            // Nodes suspected since they queued get the token when heard from again
+            String next = queue.poll();
+            while (next != null && !isAlive(next)) {
+                next = queue.poll();
+            }
+            if (next != null) {
+                sendToken(next);
+            }
+            return grantOrRequest();
+        }
+
+        void handleRequest(String senderId, long sequence) {
+            stateLock.lock();
+            try {
+                requested.merge(senderId, sequence, Math::max);
+                if (hasToken && !inCriticalSection &&
+                        requested.get(senderId) == granted.getOrDefault(senderId, 0L) + 1) {
+                    passToken();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void handleToken(Message message) {
+            long tokenGeneration = toLong(message.getData("generation"));
+            long tokenHop = toLong(message.getData("hop"));
+            Map<?, ?> numbers = message.getData("tokenNumbers", Map.class);
+            List<?> waiting = message.getData("tokenQueue", List.class);
+            CompletableFuture<LockHandle> next;
+            stateLock.lock();
+            try {
+                if (hasToken || tokenGeneration < generation || closed) {
+                    staleTokens.incrementAndGet();
+                    System.out.println("[" + nodeId + "] Dropped stale token for " + resourceId +
+                            " of generation " + tokenGeneration);
+                    return;
+                }
+                hasToken = true;
+                generation = tokenGeneration;
+                hop = tokenHop;
+                sentTo = null;
+                granted.clear();
+                if (numbers != null) {
+                    for (Map.Entry<?, ?> entry : numbers.entrySet()) {
+                        granted.put((String) entry.getKey(), toLong(entry.getValue()));
+                    }
+                }
+                queue.clear();
+                if (waiting != null) {
+                    for (Object node : waiting) {
+                        queue.add((String) node);
+                    }
+                }
+                System.out.println("[" + nodeId + "] Received token for " + resourceId + " from " +
+                        message.getSenderId());
+                next = waiters.isEmpty() ? passToken() : grantOrRequest();
+            } finally {
+                stateLock.unlock();
+            }
+            complete(next);
+        }
+
+        /**
+         * Send the token to a node (called with the state lock held)
+         */
+        private void sendToken(String targetNode) {
+            Message token = message(MessageType.MUTEX_TOKEN, targetNode);
+            token.putData("generation", generation);
+            token.putData("hop", hop + 1);
+            token.putData("tokenNumbers", new HashMap<>(granted));
+            token.putData("tokenQueue", new ArrayList<>(queue));
+            hasToken = false;
+            sentTo = targetNode;
+            queue.clear();
+            tokensSent.incrementAndGet();
+            System.out.println("[" + nodeId + "] Sent token for " + resourceId + " to " + targetNode);
+            send(targetNode, token);
+        }
+
+        /**
+         * On the lowest live node: ask the live nodes where the token is if
+         * a node was just suspected, or again if the last round went
+         * unanswered
+         */
+        void checkToken(boolean newSuspects) {
+            stateLock.lock();
+            try {
+                if (hasToken || closed || (!newSuspects && awaitingReplies.isEmpty())) {
+                    return;
+                }
+                awaitingReplies.clear();
+                probeReplies.clear();
+                for (String node : nodes) {
+                    if (!node.equals(nodeId) && isAlive(node)) {
+                        awaitingReplies.add(node);
+                        send(node, message(MessageType.MUTEX_INQUIRE, node));
+                    }
+                }
+                if (awaitingReplies.isEmpty()) {
+                    decideToken();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        /**
+         * Tell the lowest live node where we last saw the token
+         */
+        void handleProbe(String senderId) {
+            stateLock.lock();
+            try {
+                Message reply = message(MessageType.MUTEX_REPLY, senderId);
+                reply.putData("generation", generation);
+                reply.putData("hop", sentTo != null ? hop + 1 : hop);
+                if (hasToken || sentTo != null) {
+                    reply.putData("holder", hasToken ? nodeId : sentTo);
+                }
+                reply.putData("sequence", requested.getOrDefault(nodeId, 0L));
+                reply.putData("requesting", requesting);
+                send(senderId, reply);
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        void handleProbeReply(Message message) {
+            stateLock.lock();
+            try {
+                if (!awaitingReplies.remove(message.getSenderId())) {
+                    return;
+                }
+                probeReplies.put(message.getSenderId(), message);
+                if (awaitingReplies.isEmpty()) {
+                    decideToken();
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        }
+
+        /**
+         * Regenerate the token if the reports say it went last to a node
+         * that is no longer heard from (called with the state lock held)
+         */
+        private void decideToken() {
+            if (hasToken) {
+                return;
+            }
+            long lastHop = sentTo != null ? hop + 1 : hop;
+            String location = sentTo;
+            long newestGeneration = generation;
+            for (Message reply : probeReplies.values()) {
+                long replyHop = toLong(reply.getData("hop"));
+                if (replyHop > lastHop) {
+                    lastHop = replyHop;
+                    location = reply.getStringData("holder");
+                }
+                newestGeneration = Math.max(newestGeneration, toLong(reply.getData("generation")));
+            }
+            if (lastHop < 0) {
+                // Never passed on: still with its first holder
+                location = nodes.get(0);
+            }
+            if (location != null && isAlive(location)) {
+                return;
+            }
+
+            // Requests still waiting stay queued in the new token
+            granted.clear();
+            for (String node : nodes) {
+                granted.put(node, requested.getOrDefault(node, 0L));
+            }
+            for (Map.Entry<String, Message> entry : probeReplies.entrySet()) {
+                long sequence = toLong(entry.getValue().getData("sequence"));
+                boolean waiting = Boolean.TRUE.equals(entry.getValue().getData("requesting"));
+                requested.merge(entry.getKey(), sequence, Math::max);
+                granted.put(entry.getKey(), waiting ? sequence - 1 : sequence);
+            }
+            if (requesting) {
+                granted.put(nodeId, requested.getOrDefault(nodeId, 0L) - 1);
+            }
+            queue.clear();
+            hasToken = true;
+            generation = newestGeneration + 1;
+            hop = lastHop + 1;
+            sentTo = null;
+            tokensRegenerated.incrementAndGet();
+            System.out.println("[" + nodeId + "] Token for " + resourceId + " lost with " + location +
+                    ", regenerated as generation " + generation);
+
+            CompletableFuture<LockHandle> next = waiters.isEmpty() ? passToken() : grantOrRequest();
+            if (next != null) {
+                // Complete off the state lock, on the monitor or network thread
+                CompletableFuture.runAsync(() -> complete(next));
+            }
+        }
+
+        private Message message(MessageType type, String targetNode) {
+            return new Message(type, nodeId, targetNode, resourceId, lamportClock.tick());
+        }
+
+        /**
+         * Send a message (called with the state lock held)
+         */
+        private void send(String targetNode, Message message) {
+            try {
+                networkManager.sendMessage(targetNode, message);
+                messagesSent.incrementAndGet();
+            } catch (Exception e) {
+                System.err.println("[" + nodeId + "] Failed to send " + message.getType() + " to " + targetNode +
+                        ": " + e.getMessage());
+            }
+        }
+
+        void shutdown() {
+            List<CompletableFuture<LockHandle>> abandoned;
+            stateLock.lock();
+            try {
+                closed = true;
+                inCriticalSection = false;
+                abandoned = new ArrayList<>(waiters);
+                waiters.clear();
+            } finally {
+                stateLock.unlock();
+            }
+            for (CompletableFuture<LockHandle> waiter : abandoned) {
+                waiter.completeExceptionally(new IllegalStateException("Mutex shut down"));
+            }
+        }
+    }
+}
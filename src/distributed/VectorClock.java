@@ -0,0 +1,267 @@
+package distributed;
+
+import communication.WireFormat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vector clock for detecting concurrent updates, complementing LamportClock.
+ * Counters live in a primitive array indexed by a process-wide branch index,
+ * so compare and merge do not allocate. Not thread-safe; callers that share a
+ * clock must synchronize on it.
+ */
+public class VectorClock implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Map<String, Integer> BRANCH_INDEX = new ConcurrentHashMap<>();
+    private static final List<String> BRANCHES = new ArrayList<>();
+
+    /**
+     * Causal order of two clocks
+     */
+    public enum Ordering {
+        EQUAL,
+        BEFORE,
+        AFTER,
+        CONCURRENT
+    }
+
+    // Indexes are local to a process, so serialization writes branch IDs
+    private transient long[] counters;
+
+    public VectorClock() {
+        this.counters = new long[Math.max(4, branchCount())];
+    }
+
+    private VectorClock(long[] counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Get the index of a branch, assigning the next free one on first use
+     */
+    public static int indexOf(String branchId) {
+        Integer index = BRANCH_INDEX.get(branchId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (BRANCHES) {
+            return BRANCH_INDEX.computeIfAbsent(branchId, id -> {
+                BRANCHES.add(id);
+                return BRANCHES.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Get the branch ID at an index
+     */
+    public static String branchAt(int index) {
+        synchronized (BRANCHES) {
+            return BRANCHES.get(index);
+        }
+    }
+
+    private static int branchCount() {
+        synchronized (BRANCHES) {
+            return BRANCHES.size();
+        }
+    }
+
+    /**
+     * Count a local event of a branch
+     *
+     * @return the branch's new counter
+     */
+    public long tick(int index) {
+        ensureCapacity(index);
+        return ++counters[index];
+    }
+
+    public long get(int index) {
+        return index < counters.length ? counters[index] : 0;
+    }
+
+    public long get(String branchId) {
+        return get(indexOf(branchId));
+    }
+
+    /**
+     * Raise a branch's counter to the given value (counters never go back)
+     */
+    public void advance(int index, long value) {
+        ensureCapacity(index);
+        if (value > counters[index]) {
+            counters[index] = value;
+        }
+    }
+
+    /**
+     * Take the element-wise maximum with another clock, in place
+     */
+    public void merge(VectorClock other) {
+        long[] theirs = other.counters;
+        if (theirs.length > counters.length) {
+            counters = Arrays.copyOf(counters, theirs.length);
+        }
+        for (int i = 0; i < theirs.length; i++) {
+            if (theirs[i] > counters[i]) {
+                counters[i] = theirs[i];
+            }
+        }
+    }
+
+    /**
+     * Compare with another clock; missing entries count as zero
+     */
+    public Ordering compareTo(VectorClock other) {
+        long[] ours = counters;
+        long[] theirs = other.counters;
+        boolean less = false;
+        boolean greater = false;
+        int length = Math.max(ours.length, theirs.length);
+        for (int i = 0; i < length; i++) {
+            long a = i < ours.length ? ours[i] : 0;
+            long b = i < theirs.length ? theirs[i] : 0;
+            if (a < b) {
+                less = true;
+            } else if (a > b) {
+                greater = true;
+            }
+            if (less && greater) {
+                return Ordering.CONCURRENT;
+            }
+        }
+        if (less) {
+            return Ordering.BEFORE;
+        }
+        return greater ? Ordering.AFTER : Ordering.EQUAL;
+    }
+
+    public boolean happenedBefore(VectorClock other) {
+        return compareTo(other) == Ordering.BEFORE;
+    }
+
+    public boolean isConcurrentWith(VectorClock other) {
+        return compareTo(other) == Ordering.CONCURRENT;
+    }
+
+    public VectorClock copy() {
+        return new VectorClock(counters.clone());
+    }
+
+    /**
+     * Copy another clock's counters into this one without allocating when
+     * this clock is large enough
+     */
+    public void copyFrom(VectorClock other) {
+        if (other.counters.length > counters.length) {
+            counters = new long[other.counters.length];
+        }
+        System.arraycopy(other.counters, 0, counters, 0, other.counters.length);
+        Arrays.fill(counters, other.counters.length, counters.length, 0);
+    }
+
+    private void ensureCapacity(int index) {
+        if (index >= counters.length) {
+            counters = Arrays.copyOf(counters, Math.max(index + 1, counters.length * 2));
+        }
+    }
+
+    /**
+     * Write the non-zero counters as branch ID and value pairs in ascending
+     * value order, each value as the delta from the previous one. Branch
+     * indexes are local to a process, so the IDs go on the wire; clocks of
+     * branches that talk to each other stay close, so the deltas are small.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int count = 0;
+        for (long counter : counters) {
+            if (counter != 0) {
+                count++;
+            }
+        }
+        int[] order = new int[count];
+        int n = 0;
+        for (int i = 0; i < counters.length; i++) {
+            if (counters[i] != 0) {
+                // Insertion sort: vectors are as short as the branch list
+                int j = n++;
+                while (j > 0 && counters[order[j - 1]] > counters[i]) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+            }
+        }
+        WireFormat.writeVarInt(out, count);
+        long previous = 0;
+        for (int index : order) {
+            WireFormat.writeString(out, branchAt(index));
+            WireFormat.writeVarLong(out, counters[index] - previous);
+            previous = counters[index];
+        }
+    }
+
+    public static VectorClock readFrom(DataInput in) throws IOException {
+        VectorClock clock = new VectorClock();
+        int count = WireFormat.readLength(in);
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            String branchId = WireFormat.readString(in);
+            value += WireFormat.readVarLong(in);
+            clock.advance(indexOf(branchId), value);
+        }
+        return clock;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+        writeTo(out);
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws IOException {
+        counters = readFrom(in).counters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VectorClock && compareTo((VectorClock) o) == Ordering.EQUAL;
+    }
+
+    @Override
+    public int hashCode() {
+        int length = counters.length;
+        while (length > 0 && counters[length - 1] == 0) {
+            length--;
+        }
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + Long.hashCode(counters[i]);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("VectorClock{");
+        boolean first = true;
+        for (int i = 0; i < counters.length; i++) {
+            if (counters[i] != 0) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(branchAt(i)).append('=').append(counters[i]);
+                first = false;
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -1,6 +1,9 @@
 package inventory;
 
+import java.io.UncheckedIOException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.Map;
 import java.util.List;
@@ -8,28 +11,107 @@ import java.util.ArrayList;
 import java.util.stream.Collectors;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
 import java.util.function.Predicate;
 
 /**
  * Thread-safe inventory manager for a branch
- * Handles all inventory operations with proper concurrency control
+ * Handles all inventory operations with proper concurrency control.
+ *
+ * Locking: sales, restocks and transfers hold only the read side of the catalog
+ * lock and update the product's quantity lock-free. Quantity and price changes
+ * also take the striped lock for their product so copies see them together.
+ * Adding/removing products and consistent multi-product snapshots hold the
+ * write side, which excludes every product operation.
+ *
+ * With a {@link ChangeLog} set, every change is recorded while its product is
+ * locked (sales and restocks then take the product lock too), so the log holds
+ * each product's changes in the order they were made and a snapshot matches
+ * exactly the changes recorded before it. Waiting for the record to become
+ * durable happens after the locks are released. A change the log fails to
+ * write throws, and once the log is broken further changes are refused
+ * before they are made.
  */
 public class InventoryManager {
+    private static final int LOCK_STRIPES = 64;
+
+    // Operations recorded in the change log
+    public static final String OP_SALE = "SALE";
+    public static final String OP_RESTOCK = "RESTOCK";
+    public static final String OP_TRANSFER_OUT = "TRANSFER_OUT";
+    public static final String OP_TRANSFER_IN = "TRANSFER_IN";
+    public static final String OP_SET_QUANTITY = "SET_QUANTITY";
+    public static final String OP_SET_PRICE = "SET_PRICE";
+    public static final String OP_ADD_PRODUCT = "ADD_PRODUCT";
+    public static final String OP_REMOVE_PRODUCT = "REMOVE_PRODUCT";
+
+    private static final long NOT_RECORDED = -1;
+    private static final long FAILED = Long.MIN_VALUE;
+
+    /**
+     * Records inventory changes, e.g. for replication
+     */
+    public interface ChangeLog {
+        /**
+         * Fail before a change is made if changes can no longer be recorded,
+         * so none is made that would be neither durable nor replicated
+         */
+        default void checkWritable() {
+        }
+
+        /**
+         * Record a change. Called with the product (or the whole catalog)
+         * locked, so must not block for long.
+         *
+         * @return a ticket for {@link #awaitRecorded(long)}, or a negative value
+         *         if the change was not recorded
+         */
+        long record(String operation, String productId, Object data);
+
+        /**
+         * Wait until a recorded change is durable, failing if it could not be
+         * written. Called after the locks are released.
+         */
+        void awaitRecorded(long ticket);
+
+        /**
+         * Get a future that completes once a recorded change is durable,
+         * without blocking the caller, or fails if it could not be written
+         */
+        default CompletableFuture<Void> recorded(long ticket) {
+            return CompletableFuture.runAsync(() -> awaitRecorded(ticket));
+        }
+
+        /**
+         * Get a future that completes once a durable change has been
+         * acknowledged by as many replicas as the log requires
+         */
+        default CompletableFuture<Void> awaitReplicated(long ticket) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
     private final ConcurrentHashMap<String, Product> products;
     private final ReentrantReadWriteLock lock;
+    private final ReentrantLock[] productLocks;
     private final String branchId;
     private volatile long lastModified;
-    private final Object statsLock = new Object();
+    private volatile ChangeLog changeLog;
 
     // Statistics tracking
-    private long totalTransactions = 0;
-    private long totalItemsSold = 0;
-    private long totalItemsReceived = 0;
+    private final LongAdder totalTransactions = new LongAdder();
+    private final LongAdder totalItemsSold = new LongAdder();
+    private final LongAdder totalItemsReceived = new LongAdder();
 
     public InventoryManager(String branchId) {
         this.branchId = branchId;
         this.products = new ConcurrentHashMap<>();
         this.lock = new ReentrantReadWriteLock();
+        this.productLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            productLocks[i] = new ReentrantLock();
+        }
         this.lastModified = System.currentTimeMillis();
         initializeDefaultProducts();
     }
@@ -61,14 +143,18 @@ public class InventoryManager {
             return false;
         }
 
+        checkWritable();
+        long ticket = NOT_RECORDED;
         lock.writeLock().lock();
         try {
             products.put(product.getProductId(), product);
             updateModificationTime();
             incrementStats("add", 0, 0);
+            ticket = record(OP_ADD_PRODUCT, product.getProductId(), product.copy());
             return true;
         } finally {
             lock.writeLock().unlock();
+            awaitRecorded(ticket);
         }
     }
 
@@ -80,23 +166,36 @@ public class InventoryManager {
             return null;
         }
 
-        lock.readLock().lock();
-        try {
-            Product product = products.get(productId);
-            return product != null ? product.copy() : null;
-        } finally {
-            lock.readLock().unlock();
-        }
+        Product product = products.get(productId);
+        return product != null ? copyOf(product) : null;
     }
 
     /**
-     * Get all products (returns copies for thread safety)
+     * Get all products (returns copies for thread safety).
+     * Each copy is consistent, but products may be copied at different moments
+     * while other products are being sold; use {@link #snapshot()} for a
+     * point-in-time view of the whole inventory.
      */
     public List<Product> getAllProducts() {
+        return getProductsWhere(p -> true);
+    }
+
+    /**
+     * Get products by category
+     */
+    public List<Product> getProductsByCategory(String category) {
+        return getProductsWhere(p -> category.equals(p.getCategory()));
+    }
+
+    /**
+     * Get products matching a predicate (tested against a consistent copy)
+     */
+    public List<Product> getProductsWhere(Predicate<Product> predicate) {
         lock.readLock().lock();
         try {
             return products.values().stream()
-                    .map(Product::copy)
+                    .map(this::copyOf)
+                    .filter(predicate)
                     .collect(Collectors.toList());
         } finally {
             lock.readLock().unlock();
@@ -104,32 +203,103 @@ public class InventoryManager {
     }
 
     /**
-     * Get products by category
+     * Get a point-in-time copy of every product. Product operations are
+     * blocked while the copy is taken.
      */
-    public List<Product> getProductsByCategory(String category) {
-        lock.readLock().lock();
+    public List<Product> snapshot() {
+        return snapshot(() -> {
+        });
+    }
+
+    /**
+     * Get a point-in-time copy of every product and run an action at the same
+     * point, e.g. to record which logged operations the copy includes
+     */
+    public List<Product> snapshot(Runnable atSnapshot) {
+        lock.writeLock().lock();
         try {
-            return products.values().stream()
-                    .filter(p -> category.equals(p.getCategory()))
+            List<Product> copy = products.values().stream()
                     .map(Product::copy)
                     .collect(Collectors.toList());
+            atSnapshot.run();
+            return copy;
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
     /**
-     * Get products matching a predicate
+     * Replace every product with copies of the given ones, e.g. when restoring
+     * a snapshot. Not recorded in the change log.
      */
-    public List<Product> getProductsWhere(Predicate<Product> predicate) {
-        lock.readLock().lock();
+    public void restore(List<Product> snapshot) {
+        lock.writeLock().lock();
         try {
-            return products.values().stream()
-                    .filter(predicate)
-                    .map(Product::copy)
-                    .collect(Collectors.toList());
+            products.clear();
+            for (Product product : snapshot) {
+                products.put(product.getProductId(), product.copy());
+            }
+            updateModificationTime();
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply a change recorded by another inventory manager, e.g. a replica
+     * replaying its origin's log. Changes must be applied in the order they
+     * were recorded for each product.
+     *
+     * @return false if the operation is unknown or its product does not exist
+     */
+    public boolean applyChange(String operation, String productId, Object data) {
+        if (operation == null) {
+            return false;
+        }
+        switch (operation) {
+            case OP_SALE:
+            case OP_TRANSFER_OUT:
+                return adjustQuantity(productId, -((Number) data).intValue());
+            case OP_RESTOCK:
+            case OP_TRANSFER_IN:
+                return adjustQuantity(productId, ((Number) data).intValue());
+            case OP_SET_QUANTITY:
+                return updateQuantity(productId, ((Number) data).intValue());
+            case OP_SET_PRICE:
+                return updatePrice(productId, ((Number) data).doubleValue());
+            case OP_ADD_PRODUCT:
+                return data instanceof Product && addProduct(((Product) data).copy());
+            case OP_REMOVE_PRODUCT:
+                return removeProduct(productId);
+            default:
+                return false;
+        }
+    }
+
+    private boolean adjustQuantity(String productId, int delta) {
+        if (productId == null || delta == 0) {
+            return false;
+        }
+
+        ReentrantLock productLock = lockProduct(productId);
+        try {
+            Product product = products.get(productId);
+            if (product == null) {
+                return false;
+            }
+            if (delta < 0) {
+                if (!product.reduceQuantity(-delta)) {
+                    return false;
+                }
+                incrementStats("sale", -delta, 0);
+            } else {
+                product.addQuantity(delta);
+                incrementStats("restock", 0, delta);
+            }
+            updateModificationTime();
+            return true;
+        } finally {
+            unlockProduct(productLock);
         }
     }
 
@@ -162,12 +332,13 @@ public class InventoryManager {
             return false;
         }
 
-        lock.writeLock().lock();
+        checkWritable();
+        long ticket = NOT_RECORDED;
+        ReentrantLock productLock = lockProduct(productId);
         try {
             Product product = products.get(productId);
             if (product != null) {
-                int oldQuantity = product.getQuantity();
-                product.setQuantity(newQuantity);
+                int oldQuantity = product.getAndSetQuantity(newQuantity);
                 updateModificationTime();
 
                 // Track statistics
@@ -176,11 +347,13 @@ public class InventoryManager {
                 } else if (newQuantity < oldQuantity) {
                     incrementStats("sell", oldQuantity - newQuantity, 0);
                 }
+                ticket = record(OP_SET_QUANTITY, productId, newQuantity);
                 return true;
             }
             return false;
         } finally {
-            lock.writeLock().unlock();
+            unlockProduct(productLock);
+            awaitRecorded(ticket);
         }
     }
 
@@ -192,17 +365,21 @@ public class InventoryManager {
             return false;
         }
 
-        lock.writeLock().lock();
+        checkWritable();
+        long ticket = NOT_RECORDED;
+        ReentrantLock productLock = lockProduct(productId);
         try {
             Product product = products.get(productId);
             if (product != null) {
                 product.setPrice(newPrice);
                 updateModificationTime();
+                ticket = record(OP_SET_PRICE, productId, newPrice);
                 return true;
             }
             return false;
         } finally {
-            lock.writeLock().unlock();
+            unlockProduct(productLock);
+            awaitRecorded(ticket);
         }
     }
 
@@ -216,23 +393,47 @@ public class InventoryManager {
      * @return true if transfer successful
      */
     public boolean transferStock(String productId, int quantity, String fromBranch, String toBranch) {
-        if (!this.branchId.equals(fromBranch) || quantity <= 0) {
+        long ticket = transferOut(productId, quantity, fromBranch, toBranch);
+        if (ticket == FAILED) {
             return false;
         }
+        awaitRecorded(ticket);
+        return true;
+    }
 
-        lock.writeLock().lock();
+    /**
+     * Transfer stock from this branch to another, completing once the change
+     * log has the transfer durable and acknowledged by its replicas. The
+     * transfer itself is made (or refused) before this returns; the write and
+     * the acknowledgement are awaited asynchronously, so many transfers can be
+     * in flight at once.
+     *
+     * @return a future of whether the transfer was made
+     */
+    public CompletableFuture<Boolean> transferStockAsync(String productId, int quantity, String fromBranch,
+            String toBranch) {
+        return replicated(() -> transferOut(productId, quantity, fromBranch, toBranch));
+    }
+
+    private long transferOut(String productId, int quantity, String fromBranch, String toBranch) {
+        if (!this.branchId.equals(fromBranch) || quantity <= 0) {
+            return FAILED;
+        }
+
+        ReentrantLock productLock = lockForChange(productId);
         try {
             Product product = products.get(productId);
             if (product != null && product.reduceQuantity(quantity)) {
                 updateModificationTime();
                 incrementStats("transfer_out", quantity, 0);
+                long ticket = record(OP_TRANSFER_OUT, productId, quantity);
                 System.out.println(String.format("Transferred %d units of %s from %s to %s",
                         quantity, productId, fromBranch, toBranch));
-                return true;
+                return ticket;
             }
-            return false;
+            return FAILED;
         } finally {
-            lock.writeLock().unlock();
+            unlockForChange(productLock);
         }
     }
 
@@ -244,20 +445,23 @@ public class InventoryManager {
             return false;
         }
 
-        lock.writeLock().lock();
+        long ticket = NOT_RECORDED;
+        ReentrantLock productLock = lockForChange(productId);
         try {
             Product product = products.get(productId);
             if (product != null) {
                 product.addQuantity(quantity);
                 updateModificationTime();
                 incrementStats("transfer_in", 0, quantity);
+                ticket = record(OP_TRANSFER_IN, productId, quantity);
                 System.out.println(String.format("Received %d units of %s at branch %s",
                         quantity, productId, branchId));
                 return true;
             }
             return false;
         } finally {
-            lock.writeLock().unlock();
+            unlockForChange(productLock);
+            awaitRecorded(ticket);
         }
     }
 
@@ -265,21 +469,41 @@ public class InventoryManager {
      * Process a sale (reduce quantity)
      */
     public boolean processSale(String productId, int quantity) {
-        if (productId == null || quantity <= 0) {
+        long ticket = sell(productId, quantity);
+        if (ticket == FAILED) {
             return false;
         }
+        awaitRecorded(ticket);
+        return true;
+    }
 
-        lock.writeLock().lock();
+    /**
+     * Process a sale, completing once the change log has the sale
+     * acknowledged by its replicas (see
+     * {@link #transferStockAsync(String, int, String, String)})
+     *
+     * @return a future of whether the sale was made
+     */
+    public CompletableFuture<Boolean> processSaleAsync(String productId, int quantity) {
+        return replicated(() -> sell(productId, quantity));
+    }
+
+    private long sell(String productId, int quantity) {
+        if (productId == null || quantity <= 0) {
+            return FAILED;
+        }
+
+        ReentrantLock productLock = lockForChange(productId);
         try {
             Product product = products.get(productId);
             if (product != null && product.reduceQuantity(quantity)) {
                 updateModificationTime();
                 incrementStats("sale", quantity, 0);
-                return true;
+                return record(OP_SALE, productId, quantity);
             }
-            return false;
+            return FAILED;
         } finally {
-            lock.writeLock().unlock();
+            unlockForChange(productLock);
         }
     }
 
@@ -291,18 +515,21 @@ public class InventoryManager {
             return false;
         }
 
-        lock.writeLock().lock();
+        long ticket = NOT_RECORDED;
+        ReentrantLock productLock = lockForChange(productId);
         try {
             Product product = products.get(productId);
             if (product != null) {
                 product.addQuantity(quantity);
                 updateModificationTime();
                 incrementStats("restock", 0, quantity);
+                ticket = record(OP_RESTOCK, productId, quantity);
                 return true;
             }
             return false;
         } finally {
-            lock.writeLock().unlock();
+            unlockForChange(productLock);
+            awaitRecorded(ticket);
         }
     }
 
@@ -314,16 +541,20 @@ public class InventoryManager {
             return false;
         }
 
+        checkWritable();
+        long ticket = NOT_RECORDED;
         lock.writeLock().lock();
         try {
             Product removed = products.remove(productId);
             if (removed != null) {
                 updateModificationTime();
+                ticket = record(OP_REMOVE_PRODUCT, productId, null);
                 return true;
             }
             return false;
         } finally {
             lock.writeLock().unlock();
+            awaitRecorded(ticket);
         }
     }
 
@@ -338,13 +569,13 @@ public class InventoryManager {
      * Get total inventory value
      */
     public double getTotalInventoryValue() {
-        lock.readLock().lock();
+        lock.writeLock().lock();
         try {
             return products.values().stream()
                     .mapToDouble(Product::getStockValue)
                     .sum();
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -352,7 +583,7 @@ public class InventoryManager {
      * Get inventory summary by category
      */
     public Map<String, Integer> getStockSummary() {
-        lock.readLock().lock();
+        lock.writeLock().lock();
         try {
             Map<String, Integer> summary = new ConcurrentHashMap<>();
             for (Product product : products.values()) {
@@ -360,7 +591,7 @@ public class InventoryManager {
             }
             return summary;
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -368,7 +599,7 @@ public class InventoryManager {
      * Get inventory summary by category
      */
     public Map<String, Integer> getCategorySummary() {
-        lock.readLock().lock();
+        lock.writeLock().lock();
         try {
             Map<String, Integer> summary = new ConcurrentHashMap<>();
             for (Product product : products.values()) {
@@ -376,7 +607,7 @@ public class InventoryManager {
             }
             return summary;
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -398,20 +629,13 @@ public class InventoryManager {
      * Get products that need replenishment
      */
     public List<String> getReplenishmentNeeds() {
-        lock.readLock().lock();
-        try {
-            List<String> needs = new ArrayList<>();
-            for (Product product : products.values()) {
-                if (product.isLowStock()) {
-                    int needed = product.getReplenishmentNeeded();
-                    needs.add(String.format("%s needs %d units (current: %d, min: %d)",
-                            product.getName(), needed, product.getQuantity(), product.getMinimumStock()));
-                }
-            }
-            return needs;
-        } finally {
-            lock.readLock().unlock();
+        List<String> needs = new ArrayList<>();
+        for (Product product : getProductsWhere(Product::isLowStock)) {
+            int needed = product.getReplenishmentNeeded();
+            needs.add(String.format("%s needs %d units (current: %d, min: %d)",
+                    product.getName(), needed, product.getQuantity(), product.getMinimumStock()));
         }
+        return needs;
     }
 
     /**
@@ -428,6 +652,13 @@ public class InventoryManager {
         return branchId;
     }
 
+    /**
+     * Set the log that records every change from now on (null to stop)
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
     /**
      * Get last modification timestamp
      */
@@ -439,39 +670,144 @@ public class InventoryManager {
      * Get inventory statistics
      */
     public InventoryStats getStats() {
-        synchronized (statsLock) {
-            return new InventoryStats(totalTransactions, totalItemsSold, totalItemsReceived,
-                    getProductCount(), getTotalInventoryValue());
-        }
+        return new InventoryStats(totalTransactions.sum(), totalItemsSold.sum(), totalItemsReceived.sum(),
+                getProductCount(), getTotalInventoryValue());
     }
 
     /**
      * Reset all statistics
      */
     public void resetStats() {
-        synchronized (statsLock) {
-            totalTransactions = 0;
-            totalItemsSold = 0;
-            totalItemsReceived = 0;
-        }
+        totalTransactions.reset();
+        totalItemsSold.reset();
+        totalItemsReceived.reset();
     }
 
     /**
      * Update modification timestamp
      */
     private void updateModificationTime() {
-        lastModified = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        if (now > lastModified) {
+            lastModified = now;
+        }
     }
 
     /**
      * Increment statistics counters
      */
     private void incrementStats(String operation, long sold, long received) {
-        synchronized (statsLock) {
-            totalTransactions++;
-            totalItemsSold += sold;
-            totalItemsReceived += received;
+        totalTransactions.increment();
+        if (sold != 0) {
+            totalItemsSold.add(sold);
         }
+        if (received != 0) {
+            totalItemsReceived.add(received);
+        }
+    }
+
+    /**
+     * Lock a single product for a stock or price change. Holds the read side of
+     * the catalog lock so the change cannot overlap a snapshot or removal.
+     */
+    private ReentrantLock lockProduct(String productId) {
+        lock.readLock().lock();
+        ReentrantLock productLock = productLocks[stripeFor(productId)];
+        productLock.lock();
+        return productLock;
+    }
+
+    private void unlockProduct(ReentrantLock productLock) {
+        productLock.unlock();
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Lock for a stock change: the catalog read lock, plus the product lock
+     * when changes are recorded so they reach the log in the order they were
+     * made
+     *
+     * @return the product lock, or null if only the catalog lock is held
+     */
+    private ReentrantLock lockForChange(String productId) {
+        checkWritable();
+        if (changeLog != null) {
+            return lockProduct(productId);
+        }
+        lock.readLock().lock();
+        return null;
+    }
+
+    private void unlockForChange(ReentrantLock productLock) {
+        if (productLock != null) {
+            productLock.unlock();
+        }
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Refuse a change up front once the change log cannot record it
+     */
+    private void checkWritable() {
+        ChangeLog log = changeLog;
+        if (log != null) {
+            log.checkWritable();
+        }
+    }
+
+    private long record(String operation, String productId, Object data) {
+        ChangeLog log = changeLog;
+        return log != null ? log.record(operation, productId, data) : NOT_RECORDED;
+    }
+
+    private void awaitRecorded(long ticket) {
+        ChangeLog log = changeLog;
+        if (log != null && ticket >= 0) {
+            log.awaitRecorded(ticket);
+        }
+    }
+
+    /**
+     * Make a change and get a future of whether it was made, completing once
+     * it is durable and replicated. Neither wait blocks the caller; a change
+     * refused by a broken log fails the future.
+     */
+    private CompletableFuture<Boolean> replicated(LongSupplier change) {
+        long ticket;
+        try {
+            ticket = change.getAsLong();
+        } catch (UncheckedIOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (ticket == FAILED) {
+            return CompletableFuture.completedFuture(false);
+        }
+        ChangeLog log = changeLog;
+        if (log == null || ticket < 0) {
+            return CompletableFuture.completedFuture(true);
+        }
+        // Asked on this thread, which knows the change's timestamp
+        CompletableFuture<Void> acknowledged = log.awaitReplicated(ticket);
+        return log.recorded(ticket).thenCombine(acknowledged, (written, acked) -> true);
+    }
+
+    /**
+     * Copy a product under its lock so a concurrent quantity/price update is
+     * seen whole
+     */
+    private Product copyOf(Product product) {
+        ReentrantLock productLock = productLocks[stripeFor(product.getProductId())];
+        productLock.lock();
+        try {
+            return product.copy();
+        } finally {
+            productLock.unlock();
+        }
+    }
+
+    private static int stripeFor(String productId) {
+        int h = productId.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
     }
 
     @Override
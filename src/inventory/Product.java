@@ -1,23 +1,39 @@
 package inventory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 
 /**
  * Represents a product in the inventory system
- * Implements Serializable for network transmission between branches
+ * Implements Serializable for network transmission between branches.
+ * Stock quantity is updated lock-free with compare-and-set, so concurrent
+ * sales of the same product never contend on a monitor.
  */
 public class Product implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final VarHandle QUANTITY;
+
+    static {
+        try {
+            QUANTITY = MethodHandles.lookup().findVarHandle(Product.class, "quantity", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     private String productId;
     private String name;
     private String description;
     private double price;
-    private int quantity;
+    private volatile int quantity;
     private int minimumStock;
     private String category;
-    private long lastUpdated;
+    private volatile long lastUpdated;
 
     /**
      * Constructor for creating a new product
@@ -88,6 +104,17 @@ public class Product implements Serializable {
         updateTimestamp();
     }
 
+    /**
+     * Atomically replace the quantity
+     *
+     * @return the quantity before the update
+     */
+    public int getAndSetQuantity(int quantity) {
+        int previous = (int) QUANTITY.getAndSet(this, quantity);
+        updateTimestamp();
+        return previous;
+    }
+
     public int getMinimumStock() {
         return minimumStock;
     }
@@ -147,21 +174,26 @@ public class Product implements Serializable {
     }
 
     /**
-     * Thread-safe method to reduce quantity (for sales/transfers)
+     * Thread-safe method to reduce quantity (for sales/transfers).
+     * Retries a compare-and-set until it succeeds or the stock is insufficient,
+     * so the quantity never goes negative.
      * 
      * @param amount amount to reduce
      * @return true if successful, false if insufficient quantity
      */
-    public synchronized boolean reduceQuantity(int amount) {
+    public boolean reduceQuantity(int amount) {
         if (amount < 0) {
             throw new IllegalArgumentException("Amount cannot be negative");
         }
-        if (quantity >= amount) {
-            quantity -= amount;
-            updateTimestamp();
-            return true;
-        }
-        return false;
+        int current;
+        do {
+            current = quantity;
+            if (current < amount) {
+                return false;
+            }
+        } while (!QUANTITY.weakCompareAndSet(this, current, current - amount));
+        updateTimestamp();
+        return true;
     }
 
     /**
@@ -169,11 +201,11 @@ public class Product implements Serializable {
      * 
      * @param amount amount to add
      */
-    public synchronized void addQuantity(int amount) {
+    public void addQuantity(int amount) {
         if (amount < 0) {
             throw new IllegalArgumentException("Amount cannot be negative");
         }
-        quantity += amount;
+        QUANTITY.getAndAdd(this, amount);
         updateTimestamp();
     }
 
@@ -204,10 +236,50 @@ public class Product implements Serializable {
     }
 
     /**
-     * Update the last modified timestamp
+     * Write this product in the compact binary wire format
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(productId);
+        out.writeUTF(name);
+        writeOptionalUTF(out, description);
+        out.writeDouble(price);
+        out.writeInt(quantity);
+        out.writeInt(minimumStock);
+        writeOptionalUTF(out, category);
+        out.writeLong(lastUpdated);
+    }
+
+    /**
+     * Read a product written by {@link #writeTo(DataOutput)}
+     */
+    public static Product readFrom(DataInput in) throws IOException {
+        Product product = new Product(in.readUTF(), in.readUTF(), readOptionalUTF(in),
+                in.readDouble(), in.readInt(), in.readInt());
+        product.category = readOptionalUTF(in);
+        product.lastUpdated = in.readLong();
+        return product;
+    }
+
+    private static void writeOptionalUTF(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptionalUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Update the last modified timestamp. Only writes when the clock has moved
+     * on, so a hot product is not rewritten by every concurrent sale.
      */
     private void updateTimestamp() {
-        this.lastUpdated = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        if (now > lastUpdated) {
+            lastUpdated = now;
+        }
     }
 
     /**
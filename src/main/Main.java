@@ -2,6 +2,7 @@ package main;
 
 import client.InventoryClientApp;
 import server.BranchServer;
+import server.ServerOptions;
 import javafx.application.Application;
 
 /**
@@ -12,8 +13,26 @@ public class Main {
     public static void main(String[] args) {
         if (args.length == 0) {
             System.out.println("Usage:");
-            System.out.println("  java main.Main client                    - Launch JavaFX client");
-            System.out.println("  java main.Main server <branchId> <port>  - Launch branch server");
+            System.out.println("  java main.Main client                              - Launch JavaFX client");
+            System.out.println("  java main.Main server <branchId> <port> [options]  - Launch branch server");
+            System.out.println("Server options:");
+            System.out.println("  --transport=blocking|nio  - Branch link transport (default: blocking)");
+            System.out.println("  --threads=platform|virtual - Threads for socket accept loops and handlers; virtual needs Java 21 (default: platform)");
+            System.out.println("  --codec=binary|serialized - Message encoding on branch links (default: binary)");
+            System.out.println("  --queue-capacity=<n>      - Outbound queue depth per branch link (default: 10000)");
+            System.out.println("  --overflow=block|drop-newest|drop-oldest - Full-queue policy (default: block)");
+            System.out.println("  --link-scheduling=fifo|strict|weighted - Order of control, transactional and bulk messages on each branch link (default: weighted)");
+            System.out.println("  --dispatch-lanes=<n>      - Handler threads per traffic class for branch messages (default: 2, 0 = on the network thread)");
+            System.out.println("  --data-dir=<path>         - Directory for the replication log (default: data)");
+            System.out.println("  --fsync=always|interval|never - When the replication log is forced to disk (default: interval)");
+            System.out.println("  --replication-batch=<n>   - Max log entries per replication broadcast (default: 128)");
+            System.out.println("  --replication-linger=<us> - Wait for more entries before broadcasting (default: 200, 0 = per group commit)");
+            System.out.println("  --write-quorum=<n>        - Branches that must acknowledge a stock transfer (default: 0)");
+            System.out.println("  --ack-timeout=<ms>        - How long to wait for the write quorum (default: 5000)");
+            System.out.println("  --clock=lamport|hybrid    - Logical timestamps, or hybrid ones that track wall time (default: lamport)");
+            System.out.println("  --stock-transfers=request|escrow - Ask branches for stock, or hold escrowed shares (default: request)");
+            System.out.println("  --mutex=ricart-agrawala|maekawa|suzuki-kasami - Mutual exclusion algorithm: maekawa for larger clusters, suzuki-kasami when one branch does most transfers (default: ricart-agrawala)");
+            System.out.println("  --branches=<id,id,...>    - Every branch ID in the cluster, this one included; required by maekawa and suzuki-kasami");
             return;
         }
 
@@ -30,10 +49,13 @@ public class Main {
                 try {
                     String branchId = args[1];
                     int port = Integer.parseInt(args[2]);
-                    BranchServer server = new BranchServer(branchId, port);
+                    ServerOptions options = ServerOptions.parse(args, 3);
+                    BranchServer server = new BranchServer(branchId, port, options);
                     server.start();
                 } catch (NumberFormatException e) {
                     System.out.println("Invalid port number: " + args[2]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid server option: " + e.getMessage());
                 }
                 break;
             default:
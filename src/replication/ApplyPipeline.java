@@ -0,0 +1,126 @@
+package replication;
+
+import inventory.InventoryManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies received log entries to replica inventories on a pool of workers.
+ * Entries are partitioned by origin and resource, so one product's entries are
+ * applied in submission (timestamp) order while different products are applied
+ * in parallel.
+ */
+class ApplyPipeline {
+    private final ExecutorService[] partitions;
+    private final AtomicLong pending = new AtomicLong();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder totalLagNanos = new LongAdder();
+    private volatile long maxLagNanos;
+
+    ApplyPipeline(String nodeId, int workers) {
+        partitions = new ExecutorService[workers];
+        for (int i = 0; i < workers; i++) {
+            String name = "apply-" + nodeId + "-" + i;
+            partitions[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Queue an entry for its replica. Entries of one origin and resource must
+     * be submitted in timestamp order.
+     */
+    void submit(InventoryManager replica, LogEntry entry) {
+        long receivedAt = System.nanoTime();
+        pending.incrementAndGet();
+        partitionFor(entry).execute(() -> {
+            try {
+                if (replica.applyChange(entry.getOperation(), entry.getResourceId(), entry.getData())) {
+                    applied.increment();
+                } else {
+                    skipped.increment();
+                }
+            } catch (RuntimeException e) {
+                skipped.increment();
+                System.err.println("Failed to apply " + entry + ": " + e.getMessage());
+            } finally {
+                long lag = System.nanoTime() - receivedAt;
+                totalLagNanos.add(lag);
+                if (lag > maxLagNanos) {
+                    maxLagNanos = lag;
+                }
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Wait until everything submitted so far has been applied
+     */
+    void drain() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(partitions.length);
+        for (ExecutorService partition : partitions) {
+            partition.execute(done::countDown);
+        }
+        done.await();
+    }
+
+    void shutdown() {
+        for (ExecutorService partition : partitions) {
+            partition.shutdown();
+        }
+        try {
+            for (ExecutorService partition : partitions) {
+                if (!partition.awaitTermination(5, TimeUnit.SECONDS)) {
+                    partition.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (ExecutorService partition : partitions) {
+                partition.shutdownNow();
+            }
+        }
+    }
+
+    private ExecutorService partitionFor(LogEntry entry) {
+        int h = 31 * String.valueOf(entry.getNodeId()).hashCode() + String.valueOf(entry.getResourceId()).hashCode();
+        h ^= h >>> 16;
+        return partitions[Math.floorMod(h, partitions.length)];
+    }
+
+    /**
+     * Entries submitted but not yet applied
+     */
+    long getPending() {
+        return pending.get();
+    }
+
+    long getApplied() {
+        return applied.sum();
+    }
+
+    long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Average time from submission to apply, in microseconds
+     */
+    double getAverageLagMicros() {
+        long count = applied.sum() + skipped.sum();
+        return count == 0 ? 0.0 : totalLagNanos.sum() / 1000.0 / count;
+    }
+
+    double getMaxLagMicros() {
+        return maxLagNanos / 1000.0;
+    }
+}
@@ -0,0 +1,15 @@
+package replication;
+
+/**
+ * When the write-ahead log forces appended records to disk
+ */
+public enum FsyncPolicy {
+    // Force every group commit before the append returns (survives power loss)
+    ALWAYS,
+
+    // Force in the background every few milliseconds (bounded loss on power failure)
+    INTERVAL,
+
+    // Leave flushing to the operating system (survives process crashes only)
+    NEVER
+}
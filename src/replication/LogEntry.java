@@ -1,5 +1,10 @@
 package replication;
 
+import communication.WireFormat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -63,6 +68,29 @@ public class LogEntry implements Serializable {
         this.data = data;
     }
 
+    /**
+     * Write this entry in the compact binary wire format
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        WireFormat.writeString(out, nodeId);
+        WireFormat.writeVarLong(out, timestamp);
+        WireFormat.writeString(out, operation);
+        WireFormat.writeString(out, resourceId);
+        WireFormat.writeValue(out, data);
+    }
+
+    /**
+     * Read an entry written by {@link #writeTo(DataOutput)}
+     */
+    public static LogEntry readFrom(DataInput in) throws IOException {
+        return new LogEntry(
+                WireFormat.readString(in),
+                WireFormat.readVarLong(in),
+                WireFormat.readString(in),
+                WireFormat.readString(in),
+                WireFormat.readValue(in));
+    }
+
     @Override
     public String toString() {
         return String.format("LogEntry{node=%s, timestamp=%d, operation=%s, resource=%s}",
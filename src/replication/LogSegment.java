@@ -0,0 +1,127 @@
+package replication;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One file of the write-ahead log, holding consecutive records starting at
+ * its base LSN. Only the newest segment is open for writing.
+ */
+class LogSegment {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    private final Path path;
+    private final long baseLsn;
+    private volatile long size;
+    private volatile long lastLsn;
+    private volatile long maxTimestamp;
+    private final Map<String, Long> originMaxTimestamps = new ConcurrentHashMap<>();
+    private FileChannel channel;
+
+    LogSegment(Path path, long baseLsn, long size, long lastLsn, long maxTimestamp) {
+        this.path = path;
+        this.baseLsn = baseLsn;
+        this.size = size;
+        this.lastLsn = lastLsn;
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    static Path pathFor(Path directory, long baseLsn) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, baseLsn, SUFFIX));
+    }
+
+    /**
+     * Parse the base LSN from a segment file name
+     *
+     * @return the base LSN, or -1 if the name is not a segment file
+     */
+    static long parseBaseLsn(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Open the segment for appending after its last valid record
+     */
+    void openForAppend() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(size);
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Record a batch that has been written to the channel; readers only see
+     * bytes up to the published size
+     */
+    void appended(int bytes, long batchLastLsn, long batchMaxTimestamp) {
+        maxTimestamp = Math.max(maxTimestamp, batchMaxTimestamp);
+        lastLsn = batchLastLsn;
+        size += bytes;
+    }
+
+    /**
+     * Note a record of an origin, so truncation can tell whose entries the
+     * segment holds
+     */
+    void noteOrigin(String origin, long timestamp) {
+        originMaxTimestamps.merge(origin, timestamp, Math::max);
+    }
+
+    void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getBaseLsn() {
+        return baseLsn;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getLastLsn() {
+        return lastLsn;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Largest timestamp per origin among this segment's records
+     */
+    Map<String, Long> getOriginMaxTimestamps() {
+        return originMaxTimestamps;
+    }
+
+    boolean isEmpty() {
+        return lastLsn < baseLsn;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LogSegment{base=%d, last=%d, size=%d}", baseLsn, lastLsn, size);
+    }
+}
@@ -2,45 +2,242 @@ package replication;
 
 import communication.*;
 import distributed.LamportClock;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import distributed.VectorClock;
+import inventory.InventoryManager;
+import inventory.Product;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Manages replication of operations across branch servers
+ * Manages replication of operations across branch servers.
+ * Changes to the local inventory are kept in an on-disk write-ahead log, so the
+ * log survives restarts and does not grow the heap. Entries received from
+ * other branches are stored in the same log and applied to a replica
+ * inventory per origin branch, on a worker pool partitioned by product.
+ *
+ * Our own entries are broadcast in LOG_BATCH messages once written, collecting
+ * up to a batch size or for a short linger time, and each batch is acknowledged
+ * with one LOG_ACK. Every batch travels with the timestamp of its origin's
+ * previous entry, so a receiver can tell duplicates from gaps. A gap triggers a
+ * catch-up read that the origin serves from its log's timestamp index in
+ * LOG_BATCH messages.
+ *
+ * With a write quorum set, callers can wait for a number of peers to
+ * acknowledge an entry. The waits are futures, so many writes can await
+ * acknowledgement at once.
+ *
+ * The local inventory and every replica are snapshotted periodically at a log
+ * position; on start they are restored from their snapshot plus the entries
+ * logged after it.
+ * Log segments are then truncated once their entries are covered by a
+ * snapshot and, for our own entries, acknowledged by every peer. A peer asking
+ * for entries that are no longer in the log gets the snapshot first and the
+ * chain continues from the snapshot's timestamp.
+ *
+ * A vector clock tracks the latest entry held from every origin and travels
+ * with each broadcast batch, so a receiver can tell when an origin changed a
+ * product without having seen our latest change to it: the two updates were
+ * concurrent.
  */
 public class ReplicationManager {
+    public static final int DEFAULT_BROADCAST_BATCH = 128;
+    public static final long DEFAULT_LINGER_MICROS = 200;
+    public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 5000;
+
+    private static final int MAX_BATCH_ENTRIES = 256;
+    private static final long CATCH_UP_RETRY_MILLIS = 2000;
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+    private static final int APPLY_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
     private final String nodeId;
     private final NetworkManager networkManager;
     private final LamportClock lamportClock;
-    private final ConcurrentLinkedQueue<LogEntry> logEntries;
+    private final Path logDirectory;
+    private final FsyncPolicy fsyncPolicy;
+    private volatile WriteAheadLog log;
+    private final SnapshotStore snapshots;
+    private volatile InventoryManager inventory;
+    private final Map<String, InventoryManager> replicas = new ConcurrentHashMap<>();
+    private final ApplyPipeline applier;
+    private volatile Set<String> peers = Collections.emptySet();
+    private final ReentrantLock orderLock = new ReentrantLock();
+    private volatile long lastLocalTimestamp;
+    private volatile long lastEnqueuedTimestamp;
+    private final VectorClock vectorClock = new VectorClock();
+    private final int clockIndex;
+    private final Map<String, Long> localChanges = new ConcurrentHashMap<>();
     private final Map<String, Long> lastSyncTimestamps;
+    private final Map<String, Long> lastReceived;
+    private final Map<String, Long> catchUpRequests;
     private final ScheduledExecutorService scheduler;
+    private final ExecutorService receiver;
+    private final ScheduledExecutorService flusher;
+    // Leads the log writes that asynchronous changes wait for
+    private final ExecutorService committer;
+    private final BroadcastBatcher batcher = new BroadcastBatcher();
+    private volatile int broadcastBatch = DEFAULT_BROADCAST_BATCH;
+    private volatile long lingerMicros = DEFAULT_LINGER_MICROS;
+    private volatile int writeQuorum;
+    private volatile long ackTimeoutMillis = DEFAULT_ACK_TIMEOUT_MILLIS;
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> ackWaiters = new ConcurrentSkipListMap<>();
+    private volatile long quorumTimestamp;
     private volatile boolean running = false;
 
+    // Statistics
+    private final AtomicLong receivedEntries = new AtomicLong();
+    private final AtomicLong duplicateEntries = new AtomicLong();
+    private final AtomicLong gapsDetected = new AtomicLong();
+    private final AtomicLong catchUpBatches = new AtomicLong();
+    private final AtomicLong broadcastBatches = new AtomicLong();
+    private final AtomicLong broadcastEntries = new AtomicLong();
+    private final AtomicLong snapshotsTaken = new AtomicLong();
+    private final AtomicLong snapshotsSent = new AtomicLong();
+    private final AtomicLong snapshotsInstalled = new AtomicLong();
+    private final AtomicLong concurrentUpdates = new AtomicLong();
+
     public ReplicationManager(String nodeId, NetworkManager networkManager, LamportClock lamportClock) {
+        this(nodeId, networkManager, lamportClock, Paths.get("data", nodeId, "wal"), FsyncPolicy.INTERVAL);
+    }
+
+    public ReplicationManager(String nodeId, NetworkManager networkManager, LamportClock lamportClock,
+            Path logDirectory, FsyncPolicy fsyncPolicy) {
         this.nodeId = nodeId;
         this.networkManager = networkManager;
         this.lamportClock = lamportClock;
-        this.logEntries = new ConcurrentLinkedQueue<>();
+        this.logDirectory = logDirectory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.snapshots = new SnapshotStore(logDirectory.resolveSibling("snapshots"));
         this.lastSyncTimestamps = new ConcurrentHashMap<>();
+        this.lastReceived = new ConcurrentHashMap<>();
+        this.catchUpRequests = new ConcurrentHashMap<>();
         this.scheduler = Executors.newScheduledThreadPool(2);
+        this.receiver = Executors.newSingleThreadExecutor();
+        this.flusher = Executors.newSingleThreadScheduledExecutor();
+        this.committer = Executors.newSingleThreadExecutor();
+        this.applier = new ApplyPipeline(nodeId, APPLY_WORKERS);
+        this.clockIndex = VectorClock.indexOf(nodeId);
+    }
+
+    /**
+     * Set the local inventory. On start it is restored from the log and its
+     * changes are logged from then on.
+     */
+    public void setInventoryManager(InventoryManager inventory) {
+        this.inventory = inventory;
+    }
+
+    /**
+     * Set how our entries are batched for broadcast: a batch is sent once it
+     * holds maxEntries entries or lingerMicros after its first entry. With a
+     * linger of 0 each group commit of the log is sent as one batch.
+     */
+    public void setBroadcastBatching(int maxEntries, long lingerMicros) {
+        if (maxEntries < 1 || lingerMicros < 0) {
+            throw new IllegalArgumentException("Invalid broadcast batching: " + maxEntries + " entries, " +
+                    lingerMicros + " us");
+        }
+        this.broadcastBatch = maxEntries;
+        this.lingerMicros = lingerMicros;
+    }
+
+    /**
+     * Set how many peers must acknowledge an entry before
+     * {@link #awaitAcknowledged(long)} completes (0 disables waiting), and how
+     * long to wait before failing with a TimeoutException
+     */
+    public void setWriteQuorum(int quorum, long timeoutMillis) {
+        if (quorum < 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid write quorum: " + quorum + " within " + timeoutMillis + " ms");
+        }
+        this.writeQuorum = quorum;
+        this.ackTimeoutMillis = timeoutMillis;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
     }
 
     /**
-     * Start the replication manager
+     * Set the branches that must acknowledge our entries before the log
+     * segments holding them can be truncated
      */
-    public void start() {
+    public void setPeers(Set<String> peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Start the replication manager, recovering the write-ahead log and
+     * snapshots from disk
+     */
+    public void start() throws IOException {
         if (running)
             return;
 
+        log = WriteAheadLog.open(logDirectory, fsyncPolicy);
+        snapshots.load();
+        System.out.println(String.format("Recovered %d log entries from %s in %d ms",
+                log.getRecoveredEntryCount(), logDirectory, log.getRecoveryMillis()));
+
+        Set<String> origins = log.getOrigins();
+        origins.addAll(log.getTruncatedOrigins());
+        origins.addAll(snapshots.getLatestSnapshots().keySet());
+        long maxTimestamp = 0;
+        for (String origin : origins) {
+            long latest = Math.max(0, Math.max(log.getMaxTimestamp(origin),
+                    Math.max(log.getTruncatedTimestamp(origin), snapshots.getLatestTimestamp(origin))));
+            if (origin.equals(nodeId)) {
+                lastLocalTimestamp = latest;
+                lastEnqueuedTimestamp = latest;
+            } else {
+                lastReceived.put(origin, latest);
+            }
+            advanceClock(origin, latest);
+            maxTimestamp = Math.max(maxTimestamp, latest);
+        }
+        // Never reissue a timestamp that is already in the log or a snapshot
+        if (maxTimestamp > lamportClock.getTime()) {
+            lamportClock.setTime(maxTimestamp);
+        }
+
+        InventoryManager local = inventory;
+        if (local != null) {
+            restore(nodeId, local);
+        }
+        origins.remove(nodeId);
+        for (String origin : origins) {
+            restore(origin, replicaFor(origin));
+        }
+
+        log.setAppendListener(batcher);
         running = true;
+        if (local != null) {
+            local.setChangeLog(new InventoryChangeLog());
+        }
 
-        // Schedule periodic synchronization
+        // Schedule periodic synchronization and compaction
         scheduler.scheduleAtFixedRate(this::performPeriodicSync, 10, 10, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::performSnapshot, SNAPSHOT_INTERVAL_SECONDS,
+                SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
         System.out.println("Replication Manager started for node: " + nodeId);
     }
@@ -53,111 +250,618 @@ public class ReplicationManager {
             return;
 
         running = false;
+        InventoryManager local = inventory;
+        if (local != null) {
+            local.setChangeLog(null);
+        }
         scheduler.shutdown();
+        receiver.shutdown();
 
         try {
             if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
                 scheduler.shutdownNow();
             }
+            if (!receiver.awaitTermination(5, TimeUnit.SECONDS)) {
+                receiver.shutdownNow();
+            }
         } catch (InterruptedException e) {
             scheduler.shutdownNow();
+            receiver.shutdownNow();
+        }
+        applier.shutdown();
+        committer.shutdown();
+        try {
+            committer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            committer.shutdownNow();
+        }
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing write-ahead log: " + e.getMessage());
+        }
+        // Let a broadcast in progress finish so the last batch follows it
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(5, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+        }
+        batcher.flush();
+        for (CompletableFuture<Void> waiter : ackWaiters.values()) {
+            waiter.completeExceptionally(new IllegalStateException("Replication manager stopped"));
         }
 
         System.out.println("Replication Manager stopped");
     }
 
     /**
-     * Log an operation for replication
+     * Log an operation for replication. The entry is appended to the
+     * write-ahead log and broadcast once it has been written.
+     *
+     * @throws UncheckedIOException if the log could not write the entry
      */
     public void logOperation(String operation, String resourceId, Object data) {
-        LogEntry entry = new LogEntry(
-                nodeId,
-                lamportClock.tick(),
-                operation,
-                resourceId,
-                data);
+        if (!running) {
+            throw new IllegalStateException("Replication manager is not started");
+        }
+        awaitLogged(enqueueOperation(operation, resourceId, data));
+    }
 
-        logEntries.offer(entry);
+    /**
+     * Queue an operation in the log without waiting for the write
+     *
+     * @return the entry's LSN, or -1 if it could not be logged
+     */
+    private long enqueueOperation(String operation, String resourceId, Object data) {
+        // Timestamps must reach the log in order so each peer sees an unbroken chain
+        orderLock.lock();
+        try {
+            if (!running) {
+                return -1;
+            }
+            LogEntry entry = new LogEntry(
+                    nodeId,
+                    lamportClock.tick(),
+                    operation,
+                    resourceId,
+                    data);
+            long lsn = log.enqueue(entry);
+            lastEnqueuedTimestamp = entry.getTimestamp();
+            return lsn;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to log operation " + operation + " on " + resourceId, e);
+        } finally {
+            orderLock.unlock();
+        }
+    }
 
-        // Broadcast to other nodes
-        broadcastLogEntry(entry);
+    /**
+     * Wait for an entry to be written. A failed write is never downgraded to
+     * an in-memory change: it is passed on to the caller.
+     */
+    private void awaitLogged(long lsn) {
+        if (lsn < 0) {
+            return;
+        }
+        try {
+            log.awaitWritten(lsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to log operation at LSN " + lsn, e);
+        }
     }
 
     /**
-     * Handle incoming replication messages
+     * Handle incoming replication messages. Received entries are processed in
+     * arrival order on the replication thread; catch-up reads run on the
+     * scheduler so a long read never holds up the network thread.
      */
     public void handleMessage(Message message) {
+        if (!running) {
+            return;
+        }
+        try {
+            switch (message.getType()) {
+                case LOG_ENTRY:
+                case LOG_BATCH:
+                case LOG_ACK:
+                case SNAPSHOT:
+                    receiver.execute(() -> handleReceived(message));
+                    break;
+                case SYNC_REQUEST:
+                    scheduler.execute(() -> handleSyncRequest(message));
+                    break;
+                default:
+                    break;
+            }
+        } catch (RejectedExecutionException e) {
+            // Stopping
+        }
+    }
+
+    private void handleReceived(Message message) {
         switch (message.getType()) {
             case LOG_ENTRY:
                 handleLogEntry(message);
                 break;
-            case SYNC_REQUEST:
-                handleSyncRequest(message);
+            case LOG_BATCH:
+                handleLogBatch(message);
                 break;
             case LOG_ACK:
                 handleLogAck(message);
                 break;
+            case SNAPSHOT:
+                handleSnapshot(message);
+                break;
+            default:
+                break;
         }
     }
 
     private void handleLogEntry(Message message) {
         LogEntry entry = message.getData("logEntry", LogEntry.class);
-        if (entry != null && !entry.getNodeId().equals(nodeId)) {
-            // Apply the log entry
-            applyLogEntry(entry);
+        Long prevTimestamp = message.getData("prevTimestamp", Long.class);
+        if (entry != null && prevTimestamp != null) {
+            receiveEntries(message.getSenderId(), entry.getNodeId(), prevTimestamp,
+                    Collections.singletonList(entry), null);
+        }
+    }
+
+    private void handleLogBatch(Message message) {
+        String origin = message.getStringData("origin");
+        Long prevTimestamp = message.getData("prevTimestamp", Long.class);
+        List<?> entries = message.getData("logEntries", List.class);
+        if (origin != null && prevTimestamp != null && entries != null) {
+            receiveEntries(message.getSenderId(), origin, prevTimestamp, entries,
+                    message.getData("vectorClock", VectorClock.class));
+        }
+    }
+
+    /**
+     * Store entries that continue the origin's chain, skip ones already held and
+     * request a catch-up read when the chain is broken. Each entry's
+     * predecessor is the previous entry in the message, or prevTimestamp for
+     * the first one. The origin's vector clock, when the batch carries one,
+     * marks the entries that are concurrent with our own changes.
+     */
+    private void receiveEntries(String senderId, String origin, long prevTimestamp, List<?> entries,
+            VectorClock originClock) {
+        if (origin == null || origin.equals(nodeId)) {
+            return;
+        }
+
+        long watermark = lastReceived.getOrDefault(origin, 0L);
+        long previous = prevTimestamp;
+        long lastLsn = -1;
+        List<LogEntry> accepted = new ArrayList<>();
+        try {
+            for (Object item : entries) {
+                LogEntry entry = (LogEntry) item;
+                long timestamp = entry.getTimestamp();
+                if (timestamp <= watermark) {
+                    duplicateEntries.incrementAndGet();
+                } else if (previous != watermark) {
+                    gapsDetected.incrementAndGet();
+                    requestCatchUp(senderId, origin, watermark);
+                    break;
+                } else {
+                    lastLsn = log.enqueue(entry);
+                    accepted.add(entry);
+                    watermark = timestamp;
+                }
+                previous = timestamp;
+            }
+            if (lastLsn >= 0) {
+                log.awaitWritten(lastLsn);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to store entries from " + origin + ": " + e.getMessage());
+            return;
+        }
+
+        lastReceived.put(origin, watermark);
+        advanceClock(origin, watermark);
+        receivedEntries.addAndGet(accepted.size());
+        if (!accepted.isEmpty()) {
+            InventoryManager replica = replicaFor(origin);
+            long seen = originClock != null ? originClock.get(clockIndex) : Long.MAX_VALUE;
+            for (LogEntry entry : accepted) {
+                Long changed = localChanges.get(entry.getResourceId());
+                if (changed != null && changed > seen) {
+                    concurrentUpdates.incrementAndGet();
+                }
+                applier.submit(replica, entry);
+            }
+        }
+
+        sendAck(senderId, origin, watermark);
+    }
+
+    /**
+     * Acknowledge everything held from an origin
+     */
+    private void sendAck(String targetNodeId, String origin, long watermark) {
+        Message ack = new Message(MessageType.LOG_ACK, nodeId, targetNodeId);
+        ack.putData("origin", origin);
+        ack.putData("timestamp", watermark);
+        networkManager.sendMessage(targetNodeId, ack);
+    }
+
+    /**
+     * Store a snapshot of an origin that replaces the entries up to its
+     * timestamp, when it is ahead of what we hold
+     */
+    private void handleSnapshot(Message message) {
+        String origin = message.getStringData("origin");
+        Long timestamp = message.getData("timestamp", Long.class);
+        List<?> items = message.getData("products", List.class);
+        if (origin == null || origin.equals(nodeId) || timestamp == null || items == null) {
+            return;
+        }
 
-            // Send acknowledgment
-            Message ack = new Message(MessageType.LOG_ACK, nodeId, message.getSenderId());
-            ack.putData("timestamp", entry.getTimestamp());
-            networkManager.sendMessage(message.getSenderId(), ack);
+        long watermark = lastReceived.getOrDefault(origin, 0L);
+        if (timestamp > watermark) {
+            List<Product> products = new ArrayList<>(items.size());
+            for (Object item : items) {
+                products.add((Product) item);
+            }
+            try {
+                snapshots.save(new Snapshot(origin, timestamp, products));
+                // Entries queued for the replica are all older than the snapshot
+                applier.drain();
+            } catch (IOException e) {
+                System.err.println("Failed to store snapshot of " + origin + ": " + e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            replicaFor(origin).restore(products);
+            watermark = timestamp;
+            lastReceived.put(origin, watermark);
+            advanceClock(origin, watermark);
+            snapshotsInstalled.incrementAndGet();
+            System.out.println("Installed snapshot of " + origin + " at timestamp " + timestamp);
         }
+        sendAck(message.getSenderId(), origin, watermark);
     }
 
+    /**
+     * Stream an origin's entries after the requested timestamp in LOG_BATCH
+     * messages, using the log's timestamp index to skip older entries. When
+     * some of those entries have been truncated, the origin's snapshot is sent
+     * first and the entries follow from its timestamp.
+     */
     private void handleSyncRequest(Message message) {
         Long fromTimestamp = message.getData("fromTimestamp", Long.class);
-        if (fromTimestamp != null) {
-            // Send all log entries after the requested timestamp
-            for (LogEntry entry : logEntries) {
-                if (entry.getTimestamp() > fromTimestamp) {
-                    Message logMsg = new Message(MessageType.LOG_ENTRY, nodeId, message.getSenderId());
-                    logMsg.putData("logEntry", entry);
-                    networkManager.sendMessage(message.getSenderId(), logMsg);
-                }
+        String origin = message.getStringData("origin");
+        if (fromTimestamp == null) {
+            return;
+        }
+        if (origin == null) {
+            origin = nodeId;
+        }
+
+        long from = fromTimestamp;
+        if (from < log.getTruncatedTimestamp(origin)) {
+            Snapshot snapshot = snapshots.getLatest(origin);
+            if (snapshot == null || snapshot.getTimestamp() < log.getTruncatedTimestamp(origin)) {
+                System.err.println("Cannot serve " + origin + " entries after " + from + " to " +
+                        message.getSenderId() + ": truncated without a snapshot");
+                return;
             }
+            sendSnapshot(message.getSenderId(), snapshot);
+            from = snapshot.getTimestamp();
         }
+
+        BatchSender sender = new BatchSender(message.getSenderId(), origin, from);
+        try {
+            log.replayOrigin(origin, from, sender);
+            sender.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to read log for sync with " + message.getSenderId() + ": " +
+                    e.getMessage());
+        }
+    }
+
+    private void sendSnapshot(String targetNodeId, Snapshot snapshot) {
+        Message snapshotMessage = new Message(MessageType.SNAPSHOT, nodeId, targetNodeId);
+        snapshotMessage.putData("origin", snapshot.getOrigin());
+        snapshotMessage.putData("timestamp", snapshot.getTimestamp());
+        snapshotMessage.putData("products", snapshot.getProducts());
+        networkManager.sendMessage(targetNodeId, snapshotMessage);
+        snapshotsSent.incrementAndGet();
     }
 
     private void handleLogAck(Message message) {
         Long timestamp = message.getData("timestamp", Long.class);
-        if (timestamp != null) {
-            lastSyncTimestamps.put(message.getSenderId(), timestamp);
+        String origin = message.getStringData("origin");
+        if (timestamp != null && (origin == null || origin.equals(nodeId))) {
+            lastSyncTimestamps.merge(message.getSenderId(), timestamp, Math::max);
+            completeAcknowledged();
         }
     }
 
-    private void broadcastLogEntry(LogEntry entry) {
-        Message logMessage = new Message(MessageType.LOG_ENTRY, nodeId, "");
-        logMessage.putData("logEntry", entry);
-        networkManager.broadcastMessage(logMessage);
+    /**
+     * Get a future that completes once the write quorum of peers has
+     * acknowledged our entries up to the given timestamp. It fails with a
+     * TimeoutException if that takes longer than the configured timeout.
+     */
+    public CompletableFuture<Void> awaitAcknowledged(long timestamp) {
+        if (writeQuorum <= 0 || timestamp <= quorumTimestamp) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> waiter = ackWaiters.computeIfAbsent(timestamp, key -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.orTimeout(ackTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .whenComplete((ignored, error) -> ackWaiters.remove(key, future));
+            return future;
+        });
+        // An acknowledgement may have arrived while the waiter was added
+        if (timestamp <= quorumTimestamp) {
+            waiter.complete(null);
+        }
+        return waiter;
     }
 
-    private void applyLogEntry(LogEntry entry) {
-        // This would apply the operation locally
-        // Implementation depends on the specific operation type
-        System.out.println("Applying log entry: " + entry);
+    /**
+     * Complete the waiters covered by the latest acknowledgements (called on
+     * the receiver thread)
+     */
+    private void completeAcknowledged() {
+        int quorum = writeQuorum;
+        if (quorum <= 0 || lastSyncTimestamps.size() < quorum) {
+            return;
+        }
+        // The quorum has acknowledged up to the quorum-th highest acknowledgement
+        long[] acks = lastSyncTimestamps.values().stream().mapToLong(Long::longValue).sorted().toArray();
+        long acknowledged = acks[acks.length - quorum];
+        if (acknowledged <= quorumTimestamp) {
+            return;
+        }
+        quorumTimestamp = acknowledged;
+        for (CompletableFuture<Void> waiter : ackWaiters.headMap(acknowledged, true).values()) {
+            waiter.complete(null);
+        }
+    }
+
+    private void requestCatchUp(String targetNodeId, String origin, long fromTimestamp) {
+        long now = System.currentTimeMillis();
+        Long lastRequest = catchUpRequests.get(origin);
+        if (lastRequest != null && now - lastRequest < CATCH_UP_RETRY_MILLIS) {
+            return;
+        }
+        catchUpRequests.put(origin, now);
+        sendSyncRequest(targetNodeId, origin, fromTimestamp);
+    }
+
+    private void sendSyncRequest(String targetNodeId, String origin, long fromTimestamp) {
+        Message syncRequest = new Message(MessageType.SYNC_REQUEST, this.nodeId, targetNodeId);
+        syncRequest.putData("origin", origin);
+        syncRequest.putData("fromTimestamp", fromTimestamp);
+        networkManager.sendMessage(targetNodeId, syncRequest);
+    }
+
+    private InventoryManager replicaFor(String origin) {
+        return replicas.computeIfAbsent(origin, InventoryManager::new);
+    }
+
+    /**
+     * Rebuild an origin's inventory from its latest snapshot and the entries
+     * logged after it
+     */
+    private void restore(String origin, InventoryManager target) throws IOException {
+        Snapshot snapshot = snapshots.getLatest(origin);
+        long from = Long.MIN_VALUE;
+        if (snapshot != null) {
+            target.restore(snapshot.getProducts());
+            from = snapshot.getTimestamp();
+        }
+        long[] replayed = new long[1];
+        log.replayOrigin(origin, from, (lsn, entry) -> {
+            target.applyChange(entry.getOperation(), entry.getResourceId(), entry.getData());
+            replayed[0]++;
+            return true;
+        });
+        if (snapshot != null || replayed[0] > 0) {
+            System.out.println(String.format("Restored %s inventory from %s and %d log entries", origin,
+                    snapshot != null ? "snapshot at " + snapshot.getTimestamp() : "defaults", replayed[0]));
+        }
     }
 
     private void performPeriodicSync() {
         if (!running)
             return;
 
-        // Request synchronization from other nodes
+        // Ask each node for its own entries after the last one we hold
         for (String nodeId : networkManager.getConnectedNodes()) {
-            Long lastSync = lastSyncTimestamps.get(nodeId);
-            long fromTimestamp = (lastSync != null) ? lastSync : 0;
+            sendSyncRequest(nodeId, nodeId, lastReceived.getOrDefault(nodeId, 0L));
+        }
+    }
+
+    private void performSnapshot() {
+        if (!running)
+            return;
+
+        try {
+            createSnapshot();
+            // Replicas are snapshotted between received messages
+            receiver.execute(() -> {
+                try {
+                    snapshotReplicas();
+                    compactLog();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Snapshot or log compaction failed: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot every replica that has applied entries since its last snapshot
+     * (called on the receiver thread, so no entries arrive meanwhile)
+     */
+    private void snapshotReplicas() throws IOException, InterruptedException {
+        applier.drain();
+        for (Map.Entry<String, InventoryManager> replica : replicas.entrySet()) {
+            String origin = replica.getKey();
+            long position = lastReceived.getOrDefault(origin, 0L);
+            if (position > snapshots.getLatestTimestamp(origin)) {
+                snapshots.save(new Snapshot(origin, position, replica.getValue().snapshot()));
+                snapshotsTaken.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Snapshot the local state at the current log position, unless nothing
+     * has been logged since the last snapshot
+     *
+     * @return the new snapshot, or null if none was taken
+     */
+    public synchronized Snapshot createSnapshot() throws IOException {
+        InventoryManager local = inventory;
+        if (local == null || !running) {
+            return null;
+        }
+
+        // Changes are logged under the inventory's locks, so none can slip between copy and position
+        long[] position = new long[1];
+        List<Product> products = local.snapshot(() -> position[0] = lastEnqueuedTimestamp);
+        Snapshot latest = snapshots.getLatest(nodeId);
+        if (latest != null && latest.getTimestamp() >= position[0]) {
+            return null;
+        }
+
+        Snapshot snapshot = new Snapshot(nodeId, position[0], products);
+        snapshots.save(snapshot);
+        snapshotsTaken.incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * Truncate log segments whose entries are all covered: ours by our latest
+     * snapshot and every peer's acknowledgement, other origins' by the latest
+     * snapshot we hold of them
+     *
+     * @return the number of segments removed
+     */
+    public int compactLog() throws IOException {
+        if (!running) {
+            return 0;
+        }
+        Map<String, Long> covered = new HashMap<>();
+        for (Snapshot snapshot : snapshots.getLatestSnapshots().values()) {
+            covered.put(snapshot.getOrigin(), snapshot.getTimestamp());
+        }
 
-            Message syncRequest = new Message(MessageType.SYNC_REQUEST, this.nodeId, nodeId);
-            syncRequest.putData("fromTimestamp", fromTimestamp);
-            networkManager.sendMessage(nodeId, syncRequest);
+        long local = covered.getOrDefault(nodeId, Long.MIN_VALUE);
+        Set<String> required = new HashSet<>(peers);
+        required.addAll(lastSyncTimestamps.keySet());
+        for (String peer : required) {
+            local = Math.min(local, lastSyncTimestamps.getOrDefault(peer, Long.MIN_VALUE));
+        }
+        covered.put(nodeId, local);
+
+        int removed = log.truncate(covered);
+        if (removed > 0) {
+            System.out.println(String.format("Truncated %d log segment(s), first LSN now %d",
+                    removed, log.getFirstLsn()));
+        }
+        return removed;
+    }
+
+    /**
+     * Get the newest snapshot held for an origin node, or null
+     */
+    public Snapshot getLatestSnapshot(String origin) {
+        return snapshots.getLatest(origin);
+    }
+
+    /**
+     * Get the newest retained snapshot of an origin taken at or before a wall
+     * time in milliseconds, or null. Needs a hybrid clock.
+     */
+    public Snapshot getSnapshotAt(String origin, long wallMillis) throws IOException {
+        requireHybridClock();
+        return snapshots.getAtOrBefore(origin, LamportClock.fromWallTime(wallMillis + 1) - 1);
+    }
+
+    /**
+     * Visit an origin's logged entries made at or after a wall time in
+     * milliseconds, in log order, seeking through the log's timestamp index.
+     * Entries already truncated are not visited. Needs a hybrid clock.
+     */
+    public void replaySince(String origin, long wallMillis, WriteAheadLog.EntryVisitor visitor) throws IOException {
+        requireHybridClock();
+        log.replayOrigin(origin, LamportClock.fromWallTime(wallMillis) - 1, visitor);
+    }
+
+    private void requireHybridClock() {
+        if (!lamportClock.isHybrid()) {
+            throw new IllegalStateException("Wall time queries need a hybrid clock");
+        }
+    }
+
+    /**
+     * Get the replica inventory of another branch, built from its log entries
+     * (null if nothing has been received from it)
+     */
+    public InventoryManager getReplica(String origin) {
+        return replicas.get(origin);
+    }
+
+    /**
+     * Get the replica inventories by origin branch
+     */
+    public Map<String, InventoryManager> getReplicas() {
+        return new HashMap<>(replicas);
+    }
+
+    /**
+     * Get the number of received entries not yet applied to their replica
+     */
+    public long getPendingApplies() {
+        return applier.getPending();
+    }
+
+    /**
+     * Get the average time from receiving an entry to applying it, in
+     * microseconds
+     */
+    public double getApplyLagMicros() {
+        return applier.getAverageLagMicros();
+    }
+
+    /**
+     * Get a copy of the vector clock: the latest timestamp held from every
+     * origin, ours included
+     */
+    public VectorClock getVectorClock() {
+        synchronized (vectorClock) {
+            return vectorClock.copy();
+        }
+    }
+
+    /**
+     * Get the number of received entries that changed a product concurrently
+     * with one of our own changes to it
+     */
+    public long getConcurrentUpdates() {
+        return concurrentUpdates.get();
+    }
+
+    private void advanceClock(String origin, long timestamp) {
+        int index = origin.equals(nodeId) ? clockIndex : VectorClock.indexOf(origin);
+        synchronized (vectorClock) {
+            vectorClock.advance(index, timestamp);
         }
     }
 
@@ -165,13 +869,247 @@ public class ReplicationManager {
      * Get the current log size
      */
     public int getLogSize() {
-        return logEntries.size();
+        return log != null ? (int) Math.min(Integer.MAX_VALUE, log.getEntryCount()) : 0;
     }
 
     /**
-     * Get replication status
+     * Get the write-ahead log (null before start)
+     */
+    public WriteAheadLog getLog() {
+        return log;
+    }
+
+    /**
+     * Get replication status: the latest timestamp of ours each peer has
+     * acknowledged
      */
     public Map<String, Long> getSyncStatus() {
         return new ConcurrentHashMap<>(lastSyncTimestamps);
     }
+
+    /**
+     * Get the latest timestamp held from each origin node
+     */
+    public Map<String, Long> getReceivedTimestamps() {
+        return new ConcurrentHashMap<>(lastReceived);
+    }
+
+    /**
+     * Get replication statistics
+     */
+    public String getStatistics() {
+        long batches = broadcastBatches.get();
+        return String.format("[%s] Replication Stats - Log: %d, Broadcast batches: %d (avg %.1f entries), " +
+                "Received: %d, Duplicates: %d, Gaps: %d, Catch-up batches sent: %d, Snapshots taken/sent/installed: %d/%d/%d, Applied: %d " +
+                "(skipped %d, pending %d), Apply lag avg/max: %.0f/%.0f us, Concurrent updates: %d",
+                nodeId, getLogSize(), batches, batches == 0 ? 0.0 : (double) broadcastEntries.get() / batches,
+                receivedEntries.get(), duplicateEntries.get(), gapsDetected.get(),
+                catchUpBatches.get(), snapshotsTaken.get(), snapshotsSent.get(), snapshotsInstalled.get(),
+                applier.getApplied(), applier.getSkipped(), applier.getPending(),
+                applier.getAverageLagMicros(), applier.getMaxLagMicros(), concurrentUpdates.get());
+    }
+
+    /**
+     * Collects our own entries, in log order as the write-ahead log writes
+     * them, into LOG_BATCH broadcasts. The log's writer only queues entries;
+     * the flusher thread sends the batches, so a peer with a full outbound
+     * queue never holds up a group commit.
+     */
+    private class BroadcastBatcher implements WriteAheadLog.AppendListener {
+        private final ReentrantLock lock = new ReentrantLock();
+        private List<LogEntry> pending = new ArrayList<>();
+        private long prevTimestamp;
+        private VectorClock batchClock;
+        private ScheduledFuture<?> lingerTask;
+
+        @Override
+        public void appended(long lsn, LogEntry entry) {
+            if (!nodeId.equals(entry.getNodeId())) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    prevTimestamp = lastLocalTimestamp;
+                    // What we held before the batch's first entry
+                    synchronized (vectorClock) {
+                        batchClock = vectorClock.copy();
+                    }
+                }
+                pending.add(entry);
+                lastLocalTimestamp = entry.getTimestamp();
+                synchronized (vectorClock) {
+                    vectorClock.advance(clockIndex, lastLocalTimestamp);
+                }
+                if (pending.size() >= broadcastBatch) {
+                    scheduleFlush(0);
+                } else if (lingerTask == null && lingerMicros > 0) {
+                    scheduleFlush(lingerMicros);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void batchWritten() {
+            if (lingerMicros == 0) {
+                lock.lock();
+                try {
+                    if (!pending.isEmpty()) {
+                        scheduleFlush(0);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Have the flusher send the batch after a delay, replacing a later
+         * flush already scheduled (called with the lock held)
+         */
+        private void scheduleFlush(long delayMicros) {
+            if (lingerTask != null) {
+                if (delayMicros > 0 || lingerTask.getDelay(TimeUnit.MICROSECONDS) <= 0) {
+                    return;
+                }
+                lingerTask.cancel(false);
+            }
+            try {
+                lingerTask = flusher.schedule(this::flush, delayMicros, TimeUnit.MICROSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Stopping; the final flush sends the batch
+            }
+        }
+
+        /**
+         * Broadcast the pending entries. Runs on the flusher, and once more
+         * on stop after the flusher has ended, so batches go out in order;
+         * the broadcast itself happens outside the lock, which the log's
+         * writer needs to queue entries.
+         */
+        void flush() {
+            Message batchMessage;
+            int entries;
+            lock.lock();
+            try {
+                lingerTask = null;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batchMessage = new Message(MessageType.LOG_BATCH, nodeId, "");
+                batchMessage.putData("origin", nodeId);
+                batchMessage.putData("prevTimestamp", prevTimestamp);
+                batchMessage.putData("logEntries", pending);
+                batchMessage.putData("vectorClock", batchClock);
+                entries = pending.size();
+                pending = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            networkManager.broadcastMessage(batchMessage);
+            broadcastBatches.incrementAndGet();
+            broadcastEntries.addAndGet(entries);
+        }
+    }
+
+    /**
+     * Logs changes to the local inventory as they are made
+     */
+    private class InventoryChangeLog implements InventoryManager.ChangeLog {
+        // LSN and timestamp of the last change this thread recorded
+        private final ThreadLocal<long[]> lastRecord = ThreadLocal.withInitial(() -> new long[] {-1, 0});
+
+        @Override
+        public long record(String operation, String productId, Object data) {
+            orderLock.lock();
+            try {
+                long lsn = enqueueOperation(operation, productId, data);
+                long[] last = lastRecord.get();
+                last[0] = lsn;
+                last[1] = lastEnqueuedTimestamp;
+                if (lsn >= 0) {
+                    localChanges.put(productId, lastEnqueuedTimestamp);
+                }
+                return lsn;
+            } finally {
+                orderLock.unlock();
+            }
+        }
+
+        @Override
+        public void checkWritable() {
+            try {
+                log.checkWritable();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void awaitRecorded(long ticket) {
+            awaitLogged(ticket);
+        }
+
+        /**
+         * The committer writes the group commit holding the change; changes
+         * queued behind one already written complete without another write
+         */
+        @Override
+        public CompletableFuture<Void> recorded(long ticket) {
+            try {
+                return CompletableFuture.runAsync(() -> awaitLogged(ticket), committer);
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Replication manager stopped"));
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> awaitReplicated(long ticket) {
+            long[] last = lastRecord.get();
+            // Waiting for a later entry is never too early
+            return awaitAcknowledged(last[0] == ticket ? last[1] : lastEnqueuedTimestamp);
+        }
+    }
+
+    /**
+     * Collects replayed entries into LOG_BATCH messages for one requester
+     */
+    private class BatchSender implements WriteAheadLog.EntryVisitor {
+        private final String targetNodeId;
+        private final String origin;
+        private long prevTimestamp;
+        private List<LogEntry> batch = new ArrayList<>();
+
+        BatchSender(String targetNodeId, String origin, long prevTimestamp) {
+            this.targetNodeId = targetNodeId;
+            this.origin = origin;
+            this.prevTimestamp = prevTimestamp;
+        }
+
+        @Override
+        public boolean visit(long lsn, LogEntry entry) {
+            batch.add(entry);
+            if (batch.size() >= MAX_BATCH_ENTRIES) {
+                flush();
+            }
+            return running;
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            Message batchMessage = new Message(MessageType.LOG_BATCH, nodeId, targetNodeId);
+            batchMessage.putData("origin", origin);
+            batchMessage.putData("prevTimestamp", prevTimestamp);
+            batchMessage.putData("logEntries", batch);
+            networkManager.sendMessage(targetNodeId, batchMessage);
+            catchUpBatches.incrementAndGet();
+
+            prevTimestamp = batch.get(batch.size() - 1).getTimestamp();
+            batch = new ArrayList<>();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package replication;
+
+import communication.WireFormat;
+import inventory.Product;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inventory state of one origin node, covering every entry that origin logged
+ * up to and including the snapshot timestamp
+ */
+public class Snapshot {
+    private final String origin;
+    private final long timestamp;
+    private final long createdAt;
+    private final List<Product> products;
+
+    public Snapshot(String origin, long timestamp, List<Product> products) {
+        this(origin, timestamp, System.currentTimeMillis(), products);
+    }
+
+    private Snapshot(String origin, long timestamp, long createdAt, List<Product> products) {
+        this.origin = origin;
+        this.timestamp = timestamp;
+        this.createdAt = createdAt;
+        this.products = Collections.unmodifiableList(new ArrayList<>(products));
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Timestamp of the origin's last log entry included in this snapshot
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    /**
+     * Write this snapshot in the compact binary format
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        WireFormat.writeString(out, origin);
+        WireFormat.writeVarLong(out, timestamp);
+        out.writeLong(createdAt);
+        WireFormat.writeVarInt(out, products.size());
+        for (Product product : products) {
+            product.writeTo(out);
+        }
+    }
+
+    /**
+     * Read a snapshot written by {@link #writeTo(DataOutput)}
+     */
+    public static Snapshot readFrom(DataInput in) throws IOException {
+        String origin = WireFormat.readString(in);
+        long timestamp = WireFormat.readVarLong(in);
+        long createdAt = in.readLong();
+        int count = WireFormat.readLength(in);
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(Product.readFrom(in));
+        }
+        return new Snapshot(origin, timestamp, createdAt, products);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Snapshot{origin=%s, timestamp=%d, products=%d}", origin, timestamp, products.size());
+    }
+}
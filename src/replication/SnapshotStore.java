@@ -0,0 +1,175 @@
+package replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshots on disk, one directory per origin. A snapshot is written to a
+ * temporary file and renamed into place, and carries a CRC so a damaged file is
+ * skipped in favour of the previous one.
+ *
+ * File layout: [int magic][snapshot][int crc32c of the snapshot bytes]
+ */
+class SnapshotStore {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int RETAINED = 2;
+
+    private final Path directory;
+    private final Map<String, Snapshot> latest = new ConcurrentHashMap<>();
+
+    SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Load the newest readable snapshot of every origin
+     */
+    void load() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> origins = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path originDirectory : origins) {
+                List<Path> files = list(originDirectory);
+                for (int i = files.size() - 1; i >= 0; i--) {
+                    Snapshot snapshot = read(files.get(i));
+                    if (snapshot != null) {
+                        latest.put(snapshot.getOrigin(), snapshot);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot durably and make it the origin's latest. Older
+     * snapshots beyond the retained count are removed.
+     */
+    void save(Snapshot snapshot) throws IOException {
+        Path originDirectory = directory.resolve(snapshot.getOrigin());
+        Files.createDirectories(originDirectory);
+        Path target = originDirectory.resolve(String.format("%s%020d%s", PREFIX, snapshot.getTimestamp(), SUFFIX));
+        Path temp = originDirectory.resolve(target.getFileName() + ".tmp");
+
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            DataOutputStream body = new DataOutputStream(new CheckedOutputStream(out, crc));
+            snapshot.writeTo(body);
+            body.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        latest.merge(snapshot.getOrigin(), snapshot,
+                (current, added) -> added.getTimestamp() >= current.getTimestamp() ? added : current);
+
+        List<Path> files = list(originDirectory);
+        for (int i = 0; i < files.size() - RETAINED; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /**
+     * Get the newest snapshot of an origin, or null if there is none
+     */
+    Snapshot getLatest(String origin) {
+        return latest.get(origin);
+    }
+
+    /**
+     * Timestamp of the newest snapshot of an origin, or Long.MIN_VALUE
+     */
+    long getLatestTimestamp(String origin) {
+        Snapshot snapshot = latest.get(origin);
+        return snapshot != null ? snapshot.getTimestamp() : Long.MIN_VALUE;
+    }
+
+    Map<String, Snapshot> getLatestSnapshots() {
+        return latest;
+    }
+
+    /**
+     * Read the newest retained snapshot of an origin at or before a timestamp,
+     * chosen by file name so only that file is read
+     *
+     * @return the snapshot, or null if none is retained
+     */
+    Snapshot getAtOrBefore(String origin, long timestamp) throws IOException {
+        Path originDirectory = directory.resolve(origin);
+        if (!Files.isDirectory(originDirectory)) {
+            return null;
+        }
+        List<Path> files = list(originDirectory);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            String name = files.get(i).getFileName().toString();
+            long fileTimestamp;
+            try {
+                fileTimestamp = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (fileTimestamp <= timestamp) {
+                Snapshot snapshot = read(files.get(i));
+                if (snapshot != null) {
+                    return snapshot;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Snapshot read(Path file) {
+        CRC32C crc = new CRC32C();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            Snapshot snapshot = Snapshot.readFrom(new DataInputStream(new CheckedInputStream(in, crc)));
+            if (data.readInt() != (int) crc.getValue()) {
+                throw new IOException("checksum mismatch");
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Skipping unreadable snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Snapshot files of one origin, oldest first
+     */
+    private static List<Path> list(Path originDirectory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(originDirectory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+}
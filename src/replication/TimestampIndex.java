@@ -0,0 +1,117 @@
+package replication;
+
+import java.util.Arrays;
+
+/**
+ * Sparse index of one origin's records in the write-ahead log. Every
+ * INTERVAL-th record of the origin is indexed together with the largest
+ * timestamp the origin wrote before it, so a lookup can skip every earlier
+ * record without relying on timestamps being in log order.
+ */
+class TimestampIndex {
+    static final int INTERVAL = 64;
+
+    private long[] maxTimestampBefore = new long[16];
+    private long[] lsns = new long[16];
+    private long[] segmentBases = new long[16];
+    private long[] positions = new long[16];
+    private int size;
+    private int sinceLastPoint = INTERVAL;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Position of a record in the log
+     */
+    static class Position {
+        final long lsn;
+        final long segmentBase;
+        final long offset;
+
+        Position(long lsn, long segmentBase, long offset) {
+            this.lsn = lsn;
+            this.segmentBase = segmentBase;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Note a record of this origin, in LSN order
+     */
+    synchronized void add(long timestamp, long lsn, long segmentBase, long offset) {
+        if (sinceLastPoint >= INTERVAL) {
+            if (size == lsns.length) {
+                int capacity = size * 2;
+                maxTimestampBefore = Arrays.copyOf(maxTimestampBefore, capacity);
+                lsns = Arrays.copyOf(lsns, capacity);
+                segmentBases = Arrays.copyOf(segmentBases, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            maxTimestampBefore[size] = maxTimestamp;
+            lsns[size] = lsn;
+            segmentBases[size] = segmentBase;
+            positions[size] = offset;
+            size++;
+            sinceLastPoint = 0;
+        }
+        sinceLastPoint++;
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    /**
+     * Find where to start reading for records with a timestamp after the given
+     * one: the last indexed record that every earlier record of this origin
+     * precedes in time.
+     *
+     * @return the start position, or null if the origin has no later records
+     */
+    synchronized Position seekAfter(long timestamp) {
+        if (size == 0 || maxTimestamp <= timestamp) {
+            return null;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (maxTimestampBefore[mid] <= timestamp) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return new Position(lsns[low], segmentBases[low], positions[low]);
+    }
+
+    /**
+     * Drop the points before the first retained LSN after log truncation and
+     * restart the index at the new first segment. Every removed record of
+     * this origin had a timestamp of at most truncatedTimestamp.
+     */
+    synchronized void truncateBefore(long firstLsn, long truncatedTimestamp) {
+        int removed = 0;
+        while (removed < size && lsns[removed] < firstLsn) {
+            removed++;
+        }
+        if (removed == 0) {
+            return;
+        }
+        int keep = size - removed;
+        int shift = removed - 1;
+        System.arraycopy(maxTimestampBefore, removed, maxTimestampBefore, 1, keep);
+        System.arraycopy(lsns, removed, lsns, 1, keep);
+        System.arraycopy(segmentBases, removed, segmentBases, 1, keep);
+        System.arraycopy(positions, removed, positions, 1, keep);
+        maxTimestampBefore[0] = truncatedTimestamp;
+        lsns[0] = firstLsn;
+        segmentBases[0] = firstLsn;
+        positions[0] = 0;
+        size -= shift;
+    }
+
+    synchronized long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    synchronized int getPointCount() {
+        return size;
+    }
+}
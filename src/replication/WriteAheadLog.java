@@ -0,0 +1,880 @@
+package replication;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import communication.WireFormat;
+
+/**
+ * Segmented, append-only log of LogEntry records on disk.
+ *
+ * Record layout: [int length][int crc32c][long lsn][long timestamp][payload],
+ * where length covers the payload and the CRC covers LSN, timestamp and
+ * payload. Appends are group-committed: the first appender to find no write in
+ * progress writes (and for {@link FsyncPolicy#ALWAYS} forces) every record
+ * queued so far while later appenders wait for it. Opening the log recovers the
+ * segments on disk and truncates a torn or corrupt tail.
+ *
+ * Each origin node's records are indexed sparsely by timestamp, so reading an
+ * origin's entries after a given timestamp seeks close to the first match
+ * instead of scanning the whole log.
+ *
+ * Sealed segments can be truncated from the front once every origin's records
+ * in them are covered elsewhere (e.g. by a snapshot). The largest removed
+ * timestamp per origin is kept in a small file next to the segments, so
+ * readers can tell when the entries they ask for are gone.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 100;
+
+    private static final int HEADER_BYTES = 24;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final String TRUNCATION_FILE = "truncated.properties";
+
+    /**
+     * Receives entries during a replay
+     */
+    public interface EntryVisitor {
+        /**
+         * @return false to stop the replay
+         */
+        boolean visit(long lsn, LogEntry entry);
+    }
+
+    /**
+     * Notified of each record once it has been written, in LSN order, before
+     * the appenders waiting on it return
+     */
+    public interface AppendListener {
+        void appended(long lsn, LogEntry entry);
+
+        /**
+         * Called after the records of one group commit have been reported
+         */
+        default void batchWritten() {
+        }
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long segmentBytes;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, TimestampIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<String, Long> truncatedTimestamps = new ConcurrentHashMap<>();
+    private volatile AppendListener appendListener;
+
+    // Appenders queue records under appendLock; the batch leader writes under ioLock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition batchWritten = appendLock.newCondition();
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private final CRC32C crc = new CRC32C();
+    private RecordBuffer pending = new RecordBuffer();
+    private RecordBuffer spare = new RecordBuffer();
+    private List<PendingRecord> pendingRecords = new ArrayList<>();
+    private List<PendingRecord> spareRecords = new ArrayList<>();
+    private long pendingMaxTimestamp = Long.MIN_VALUE;
+    private long nextLsn;
+    private boolean batchInFlight;
+    private volatile IOException writeFailure;
+    private boolean closed;
+
+    private LogSegment activeSegment;
+    private volatile long writtenLsn;
+    private volatile long syncedLsn;
+    private volatile long maxTimestamp = Long.MIN_VALUE;
+    private ScheduledExecutorService syncer;
+
+    // Statistics
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong truncatedSegments = new AtomicLong();
+    private int recoveredEntries;
+    private long recoveryMillis;
+
+    private WriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, long segmentBytes) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Open (or create) the log in a directory with default segment size and
+     * fsync interval
+     */
+    public static WriteAheadLog open(Path directory, FsyncPolicy fsyncPolicy) throws IOException {
+        return open(directory, fsyncPolicy, DEFAULT_SEGMENT_BYTES, DEFAULT_FSYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Open (or create) the log in a directory, recovering existing segments
+     */
+    public static WriteAheadLog open(Path directory, FsyncPolicy fsyncPolicy, long segmentBytes,
+            long fsyncIntervalMillis) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory, fsyncPolicy, segmentBytes);
+        log.recover();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            log.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "wal-sync-" + directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            log.syncer.scheduleWithFixedDelay(log::syncQuietly, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return log;
+    }
+
+    public void setAppendListener(AppendListener appendListener) {
+        this.appendListener = appendListener;
+    }
+
+    /**
+     * Append an entry. Returns once the record has been written to the file
+     * (and forced to disk under {@link FsyncPolicy#ALWAYS}).
+     *
+     * @return the entry's log sequence number
+     */
+    public long append(LogEntry entry) throws IOException {
+        long lsn = enqueue(entry);
+        awaitWritten(lsn);
+        return lsn;
+    }
+
+    /**
+     * Queue an entry for the next group commit without waiting for it. LSNs
+     * follow the order of enqueue calls.
+     *
+     * @return the entry's log sequence number
+     */
+    public long enqueue(LogEntry entry) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        entry.writeTo(new DataOutputStream(payload));
+        if (payload.size() > MAX_RECORD_BYTES) {
+            throw new IOException("Log entry too large: " + payload.size() + " bytes");
+        }
+
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Write-ahead log is closed");
+            }
+            checkWritable();
+            long lsn = nextLsn++;
+            pendingRecords.add(new PendingRecord(entry, lsn, pending.size()));
+            writeRecord(lsn, entry.getTimestamp(), payload.toByteArray());
+            appends.incrementAndGet();
+            return lsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Fail if a write has failed: the log no longer takes records
+     */
+    public void checkWritable() throws IOException {
+        IOException failure = writeFailure;
+        if (failure != null) {
+            throw new IOException("Write-ahead log is unusable after a failed write", failure);
+        }
+    }
+
+    /**
+     * Wait until an enqueued record has been written (and forced, under
+     * {@link FsyncPolicy#ALWAYS})
+     */
+    public void awaitWritten(long lsn) throws IOException {
+        appendLock.lock();
+        try {
+            awaitBatch(lsn);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void writeRecord(long lsn, long timestamp, byte[] payload) {
+        header.clear();
+        header.putInt(payload.length).putInt(0).putLong(lsn).putLong(timestamp);
+        crc.reset();
+        crc.update(header.array(), 8, 16);
+        crc.update(payload, 0, payload.length);
+        header.putInt(4, (int) crc.getValue());
+
+        pending.write(header.array(), 0, HEADER_BYTES);
+        pending.write(payload, 0, payload.length);
+        pendingMaxTimestamp = Math.max(pendingMaxTimestamp, timestamp);
+    }
+
+    /**
+     * Wait until the record is written, writing the queued batch ourselves if
+     * no other appender is doing so (called with appendLock held)
+     */
+    private void awaitBatch(long lsn) throws IOException {
+        while (true) {
+            checkWritable();
+            if (writtenLsn >= lsn) {
+                return;
+            }
+            if (batchInFlight) {
+                batchWritten.awaitUninterruptibly();
+                continue;
+            }
+
+            RecordBuffer batch = pending;
+            List<PendingRecord> records = pendingRecords;
+            long batchLastLsn = nextLsn - 1;
+            long batchMaxTimestamp = pendingMaxTimestamp;
+            long batchFirstLsn = writtenLsn + 1;
+            pending = spare;
+            pendingRecords = spareRecords;
+            pendingMaxTimestamp = Long.MIN_VALUE;
+            batchInFlight = true;
+
+            IOException failure = null;
+            appendLock.unlock();
+            try {
+                writeBatch(batch, records, batchFirstLsn, batchLastLsn, batchMaxTimestamp);
+                notifyAppended(records);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                appendLock.lock();
+            }
+
+            batch.reset();
+            records.clear();
+            spare = batch;
+            spareRecords = records;
+            batchInFlight = false;
+            if (failure != null) {
+                writeFailure = failure;
+            } else {
+                writtenLsn = batchLastLsn;
+            }
+            batchWritten.signalAll();
+        }
+    }
+
+    private void writeBatch(RecordBuffer batch, List<PendingRecord> records, long firstLsn, long lastLsn,
+            long batchMaxTimestamp) throws IOException {
+        ioLock.lock();
+        try {
+            LogSegment segment = activeSegment;
+            if (segment.getSize() > 0 && segment.getSize() + batch.size() > segmentBytes) {
+                segment = roll(firstLsn);
+            }
+
+            long start = segment.getSize();
+            FileChannel channel = segment.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(batch.array(), 0, batch.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                channel.force(false);
+                fsyncs.incrementAndGet();
+                syncedLsn = lastLsn;
+            }
+
+            for (PendingRecord record : records) {
+                index(segment, record.entry.getNodeId(), record.entry.getTimestamp(), record.lsn,
+                        start + record.offset);
+            }
+            segment.appended(batch.size(), lastLsn, batchMaxTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, batchMaxTimestamp);
+            batches.incrementAndGet();
+            bytesWritten.addAndGet(batch.size());
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private void index(LogSegment segment, String origin, long timestamp, long lsn, long offset) {
+        String key = origin != null ? origin : "";
+        indexes.computeIfAbsent(key, k -> new TimestampIndex())
+                .add(timestamp, lsn, segment.getBaseLsn(), offset);
+        segment.noteOrigin(key, timestamp);
+    }
+
+    private void notifyAppended(List<PendingRecord> records) {
+        AppendListener listener = appendListener;
+        if (listener == null) {
+            return;
+        }
+        for (PendingRecord record : records) {
+            try {
+                listener.appended(record.lsn, record.entry);
+            } catch (RuntimeException e) {
+                System.err.println("Write-ahead log listener failed: " + e.getMessage());
+            }
+        }
+        try {
+            listener.batchWritten();
+        } catch (RuntimeException e) {
+            System.err.println("Write-ahead log listener failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Seal the active segment and start a new one (called with ioLock held)
+     */
+    private LogSegment roll(long baseLsn) throws IOException {
+        LogSegment sealed = activeSegment;
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            sealed.getChannel().force(false);
+            fsyncs.incrementAndGet();
+        }
+        sealed.closeChannel();
+
+        LogSegment segment = new LogSegment(LogSegment.pathFor(directory, baseLsn), baseLsn, 0,
+                baseLsn - 1, Long.MIN_VALUE);
+        segment.openForAppend();
+        segments.put(baseLsn, segment);
+        activeSegment = segment;
+        return segment;
+    }
+
+    /**
+     * Force everything written so far to disk
+     */
+    public void sync() throws IOException {
+        long target = writtenLsn;
+        if (target <= syncedLsn) {
+            return;
+        }
+        ioLock.lock();
+        try {
+            if (activeSegment.getChannel() != null) {
+                activeSegment.getChannel().force(false);
+                fsyncs.incrementAndGet();
+                syncedLsn = Math.max(syncedLsn, target);
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Write-ahead log sync failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replay entries in LSN order, starting at fromLsn
+     */
+    public void replay(long fromLsn, EntryVisitor visitor) throws IOException {
+        replay(fromLsn, Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * Replay entries in LSN order, starting at fromLsn, skipping entries whose
+     * timestamp is not after afterTimestamp without decoding them
+     */
+    public void replay(long fromLsn, long afterTimestamp, EntryVisitor visitor) throws IOException {
+        Long start = segments.floorKey(fromLsn);
+        Iterable<LogSegment> candidates = start != null
+                ? segments.tailMap(start, true).values()
+                : segments.values();
+
+        for (LogSegment segment : candidates) {
+            if (segment.getLastLsn() < fromLsn || segment.getMaxTimestamp() <= afterTimestamp) {
+                continue;
+            }
+            try (RecordReader reader = new RecordReader(segment, segment.getSize())) {
+                while (reader.next()) {
+                    if (reader.lsn < fromLsn || reader.timestamp <= afterTimestamp) {
+                        continue;
+                    }
+                    if (!visitor.visit(reader.lsn, reader.decode())) {
+                        return;
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                skipTruncated(segment, e);
+            }
+        }
+    }
+
+    /**
+     * Replay one origin's entries with a timestamp after afterTimestamp, in LSN
+     * order, starting from the closest index point
+     */
+    public void replayOrigin(String origin, long afterTimestamp, EntryVisitor visitor) throws IOException {
+        TimestampIndex index = indexes.get(origin);
+        TimestampIndex.Position start = index != null ? index.seekAfter(afterTimestamp) : null;
+        if (start == null) {
+            return;
+        }
+
+        long offset = start.offset;
+        long expectedLsn = start.lsn;
+        for (LogSegment segment : segments.tailMap(start.segmentBase, true).values()) {
+            if (segment.getMaxTimestamp() > afterTimestamp) {
+                try (RecordReader reader = new RecordReader(segment, segment.getSize(), offset, expectedLsn)) {
+                    while (reader.next()) {
+                        if (reader.timestamp <= afterTimestamp || !origin.equals(reader.readOrigin())) {
+                            continue;
+                        }
+                        if (!visitor.visit(reader.lsn, reader.decode())) {
+                            return;
+                        }
+                    }
+                } catch (NoSuchFileException e) {
+                    skipTruncated(segment, e);
+                }
+            }
+            offset = 0;
+            expectedLsn = segment.getLastLsn() + 1;
+        }
+    }
+
+    /**
+     * A replay that reaches a segment removed by a concurrent truncation skips
+     * it; its entries are covered by whatever allowed the truncation
+     */
+    private void skipTruncated(LogSegment segment, NoSuchFileException e) throws NoSuchFileException {
+        if (segments.get(segment.getBaseLsn()) == segment) {
+            throw e;
+        }
+    }
+
+    /**
+     * Remove sealed segments from the front of the log while every record in
+     * them has a timestamp of at most the covered timestamp given for its
+     * origin. The active segment is never removed.
+     *
+     * @return the number of segments removed
+     */
+    public int truncate(Map<String, Long> coveredTimestamps) throws IOException {
+        ioLock.lock();
+        try {
+            List<LogSegment> removable = new ArrayList<>();
+            Map<String, Long> truncated = new HashMap<>(truncatedTimestamps);
+            for (LogSegment segment : segments.values()) {
+                if (segment == activeSegment || !isCovered(segment, coveredTimestamps)) {
+                    break;
+                }
+                removable.add(segment);
+                segment.getOriginMaxTimestamps().forEach((origin, ts) -> truncated.merge(origin, ts, Math::max));
+            }
+            if (removable.isEmpty()) {
+                return 0;
+            }
+
+            // Record what is gone before removing it
+            writeTruncationFile(truncated);
+            truncatedTimestamps.putAll(truncated);
+
+            long firstLsn = removable.get(removable.size() - 1).getLastLsn() + 1;
+            for (LogSegment segment : removable) {
+                segments.remove(segment.getBaseLsn());
+            }
+            for (Map.Entry<String, TimestampIndex> entry : indexes.entrySet()) {
+                entry.getValue().truncateBefore(firstLsn,
+                        truncatedTimestamps.getOrDefault(entry.getKey(), Long.MIN_VALUE));
+            }
+            for (LogSegment segment : removable) {
+                try {
+                    Files.deleteIfExists(segment.getPath());
+                } catch (IOException e) {
+                    // Still in use (e.g. by a reader on Windows); recovery skips it next time
+                    System.err.println("Could not delete truncated log segment " + segment.getPath()
+                            + ": " + e.getMessage());
+                }
+            }
+            truncatedSegments.addAndGet(removable.size());
+            return removable.size();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private static boolean isCovered(LogSegment segment, Map<String, Long> coveredTimestamps) {
+        for (Map.Entry<String, Long> entry : segment.getOriginMaxTimestamps().entrySet()) {
+            if (entry.getValue() > coveredTimestamps.getOrDefault(entry.getKey(), Long.MIN_VALUE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeTruncationFile(Map<String, Long> truncated) throws IOException {
+        Properties properties = new Properties();
+        truncated.forEach((origin, ts) -> properties.setProperty(origin, Long.toString(ts)));
+        Path target = directory.resolve(TRUNCATION_FILE);
+        Path temp = directory.resolve(TRUNCATION_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Largest truncated timestamp per origin");
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readTruncationFile() throws IOException {
+        Path file = directory.resolve(TRUNCATION_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        for (String origin : properties.stringPropertyNames()) {
+            try {
+                truncatedTimestamps.put(origin, Long.parseLong(properties.getProperty(origin)));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring bad truncation entry for " + origin);
+            }
+        }
+    }
+
+    /**
+     * Scan the segments on disk, truncate anything after the first invalid
+     * record and open the last segment for appending
+     */
+    private void recover() throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        readTruncationFile();
+
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                long base = LogSegment.parseBaseLsn(file);
+                if (base > 0) {
+                    bases.add(base);
+                }
+            }
+        }
+        bases.sort(null);
+
+        long expectedLsn = bases.isEmpty() ? 1 : bases.get(0);
+        boolean damaged = false;
+        for (long base : bases) {
+            Path path = LogSegment.pathFor(directory, base);
+            if (damaged || base != expectedLsn) {
+                // Everything after a gap or a damaged record is unreachable
+                System.err.println("Discarding write-ahead log segment after damaged data: " + path);
+                Files.delete(path);
+                damaged = true;
+                continue;
+            }
+
+            long fileSize = Files.size(path);
+            LogSegment segment = new LogSegment(path, base, 0, base - 1, Long.MIN_VALUE);
+            try (RecordReader reader = new RecordReader(segment, fileSize)) {
+                while (reader.next()) {
+                    index(segment, reader.readOrigin(), reader.timestamp, reader.lsn, segment.getSize());
+                    segment.appended(HEADER_BYTES + reader.length, reader.lsn, reader.timestamp);
+                    recoveredEntries++;
+                }
+            }
+            if (segment.getSize() < fileSize) {
+                System.err.println(String.format("Truncating write-ahead log %s at %d of %d bytes",
+                        path.getFileName(), segment.getSize(), fileSize));
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(segment.getSize());
+                }
+                damaged = true;
+            }
+
+            segments.put(base, segment);
+            maxTimestamp = Math.max(maxTimestamp, segment.getMaxTimestamp());
+            expectedLsn = segment.getLastLsn() + 1;
+        }
+
+        // Keep one empty trailing segment at most; its name records the next LSN
+        for (LogSegment segment : new ArrayList<>(segments.values())) {
+            if (segment.isEmpty() && segment != segments.lastEntry().getValue()) {
+                segments.remove(segment.getBaseLsn());
+                Files.delete(segment.getPath());
+            }
+        }
+
+        if (segments.isEmpty()) {
+            LogSegment segment = new LogSegment(LogSegment.pathFor(directory, expectedLsn), expectedLsn, 0,
+                    expectedLsn - 1, Long.MIN_VALUE);
+            segments.put(expectedLsn, segment);
+        }
+        activeSegment = segments.lastEntry().getValue();
+        activeSegment.openForAppend();
+
+        nextLsn = expectedLsn;
+        writtenLsn = expectedLsn - 1;
+        syncedLsn = writtenLsn;
+        recoveryMillis = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Write out anything queued, force it to disk and close the log
+     */
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (nextLsn - 1 > writtenLsn) {
+                awaitBatch(nextLsn - 1);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        ioLock.lock();
+        try {
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                activeSegment.getChannel().force(false);
+            }
+            activeSegment.closeChannel();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * LSN of the oldest entry still in the log
+     */
+    public long getFirstLsn() {
+        return segments.firstKey();
+    }
+
+    /**
+     * LSN of the newest written entry (firstLsn - 1 when the log is empty)
+     */
+    public long getLastLsn() {
+        return writtenLsn;
+    }
+
+    public long getEntryCount() {
+        return Math.max(0, getLastLsn() - getFirstLsn() + 1);
+    }
+
+    /**
+     * Largest entry timestamp in the log, or Long.MIN_VALUE when empty
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Origin node IDs with entries in the log
+     */
+    public Set<String> getOrigins() {
+        return new HashSet<>(indexes.keySet());
+    }
+
+    /**
+     * Largest timestamp written by one origin, or Long.MIN_VALUE if none
+     */
+    public long getMaxTimestamp(String origin) {
+        TimestampIndex index = indexes.get(origin);
+        return index != null ? index.getMaxTimestamp() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Largest timestamp of an origin's entries removed by truncation, or
+     * Long.MIN_VALUE if none were removed. Entries up to it can no longer be
+     * replayed.
+     */
+    public long getTruncatedTimestamp(String origin) {
+        return truncatedTimestamps.getOrDefault(origin, Long.MIN_VALUE);
+    }
+
+    /**
+     * Origin node IDs with entries removed by truncation
+     */
+    public Set<String> getTruncatedOrigins() {
+        return new HashSet<>(truncatedTimestamps.keySet());
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public int getRecoveredEntryCount() {
+        return recoveredEntries;
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    /**
+     * Get log statistics
+     */
+    public String getStatistics() {
+        long batchCount = batches.get();
+        return String.format("WAL Stats - Entries: %d, Segments: %d (truncated %d), Appends: %d, " +
+                "Group commits: %d (avg %.1f), Fsyncs: %d, Bytes: %d, Policy: %s",
+                getEntryCount(), getSegmentCount(), truncatedSegments.get(), appends.get(), batchCount,
+                batchCount == 0 ? 0.0 : (double) appends.get() / batchCount,
+                fsyncs.get(), bytesWritten.get(), fsyncPolicy);
+    }
+
+    /**
+     * Sequential reader over the valid records of one segment. Stops at the
+     * first short, oversized, out-of-sequence or corrupt record.
+     */
+    private static class RecordReader implements Closeable {
+        private final DataInputStream in;
+        private final long limit;
+        private final CRC32C checksum = new CRC32C();
+        private final ByteBuffer headerBytes = ByteBuffer.allocate(16);
+        private long position;
+        private long expectedLsn;
+        private byte[] payload = new byte[256];
+
+        int length;
+        long lsn;
+        long timestamp;
+
+        RecordReader(LogSegment segment, long limit) throws IOException {
+            this(segment, limit, 0, segment.getBaseLsn());
+        }
+
+        RecordReader(LogSegment segment, long limit, long offset, long firstLsn) throws IOException {
+            FileChannel channel = FileChannel.open(segment.getPath(), StandardOpenOption.READ);
+            channel.position(offset);
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            this.limit = limit;
+            this.position = offset;
+            this.expectedLsn = firstLsn;
+        }
+
+        boolean next() throws IOException {
+            if (position + HEADER_BYTES > limit) {
+                return false;
+            }
+            try {
+                int recordLength = in.readInt();
+                int recordCrc = in.readInt();
+                long recordLsn = in.readLong();
+                long recordTimestamp = in.readLong();
+                if (recordLength < 0 || recordLength > MAX_RECORD_BYTES
+                        || position + HEADER_BYTES + recordLength > limit || recordLsn != expectedLsn) {
+                    return false;
+                }
+
+                if (payload.length < recordLength) {
+                    payload = new byte[Math.max(recordLength, payload.length * 2)];
+                }
+                in.readFully(payload, 0, recordLength);
+
+                headerBytes.clear();
+                headerBytes.putLong(recordLsn).putLong(recordTimestamp);
+                checksum.reset();
+                checksum.update(headerBytes.array(), 0, 16);
+                checksum.update(payload, 0, recordLength);
+                if ((int) checksum.getValue() != recordCrc) {
+                    return false;
+                }
+
+                length = recordLength;
+                lsn = recordLsn;
+                timestamp = recordTimestamp;
+                position += HEADER_BYTES + recordLength;
+                expectedLsn++;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Read just the origin node ID, which LogEntry writes first
+         */
+        String readOrigin() throws IOException {
+            return WireFormat.readString(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+        }
+
+        LogEntry decode() throws IOException {
+            return LogEntry.readFrom(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A queued record and its offset within the pending batch
+     */
+    private static class PendingRecord {
+        final LogEntry entry;
+        final long lsn;
+        final int offset;
+
+        PendingRecord(LogEntry entry, long lsn, int offset) {
+            this.entry = entry;
+            this.lsn = lsn;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Growable byte buffer that exposes its backing array for channel writes
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -7,8 +7,11 @@ import chatroom.ChatroomServer;
 import replication.ReplicationManager;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -17,35 +20,96 @@ import java.util.concurrent.TimeUnit;
  * Main server class for a branch in the distributed inventory system
  */
 public class BranchServer implements NetworkManager.MessageHandler {
+    private static final long HEARTBEAT_INTERVAL_SECONDS = 60;
+    // Branches silent for this long are presumed failed (Suzuki-Kasami token loss)
+    private static final long HEARTBEAT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(3 * HEARTBEAT_INTERVAL_SECONDS);
+
     private final String branchId;
     private final int port;
     private final InventoryManager inventoryManager;
     private final NetworkManager networkManager;
     private final LamportClock lamportClock;
-    private final RicartAgrawalaMutex mutex;
+    private final DistributedMutex mutex;
     private final ClientConnectionManager clientManager;
     private final ChatroomServer chatroomServer;
     private final ReplicationManager replicationManager;
+    private final StockEscrow stockEscrow;
     private final ScheduledExecutorService scheduler;
     private final Set<String> knownBranches;
+    // The mutex's fixed membership; empty when it was built from knownBranches
+    private final Set<String> mutexBranches;
 
     private volatile boolean running = false;
 
     public BranchServer(String branchId, int port) {
+        this(branchId, port, new ServerOptions());
+    }
+
+    public BranchServer(String branchId, int port, ServerOptions options) {
         this.branchId = branchId;
         this.port = port;
         this.inventoryManager = new InventoryManager(branchId);
-        this.networkManager = new NetworkManager(branchId, port);
-        this.lamportClock = new LamportClock();
-        this.knownBranches = new HashSet<>();
-        this.mutex = new RicartAgrawalaMutex(branchId, networkManager, lamportClock, knownBranches);
-        this.clientManager = new ClientConnectionManager(this);
-        this.chatroomServer = new ChatroomServer(branchId, port + 1000);
-        this.replicationManager = new ReplicationManager(branchId, networkManager, lamportClock);
+        this.networkManager = new NetworkManager(branchId, port, options.getTransportMode(),
+                options.getThreadMode());
+        this.lamportClock = new LamportClock(options.getClockMode());
+        // Read and added to from several dispatch lanes
+        this.knownBranches = ConcurrentHashMap.newKeySet();
+        this.mutexBranches = options.getBranches();
+        this.mutex = createMutex(options.getMutexAlgorithm());
+        this.clientManager = new ClientConnectionManager(this, options.getThreadMode());
+        this.chatroomServer = new ChatroomServer(branchId, port + 1000, options.getThreadMode());
+        this.replicationManager = new ReplicationManager(branchId, networkManager, lamportClock,
+                options.getDataDirectory().resolve(branchId).resolve("wal"), options.getFsyncPolicy());
+        this.stockEscrow = options.getStockTransferMode() == StockTransferMode.ESCROW
+                ? new StockEscrow(branchId, networkManager, inventoryManager, knownBranches,
+                        options.getDataDirectory().resolve(branchId).resolve("escrow.state"))
+                : null;
         this.scheduler = Executors.newScheduledThreadPool(4);
 
         // Set up callbacks
+        networkManager.setDefaultCodec(options.getCodecType());
+        networkManager.setOutboundQueuePolicy(options.getQueueCapacity(), options.getOverflowPolicy());
+        networkManager.setLaneScheduling(options.getLinkScheduling());
+        networkManager.setDispatchLanes(options.getDispatchLanes());
         networkManager.setMessageHandler(this);
+        replicationManager.setInventoryManager(inventoryManager);
+        replicationManager.setPeers(knownBranches);
+        replicationManager.setBroadcastBatching(options.getReplicationBatch(), options.getReplicationLingerMicros());
+        replicationManager.setWriteQuorum(options.getWriteQuorum(), options.getAckTimeoutMillis());
+    }
+
+    /**
+     * Build the mutex over the configured branches. Maekawa's quorums and
+     * Suzuki-Kasami's token holders are fixed when the mutex is built, so
+     * neither can start from the branches that happen to be connected.
+     *
+     * @throws IllegalArgumentException if they are chosen without --branches
+     */
+    private DistributedMutex createMutex(MutexAlgorithm algorithm) {
+        Set<String> members = new HashSet<>(mutexBranches);
+        if (members.isEmpty() && algorithm != MutexAlgorithm.RICART_AGRAWALA) {
+            throw new IllegalArgumentException("--mutex=" + algorithm.name().toLowerCase().replace('_', '-') +
+                    " needs every branch ID in --branches");
+        }
+        if (!members.isEmpty() && !members.contains(branchId)) {
+            throw new IllegalArgumentException("--branches does not include " + branchId);
+        }
+        switch (algorithm) {
+            case MAEKAWA:
+                return new MaekawaMutex(branchId, networkManager, lamportClock, members);
+            case SUZUKI_KASAMI:
+                return new SuzukiKasamiMutex(branchId, networkManager, lamportClock, members,
+                        HEARTBEAT_TIMEOUT_MILLIS);
+            default:
+                return new RicartAgrawalaMutex(branchId, networkManager, lamportClock,
+                        members.isEmpty() ? knownBranches : members);
+        }
+    }
+
+    private void warnIfOutsideMutex(String otherBranchId) {
+        if (!mutexBranches.contains(otherBranchId)) {
+            System.out.println("Warning: Mutual exclusion only applies to initially known branches");
+        }
     }
 
     /**
@@ -67,6 +131,11 @@ public class BranchServer implements NetworkManager.MessageHandler {
             // Start replication manager
             replicationManager.start();
 
+            // Start stock escrow
+            if (stockEscrow != null) {
+                stockEscrow.start();
+            }
+
             // Schedule periodic tasks
             schedulePeriodicTasks();
 
@@ -99,6 +168,9 @@ public class BranchServer implements NetworkManager.MessageHandler {
         networkManager.stop();
         clientManager.stop();
         chatroomServer.stop();
+        if (stockEscrow != null) {
+            stockEscrow.stop();
+        }
         replicationManager.stop();
 
         try {
@@ -123,10 +195,10 @@ public class BranchServer implements NetworkManager.MessageHandler {
         boolean connected = networkManager.connectToNode(otherBranchId, host, otherPort);
         if (connected) {
             knownBranches.add(otherBranchId);
-            // Note: Current RicartAgrawalaMutex doesn't support dynamic node addition
+            // Note: Current mutex implementations don't support dynamic node addition
             // The mutex will only work with initially known branches
             System.out.println("Connected to branch: " + otherBranchId);
-            System.out.println("Warning: Mutual exclusion only applies to initially known branches");
+            warnIfOutsideMutex(otherBranchId);
         }
         return connected;
     }
@@ -148,12 +220,29 @@ public class BranchServer implements NetworkManager.MessageHandler {
             case STOCK_TRANSFER_RESPONSE:
                 handleStockTransferResponse(message);
                 break;
+            case ESCROW_REQUEST:
+            case ESCROW_STATE:
+                if (stockEscrow != null) {
+                    stockEscrow.handleMessage(message);
+                }
+                break;
             case MUTEX_REQUEST:
             case MUTEX_REPLY:
+            case MUTEX_RELEASE:
+            case MUTEX_FAILED:
+            case MUTEX_INQUIRE:
+            case MUTEX_YIELD:
+            case MUTEX_TOKEN:
                 handleMutexMessage(message);
                 break;
+            case BRANCH_HEARTBEAT:
+                mutex.handleHeartbeat(message.getSenderId());
+                break;
             case SYNC_REQUEST:
             case LOG_ENTRY:
+            case LOG_BATCH:
+            case LOG_ACK:
+            case SNAPSHOT:
                 replicationManager.handleMessage(message);
                 break;
             case PING:
@@ -169,7 +258,7 @@ public class BranchServer implements NetworkManager.MessageHandler {
         if (!knownBranches.contains(otherBranchId)) {
             knownBranches.add(otherBranchId);
             System.out.println("New branch connected: " + otherBranchId);
-            System.out.println("Warning: Mutual exclusion only applies to initially known branches");
+            warnIfOutsideMutex(otherBranchId);
 
             Message ack = new Message(MessageType.ACK, branchId, otherBranchId);
             networkManager.sendMessage(otherBranchId, ack);
@@ -182,20 +271,33 @@ public class BranchServer implements NetworkManager.MessageHandler {
         String requestingBranch = message.getSenderId();
 
         if (productId != null && requestedQuantity != null) {
-            boolean canFulfill = inventoryManager.transferStock(
-                    productId, requestedQuantity, branchId, requestingBranch);
-
-            Message response = new Message(MessageType.STOCK_TRANSFER_RESPONSE,
-                    branchId, requestingBranch, productId, lamportClock.tick());
-            response.putData("quantity", requestedQuantity);
-            response.putData("approved", canFulfill);
-
-            networkManager.sendMessage(requestingBranch, response);
-
-            if (canFulfill) {
-                System.out.println("Approved stock transfer: " + requestedQuantity +
-                        " units of " + productId + " to " + requestingBranch);
-            }
+            // Answer once the transfer is acknowledged by the write quorum, without blocking the network thread
+            inventoryManager.transferStockAsync(productId, requestedQuantity, branchId, requestingBranch)
+                    .whenComplete((transferred, error) -> {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        // A failed acknowledgement does not undo the transfer; a failed log write
+                        // leaves it neither durable nor replicated, so it is refused
+                        boolean canFulfill = error != null ? !(cause instanceof UncheckedIOException) : transferred;
+                        if (cause instanceof UncheckedIOException) {
+                            System.err.println("Stock transfer to " + requestingBranch + " refused: " +
+                                    cause.getMessage());
+                        } else if (error != null) {
+                            System.err.println("Stock transfer to " + requestingBranch +
+                                    " not acknowledged by the write quorum: " + error);
+                        }
+
+                        Message response = new Message(MessageType.STOCK_TRANSFER_RESPONSE,
+                                branchId, requestingBranch, productId, lamportClock.tick());
+                        response.putData("quantity", requestedQuantity);
+                        response.putData("approved", canFulfill);
+
+                        networkManager.sendMessage(requestingBranch, response);
+
+                        if (canFulfill) {
+                            System.out.println("Approved stock transfer: " + requestedQuantity +
+                                    " units of " + productId + " to " + requestingBranch);
+                        }
+                    });
         }
     }
 
@@ -231,6 +333,15 @@ public class BranchServer implements NetworkManager.MessageHandler {
             return;
         }
 
+        if (stockEscrow != null) {
+            if (stockEscrow.requestStock(productId, quantity)) {
+                System.out.println("Requested " + quantity + " units of " + productId + " from escrow");
+            } else {
+                System.out.println("No branch holds spare " + productId + " in escrow");
+            }
+            return;
+        }
+
         Message request = new Message(MessageType.STOCK_TRANSFER_REQUEST,
                 branchId, "", productId, lamportClock.tick());
         request.putData("quantity", quantity);
@@ -248,7 +359,8 @@ public class BranchServer implements NetworkManager.MessageHandler {
 
     private void schedulePeriodicTasks() {
         scheduler.scheduleAtFixedRate(this::checkLowStock, 30, 30, TimeUnit.SECONDS);
-        scheduler.scheduleAtFixedRate(this::sendHeartbeat, 60, 60, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
     }
 
     private void checkLowStock() {
@@ -279,7 +391,14 @@ public class BranchServer implements NetworkManager.MessageHandler {
         return lamportClock;
     }
 
-    public RicartAgrawalaMutex getMutex() {
+    /**
+     * Get the stock escrow (null unless --stock-transfers=escrow)
+     */
+    public StockEscrow getStockEscrow() {
+        return stockEscrow;
+    }
+
+    public DistributedMutex getMutex() {
         return mutex;
     }
 
@@ -7,6 +7,8 @@ import java.net.*;
 import java.util.concurrent.*;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages connections from client applications to the branch server
@@ -16,11 +18,16 @@ public class ClientConnectionManager {
     private ServerSocket clientServerSocket;
     private final ExecutorService executor;
     private final Map<String, ClientHandler> clients;
+    private final AtomicLong clientCounter = new AtomicLong();
     private volatile boolean running = false;
 
     public ClientConnectionManager(BranchServer branchServer) {
+        this(branchServer, ThreadMode.PLATFORM);
+    }
+
+    public ClientConnectionManager(BranchServer branchServer, ThreadMode threadMode) {
         this.branchServer = branchServer;
-        this.executor = Executors.newCachedThreadPool();
+        this.executor = threadMode.newExecutor();
         this.clients = new ConcurrentHashMap<>();
     }
 
@@ -79,7 +86,8 @@ public class ClientConnectionManager {
         while (running) {
             try {
                 Socket clientSocket = clientServerSocket.accept();
-                String clientId = "client_" + System.currentTimeMillis();
+                // Numbered, since several terminals can connect within one millisecond
+                String clientId = "client_" + clientCounter.incrementAndGet();
                 ClientHandler handler = new ClientHandler(clientId, clientSocket, this);
                 clients.put(clientId, handler);
                 executor.submit(handler);
@@ -141,22 +149,25 @@ class ClientHandler implements Runnable {
     private final String clientId;
     private final Socket socket;
     private final ClientConnectionManager manager;
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
+    private final MessageFramer framer;
+    // A lock rather than synchronized, so a virtual thread blocked writing does not pin its carrier
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private DataInputStream inputStream;
+    private DataOutputStream outputStream;
     private volatile boolean running = true;
 
     public ClientHandler(String clientId, Socket socket, ClientConnectionManager manager) {
         this.clientId = clientId;
         this.socket = socket;
         this.manager = manager;
+        this.framer = new MessageFramer(CodecType.BINARY);
     }
 
     @Override
     public void run() {
         try {
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            outputStream.flush();
-            inputStream = new ObjectInputStream(socket.getInputStream());
+            outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 
             // Send initial connection confirmation
             Message welcome = new Message(MessageType.ACK,
@@ -167,12 +178,7 @@ class ClientHandler implements Runnable {
             // Handle client messages
             while (running) {
                 try {
-                    Object obj = inputStream.readObject();
-                    if (obj instanceof Message) {
-                        handleClientMessage((Message) obj);
-                    }
-                } catch (ClassNotFoundException e) {
-                    System.err.println("Invalid message from client " + clientId);
+                    handleClientMessage(framer.readFrame(inputStream));
                 } catch (IOException e) {
                     if (running) {
                         System.err.println("Connection lost with client " + clientId);
@@ -239,16 +245,19 @@ class ClientHandler implements Runnable {
         }
     }
 
-    public synchronized void sendMessage(Message message) {
-        if (!running || outputStream == null)
-            return;
-
+    public void sendMessage(Message message) {
+        sendLock.lock();
         try {
-            outputStream.writeObject(message);
+            if (!running || outputStream == null)
+                return;
+
+            framer.writeFrame(message, outputStream);
             outputStream.flush();
         } catch (IOException e) {
             System.err.println("Failed to send message to client " + clientId + ": " + e.getMessage());
             running = false;
+        } finally {
+            sendLock.unlock();
         }
     }
 
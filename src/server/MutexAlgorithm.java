@@ -0,0 +1,15 @@
+package server;
+
+/**
+ * Which distributed mutual exclusion algorithm a branch runs
+ */
+public enum MutexAlgorithm {
+    // Permission from every other branch, 2(N-1) messages per entry at most
+    RICART_AGRAWALA,
+
+    // Votes from a sqrt(N) grid quorum, for larger clusters
+    MAEKAWA,
+
+    // A token per resource; re-entry by the holder sends no messages
+    SUZUKI_KASAMI
+}
@@ -0,0 +1,313 @@
+package server;
+
+import communication.CodecType;
+import communication.LaneScheduling;
+import communication.MessageDispatcher;
+import communication.OutboundQueue;
+import communication.OverflowPolicy;
+import communication.ThreadMode;
+import communication.TransportMode;
+import distributed.LamportClock;
+import replication.FsyncPolicy;
+import replication.ReplicationManager;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Runtime options for a branch server, parsed from --key=value arguments
+ */
+public class ServerOptions {
+    private TransportMode transportMode = TransportMode.BLOCKING;
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private CodecType codecType = CodecType.BINARY;
+    private int queueCapacity = OutboundQueue.DEFAULT_CAPACITY;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private LaneScheduling linkScheduling = OutboundQueue.DEFAULT_SCHEDULING;
+    private int dispatchLanes = MessageDispatcher.DEFAULT_LANES;
+    private Path dataDirectory = Paths.get("data");
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    private int replicationBatch = ReplicationManager.DEFAULT_BROADCAST_BATCH;
+    private long replicationLingerMicros = ReplicationManager.DEFAULT_LINGER_MICROS;
+    private int writeQuorum;
+    private long ackTimeoutMillis = ReplicationManager.DEFAULT_ACK_TIMEOUT_MILLIS;
+    private LamportClock.Mode clockMode = LamportClock.Mode.LAMPORT;
+    private StockTransferMode stockTransferMode = StockTransferMode.REQUEST;
+    private MutexAlgorithm mutexAlgorithm = MutexAlgorithm.RICART_AGRAWALA;
+    private Set<String> branches = Collections.emptySet();
+
+    /**
+     * Parse options from command line arguments starting at the given index.
+     * Both --key=value and --key value are accepted (cmd.exe splits on '=').
+     *
+     * @throws IllegalArgumentException for unknown options or values
+     */
+    public static ServerOptions parse(String[] args, int fromIndex) {
+        ServerOptions options = new ServerOptions();
+        for (int i = fromIndex; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+
+            String key;
+            String value;
+            int separator = arg.indexOf('=');
+            if (separator >= 0) {
+                key = arg.substring(2, separator);
+                value = arg.substring(separator + 1);
+            } else if (i + 1 < args.length) {
+                key = arg.substring(2);
+                value = args[++i];
+            } else {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            switch (key) {
+                case "transport":
+                    options.setTransportMode(TransportMode.valueOf(value.toUpperCase()));
+                    break;
+                case "threads":
+                    options.setThreadMode(ThreadMode.valueOf(value.toUpperCase()));
+                    break;
+                case "codec":
+                    options.setCodecType(CodecType.valueOf(value.toUpperCase()));
+                    break;
+                case "queue-capacity":
+                    options.setQueueCapacity(Integer.parseInt(value));
+                    break;
+                case "overflow":
+                    options.setOverflowPolicy(OverflowPolicy.valueOf(value.toUpperCase().replace('-', '_')));
+                    break;
+                case "link-scheduling":
+                    options.setLinkScheduling(LaneScheduling.valueOf(value.toUpperCase()));
+                    break;
+                case "dispatch-lanes":
+                    options.setDispatchLanes(Integer.parseInt(value));
+                    break;
+                case "data-dir":
+                    options.setDataDirectory(Paths.get(value));
+                    break;
+                case "fsync":
+                    options.setFsyncPolicy(FsyncPolicy.valueOf(value.toUpperCase()));
+                    break;
+                case "replication-batch":
+                    options.setReplicationBatch(Integer.parseInt(value));
+                    break;
+                case "replication-linger":
+                    options.setReplicationLingerMicros(Long.parseLong(value));
+                    break;
+                case "write-quorum":
+                    options.setWriteQuorum(Integer.parseInt(value));
+                    break;
+                case "ack-timeout":
+                    options.setAckTimeoutMillis(Long.parseLong(value));
+                    break;
+                case "clock":
+                    options.setClockMode(LamportClock.Mode.valueOf(value.toUpperCase()));
+                    break;
+                case "stock-transfers":
+                    options.setStockTransferMode(StockTransferMode.valueOf(value.toUpperCase()));
+                    break;
+                case "mutex":
+                    options.setMutexAlgorithm(MutexAlgorithm.valueOf(value.toUpperCase().replace('-', '_')));
+                    break;
+                case "branches":
+                    options.setBranches(parseBranches(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        return options;
+    }
+
+    private static Set<String> parseBranches(String value) {
+        Set<String> branches = new LinkedHashSet<>();
+        for (String branch : value.split(",")) {
+            if (!branch.trim().isEmpty()) {
+                branches.add(branch.trim());
+            }
+        }
+        return branches;
+    }
+
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public void setTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    /**
+     * Threads serving blocking sockets: branch links, POS clients and chat
+     */
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    public CodecType getCodecType() {
+        return codecType;
+    }
+
+    public void setCodecType(CodecType codecType) {
+        this.codecType = codecType;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * How each branch link orders control, transactional and bulk messages
+     */
+    public LaneScheduling getLinkScheduling() {
+        return linkScheduling;
+    }
+
+    public void setLinkScheduling(LaneScheduling linkScheduling) {
+        this.linkScheduling = linkScheduling;
+    }
+
+    /**
+     * Handler threads per traffic class for incoming branch messages, or 0 to
+     * handle them on the network thread
+     */
+    public int getDispatchLanes() {
+        return dispatchLanes;
+    }
+
+    public void setDispatchLanes(int dispatchLanes) {
+        this.dispatchLanes = dispatchLanes;
+    }
+
+    /**
+     * Base directory for persistent state; each branch uses a subdirectory
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    public void setDataDirectory(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Maximum number of log entries broadcast in one batch
+     */
+    public int getReplicationBatch() {
+        return replicationBatch;
+    }
+
+    public void setReplicationBatch(int replicationBatch) {
+        this.replicationBatch = replicationBatch;
+    }
+
+    /**
+     * How long a broadcast batch waits for more entries, in microseconds
+     */
+    public long getReplicationLingerMicros() {
+        return replicationLingerMicros;
+    }
+
+    public void setReplicationLingerMicros(long replicationLingerMicros) {
+        this.replicationLingerMicros = replicationLingerMicros;
+    }
+
+    /**
+     * Number of branches that must acknowledge a stock transfer before it is
+     * confirmed (0 confirms once logged locally)
+     */
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
+    public long getAckTimeoutMillis() {
+        return ackTimeoutMillis;
+    }
+
+    public void setAckTimeoutMillis(long ackTimeoutMillis) {
+        this.ackTimeoutMillis = ackTimeoutMillis;
+    }
+
+    /**
+     * Whether timestamps are plain Lamport counters or hybrid logical clock
+     * values that track wall time
+     */
+    public LamportClock.Mode getClockMode() {
+        return clockMode;
+    }
+
+    public void setClockMode(LamportClock.Mode clockMode) {
+        this.clockMode = clockMode;
+    }
+
+    public StockTransferMode getStockTransferMode() {
+        return stockTransferMode;
+    }
+
+    public void setStockTransferMode(StockTransferMode stockTransferMode) {
+        this.stockTransferMode = stockTransferMode;
+    }
+
+    public MutexAlgorithm getMutexAlgorithm() {
+        return mutexAlgorithm;
+    }
+
+    public void setMutexAlgorithm(MutexAlgorithm mutexAlgorithm) {
+        this.mutexAlgorithm = mutexAlgorithm;
+    }
+
+    /**
+     * Every branch taking part in mutual exclusion, this one included; empty
+     * when membership is only learned from connections
+     */
+    public Set<String> getBranches() {
+        return branches;
+    }
+
+    public void setBranches(Set<String> branches) {
+        this.branches = Collections.unmodifiableSet(new LinkedHashSet<>(branches));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ServerOptions{transport=%s, threads=%s, codec=%s, queueCapacity=%d, overflow=%s, " +
+                "linkScheduling=%s, dispatchLanes=%d, dataDir=%s, fsync=%s, replicationBatch=%d, replicationLinger=%dus, writeQuorum=%d, " +
+                "ackTimeout=%dms, clock=%s, stockTransfers=%s, mutex=%s, branches=%s}",
+                transportMode, threadMode, codecType, queueCapacity, overflowPolicy, linkScheduling, dispatchLanes, dataDirectory, fsyncPolicy,
+                replicationBatch, replicationLingerMicros, writeQuorum, ackTimeoutMillis, clockMode,
+                stockTransferMode, mutexAlgorithm, branches);
+    }
+}
@@ -0,0 +1,12 @@
+package server;
+
+/**
+ * How a branch gets stock from other branches
+ */
+public enum StockTransferMode {
+    // STOCK_TRANSFER_REQUEST to every branch, each answering with a response
+    REQUEST,
+
+    // Shares held in bounded counters, moved by one-sided transfers (StockEscrow)
+    ESCROW
+}